@@ -0,0 +1,296 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.nio.ByteBuffer;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+/**
+ * Per reader APDU transport working on preallocated direct buffers.
+ *
+ * A command is written into the command buffer with one of the
+ * {@code prepare} methods and sent with {@link #transmit(CardChannel)}
+ * through {@link CardChannel#transmit(ByteBuffer, ByteBuffer)}. The
+ * response data stays in the response buffer and is read in place via
+ * {@link #getResponse()}; nothing is allocated per APDU.
+ *
+ * Status words {@code 61xx} (more data available) are answered with
+ * GET RESPONSE and the data is accumulated directly behind the previous
+ * part, {@code 6Cxx} (wrong Le) resends the command with the correct
+ * Le.
+ *
+ * Not thread safe, every reader worker owns its own transport.
+ *
+ * @author th
+ */
+public class ApduTransport
+{
+  public static final int SW_NO_ERROR = 0x9000;
+
+  /**
+   * Space the PC/SC provider requires in the response buffer for every
+   * single transmit: 256 data bytes and the status word.
+   */
+  public static final int MIN_RESPONSE_SPACE = 258;
+
+  /**
+   * Transport for short APDUs with up to 4 KiB of chained response data.
+   */
+  public ApduTransport()
+  {
+    this( 5 + 255 + 1, 4096 );
+  }
+
+  /**
+   * @param maxCommandLength longest command APDU, 261 for short APDUs
+   * @param maxResponseData largest (accumulated) response data length
+   */
+  public ApduTransport( int maxCommandLength, int maxResponseData )
+  {
+    this.command = ByteBuffer.allocateDirect( maxCommandLength );
+    this.response = ByteBuffer.allocateDirect(
+      Math.max( maxResponseData, 256 ) + MIN_RESPONSE_SPACE );
+  }
+
+  /**
+   * Prepares a case 1 ({@code le < 0}) or case 2 command.
+   *
+   * @param le expected response length 1..256, 0 for "up to 256"
+   */
+  public ApduTransport prepare( int cla, int ins, int p1, int p2, int le )
+  {
+    command.clear();
+    header( cla, ins, p1, p2 );
+    leBytes = 0;
+    if( le >= 0 )
+    {
+      command.put( (byte) le );
+      leBytes = 1;
+    }
+    command.flip();
+    return this;
+  }
+
+  /**
+   * Prepares a case 3 ({@code le < 0}) or case 4 command with short
+   * length fields.
+   */
+  public ApduTransport prepare( int cla, int ins, int p1, int p2,
+    byte[] data, int offset, int length, int le )
+  {
+    if( length < 1 || length > 255 )
+    {
+      throw new IllegalArgumentException( "Lc must be 1..255" );
+    }
+    command.clear();
+    header( cla, ins, p1, p2 );
+    command.put( (byte) length );
+    command.put( data, offset, length );
+    leBytes = 0;
+    if( le >= 0 )
+    {
+      command.put( (byte) le );
+      leBytes = 1;
+    }
+    command.flip();
+    return this;
+  }
+
+  /**
+   * Prepares a case 2 command with an extended Le field.
+   *
+   * @param le expected response length 1..65536
+   */
+  public ApduTransport prepareExtended( int cla, int ins, int p1, int p2,
+    int le )
+  {
+    command.clear();
+    header( cla, ins, p1, p2 );
+    command.put( (byte) 0 );
+    command.putShort( (short) le );
+    leBytes = 2;
+    command.flip();
+    return this;
+  }
+
+  /**
+   * Sends the prepared command, following {@code 61xx} and {@code 6Cxx}
+   * status words.
+   *
+   * @return the final status word
+   */
+  public int transmit( CardChannel channel )
+    throws CardException
+  {
+    int commandLength = command.limit();
+    int cla = command.get( 0 ) & 0xff;
+    int rounds = 0;
+
+    response.clear();
+
+    while( true )
+    {
+      if( ++rounds > MAX_ROUNDS )
+      {
+        throw new CardException( "too many GET RESPONSE/resend rounds" );
+      }
+      if( response.remaining() < MIN_RESPONSE_SPACE )
+      {
+        throw new CardException( "response exceeds "
+          + ( response.capacity() - MIN_RESPONSE_SPACE ) + " bytes" );
+      }
+
+      int start = response.position();
+      command.position( 0 ).limit( commandLength );
+      int n = channel.transmit( command, response );
+
+      if( n < 2 )
+      {
+        throw new CardException( "response APDU without status word" );
+      }
+
+      int sw1 = response.get( start + n - 2 ) & 0xff;
+      int sw2 = response.get( start + n - 1 ) & 0xff;
+
+      if( sw1 == 0x6C && leBytes > 0 )
+      {
+        // wrong Le: resend with the Le the card asked for, the response
+        // data so far stays untouched
+        if( leBytes == 2 )
+        {
+          command.put( commandLength - 2, (byte) 0 );
+        }
+        command.put( commandLength - 1, (byte) sw2 );
+        response.position( start );
+        continue;
+      }
+
+      // keep the data, drop the status word
+      response.position( start + n - 2 );
+
+      if( sw1 == 0x61 )
+      {
+        // more data available: GET RESPONSE on the same logical channel
+        command.clear();
+        header( getResponseClass( cla ), 0xC0, 0x00, 0x00 );
+        command.put( (byte) sw2 );
+        command.flip();
+        commandLength = command.limit();
+        leBytes = 1;
+        continue;
+      }
+
+      sw = ( sw1 << 8 ) | sw2;
+      dataLength = response.position();
+      response.flip();
+      return sw;
+    }
+  }
+
+  /**
+   * Largest (accumulated) response data a single transmit is guaranteed
+   * to take: every round needs {@link #MIN_RESPONSE_SPACE} free bytes.
+   */
+  public int getMaxResponseData()
+  {
+    return response.capacity() - MIN_RESPONSE_SPACE;
+  }
+
+  /**
+   * Status word of the last {@link #transmit(CardChannel)}.
+   */
+  public int getSw()
+  {
+    return sw;
+  }
+
+  public boolean isSuccess()
+  {
+    return sw == SW_NO_ERROR;
+  }
+
+  /**
+   * Response data length of the last {@link #transmit(CardChannel)}.
+   */
+  public int getDataLength()
+  {
+    return dataLength;
+  }
+
+  /**
+   * The response buffer, position 0 and limit at the end of the response
+   * data. Read with absolute gets, the buffer is reused by the next
+   * transmit.
+   */
+  public ByteBuffer getResponse()
+  {
+    return response;
+  }
+
+  public int getResponseByte( int index )
+  {
+    if( index < 0 || index >= dataLength )
+    {
+      throw new IndexOutOfBoundsException( index );
+    }
+    return response.get( index ) & 0xff;
+  }
+
+  /**
+   * Class byte of the GET RESPONSE following a command sent with
+   * {@code cla} (ISO 7816-4 §5.4.1): same logical channel and secure
+   * messaging indication, interindustry class, no command chaining.
+   * Channels 0-3 are coded in b2-b1 with SM in b4-b3, channels 4-19
+   * ({@code 01xx xxxx}) in b4-b1 with SM in b6. Proprietary classes are
+   * assumed to code the channel the same way; {@code FF} (PC/SC pseudo
+   * APDUs) maps to the basic channel.
+   */
+  static int getResponseClass( int cla )
+  {
+    if( cla == 0xFF )
+    {
+      return 0x00;
+    }
+    return ( cla & 0x40 ) == 0 ? cla & 0x0F : cla & 0x6F;
+  }
+
+  private void header( int cla, int ins, int p1, int p2 )
+  {
+    command.put( (byte) cla ).put( (byte) ins )
+      .put( (byte) p1 ).put( (byte) p2 );
+  }
+
+  /**
+   * Bound for the GET RESPONSE and resend rounds of one command, guards
+   * against cards that keep answering {@code 61xx}/{@code 6Cxx}.
+   */
+  private static final int MAX_ROUNDS = 64;
+
+  private final ByteBuffer command;
+
+  private final ByteBuffer response;
+
+  /**
+   * Size of the Le field of the prepared command.
+   */
+  private int leBytes;
+
+  private int sw;
+
+  private int dataLength;
+
+}
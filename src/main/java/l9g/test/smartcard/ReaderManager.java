@@ -0,0 +1,435 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import l9g.test.smartcard.metrics.ReaderDropFlightEvent;
+import l9g.test.smartcard.recovery.PcscFault;
+import l9g.test.smartcard.recovery.RecoverySupervisor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps one {@link ReaderWorker} per attached card reader and detects
+ * card insertions for all of them with a single waiter.
+ *
+ * The manager blocks in {@link CardTerminals#waitForChange(long)} and
+ * dispatches every reader listed by
+ * {@code list( CardTerminals.State.CARD_INSERTION )} to its worker. A
+ * card already on a reader when it is attached, or when the manager
+ * starts, is no insertion; it is served after the next wait.
+ *
+ * <ul>
+ * <li>{@code changeTimeout} bounds each wait. An unplugged reader ends
+ * the wait early, a hot-plugged reader is only noticed when the wait
+ * ends, so this is the latency for new readers and at the same time
+ * the number of idle wakeups ({@code 60000 / changeTimeout} per
+ * minute, independent of the number of readers).</li>
+ * <li>{@code rescanInterval} is the pause between reader list scans
+ * while no reader is attached at all.</li>
+ * </ul>
+ *
+ * With a {@link RecoverySupervisor} a lost PC/SC context is replaced and
+ * the workers of all readers are rebuilt on the new one, without it
+ * failing calls are retried every {@code rescanInterval} with the same
+ * context. A card or reader fault of the reader list keeps the workers,
+ * the list is just scanned again. A worker whose tap failed with a lost context hands it to the
+ * manager, which replaces it after the current change wait.
+ *
+ * @author th
+ */
+@Slf4j
+public class ReaderManager
+{
+  public ReaderManager( CardTerminals terminals, TapProcessor tapProcessor,
+    long changeTimeout, long rescanInterval )
+  {
+    this( terminals, null, tapProcessor, changeTimeout, rescanInterval );
+  }
+
+  /**
+   * The PC/SC context is established by the supervisor when the manager
+   * starts running.
+   */
+  public ReaderManager( RecoverySupervisor recovery,
+    TapProcessor tapProcessor, long changeTimeout, long rescanInterval )
+  {
+    this( null, recovery, tapProcessor, changeTimeout, rescanInterval );
+  }
+
+  private ReaderManager( CardTerminals terminals,
+    RecoverySupervisor recovery, TapProcessor tapProcessor,
+    long changeTimeout, long rescanInterval )
+  {
+    this.terminals = terminals;
+    this.recovery = recovery;
+    this.tapProcessor = tapProcessor;
+    this.changeTimeout = changeTimeout;
+    this.rescanInterval = rescanInterval;
+  }
+
+  /**
+   * Runs the detection loop until the calling thread is interrupted
+   * or {@link #shutdown()} is called.
+   */
+  public void run()
+    throws InterruptedException
+  {
+    try
+    {
+      if( terminals == null )
+      {
+        terminals = recovery.connect();
+      }
+
+      while( running )
+      {
+        CardException lost = lostContext.getAndSet( null );
+        if( lost != null )
+        {
+          log.error( "ERROR: {}", lost.getMessage() );
+          recover( lost );
+          continue;
+        }
+
+        if( scan() )
+        {
+          detect();
+        }
+        else
+        {
+          Thread.sleep( rescanInterval );
+        }
+      }
+    }
+    finally
+    {
+      retireAll();
+    }
+  }
+
+  public void shutdown()
+  {
+    running = false;
+    if( recovery != null )
+    {
+      recovery.shutdown();
+    }
+  }
+
+  public Set<String> getActiveReaders()
+  {
+    return Set.copyOf( workers.keySet() );
+  }
+
+  /**
+   * Number of times the detection loop woke up without a card insertion.
+   */
+  public long getIdleWakeups()
+  {
+    return idleWakeups.get();
+  }
+
+  public long getInsertions()
+  {
+    return insertions.get();
+  }
+
+  /**
+   * Synchronizes the workers with the current reader list.
+   *
+   * @return {@code true} if at least one reader is attached
+   */
+  boolean scan()
+    throws InterruptedException
+  {
+    List<CardTerminal> list = null;
+
+    while( list == null )
+    {
+      try
+      {
+        list = terminals.list();
+      }
+      catch( CardException e )
+      {
+        log.error( "ERROR: {}", e.getMessage() );
+        if( !recover( e ) )
+        {
+          return false;
+        }
+      }
+    }
+
+    if( list.isEmpty() && !readersMissing )
+    {
+      log.error( "ERROR: No card reader found!" );
+    }
+    readersMissing = list.isEmpty();
+
+    Set<String> present = new HashSet<>();
+    boolean added = false;
+
+    for( CardTerminal terminal : list )
+    {
+      String name = terminal.getName();
+      present.add( name );
+
+      if( !workers.containsKey( name ) )
+      {
+        ReaderWorker worker = new ReaderWorker( terminal, tapProcessor,
+          recovery != null ? this::contextLost : null );
+        workers.put( name, worker );
+        Thread.ofVirtual().name( "reader-" + name ).start( worker );
+        fresh.put( name, terminal );
+        added = true;
+      }
+    }
+
+    if( added )
+    {
+      log.info( "Available card readers: {}", list );
+    }
+
+    workers.keySet().removeIf( name ->
+    {
+      if( !present.contains( name ) )
+      {
+        workers.get( name ).stop();
+        dropped( name );
+        return true;
+      }
+      return false;
+    } );
+
+    return !list.isEmpty();
+  }
+
+  private void detect()
+    throws InterruptedException
+  {
+    try
+    {
+      // DO NOT USE BLOCKING I/O
+      // An infinite wait would never notice hot-plugged readers.
+      boolean changed = terminals.waitForChange( changeTimeout );
+      long now = System.nanoTime();
+      boolean inserted = serveFresh( now );
+
+      if( changed )
+      {
+        for( CardTerminal terminal :
+          terminals.list( CardTerminals.State.CARD_INSERTION ) )
+        {
+          ReaderWorker worker = workers.get( terminal.getName() );
+          // a new reader was already served by serveFresh()
+          if( worker != null && !served.contains( terminal.getName() ) )
+          {
+            insertions.incrementAndGet();
+            worker.cardInserted( now );
+            inserted = true;
+          }
+        }
+
+        for( CardTerminal terminal :
+          terminals.list( CardTerminals.State.CARD_REMOVAL ) )
+        {
+          ReaderWorker worker = workers.get( terminal.getName() );
+          if( worker != null )
+          {
+            worker.cardRemoved( now );
+          }
+        }
+
+        if( !inserted )
+        {
+          idleWakeups.incrementAndGet();
+        }
+      }
+      else
+      {
+        idleWakeups.incrementAndGet();
+      }
+
+      if( recovery != null )
+      {
+        recovery.reset();
+      }
+    }
+    catch( CardException e )
+    {
+      if( recovery != null && PcscFault.of( e ) == PcscFault.CONTEXT )
+      {
+        recover( e );
+      }
+      else
+      {
+        // reader unplugged while waiting, the next scan will retire it
+        log.debug( "waitForChange: {}", e.getMessage() );
+        Thread.sleep( rescanInterval );
+      }
+    }
+    catch( IllegalStateException e )
+    {
+      // last reader unplugged while waiting
+      log.debug( "waitForChange: {}", e.getMessage() );
+      Thread.sleep( rescanInterval );
+    }
+  }
+
+  /**
+   * Signals the workers of the readers attached since the last wait if
+   * they already hold a card. A card present when a wait starts is no
+   * insertion of that wait, checking it afterwards serves it exactly
+   * once.
+   *
+   * @return {@code true} if a card was signaled
+   */
+  private boolean serveFresh( long now )
+  {
+    boolean inserted = false;
+    served.clear();
+
+    for( Map.Entry<String, CardTerminal> entry : fresh.entrySet() )
+    {
+      ReaderWorker worker = workers.get( entry.getKey() );
+      served.add( entry.getKey() );
+      try
+      {
+        if( worker != null && entry.getValue().isCardPresent() )
+        {
+          insertions.incrementAndGet();
+          worker.cardInserted( now );
+          inserted = true;
+        }
+      }
+      catch( CardException e )
+      {
+        log.debug( "isCardPresent: {}", e.getMessage() );
+      }
+    }
+
+    fresh.clear();
+    return inserted;
+  }
+
+  /**
+   * Lets the supervisor provide the terminals to go on with. After a
+   * lost context all workers are retired, their terminals are useless;
+   * after a card or reader fault they are kept and the next scan
+   * retires only the readers that are gone.
+   *
+   * @return {@code false} if the scan should be given up for now
+   */
+  private boolean recover( CardException e )
+    throws InterruptedException
+  {
+    PcscFault fault = PcscFault.of( e );
+    boolean contextLost =
+      fault != PcscFault.CARD && fault != PcscFault.READER;
+
+    if( contextLost )
+    {
+      workers.keySet().forEach( this::dropped );
+      retireAll();
+    }
+
+    if( recovery == null )
+    {
+      return false;
+    }
+
+    CardTerminals recovered = recovery.recover( terminals, e );
+    if( contextLost )
+    {
+      // faults of the retired workers belong to the replaced context
+      lostContext.set( null );
+    }
+    if( recovered == null )
+    {
+      return false;
+    }
+    terminals = recovered;
+    return true;
+  }
+
+  /**
+   * Called by a worker whose tap failed with a lost context.
+   */
+  private void contextLost( CardException e )
+  {
+    lostContext.compareAndSet( null, e );
+  }
+
+  private void dropped( String name )
+  {
+    tapProcessor.getMetrics().reader( name ).drop();
+
+    ReaderDropFlightEvent event = new ReaderDropFlightEvent();
+    if( event.shouldCommit() )
+    {
+      event.reader = name;
+      event.commit();
+    }
+  }
+
+  private void retireAll()
+  {
+    workers.values().forEach( ReaderWorker::stop );
+    workers.clear();
+    fresh.clear();
+  }
+
+  private final Map<String, ReaderWorker> workers = new ConcurrentHashMap<>();
+
+  /**
+   * Readers attached since the last change wait, detection thread only.
+   */
+  private final Map<String, CardTerminal> fresh = new HashMap<>();
+
+  private final Set<String> served = new HashSet<>();
+
+  private final AtomicLong idleWakeups = new AtomicLong();
+
+  private final AtomicLong insertions = new AtomicLong();
+
+  private final AtomicReference<CardException> lostContext =
+    new AtomicReference<>();
+
+  private final RecoverySupervisor recovery;
+
+  private final TapProcessor tapProcessor;
+
+  private final long changeTimeout;
+
+  private final long rescanInterval;
+
+  private volatile boolean running = true;
+
+  private volatile CardTerminals terminals;
+
+  private boolean readersMissing;
+
+}
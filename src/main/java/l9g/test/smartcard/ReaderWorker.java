@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.metrics.TapStage;
+import l9g.test.smartcard.recovery.PcscFault;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the taps of exactly one card reader.
+ *
+ * Card detection is done by the {@link ReaderManager} for all readers at
+ * once, the worker only sleeps until it gets signaled a card insertion.
+ * Each worker runs on its own (virtual) thread, so a slow or wedged
+ * reader only ever blocks its own worker.
+ *
+ * @author th
+ */
+@Slf4j
+public class ReaderWorker implements Runnable
+{
+  public ReaderWorker( CardTerminal terminal, TapProcessor tapProcessor )
+  {
+    this( terminal, tapProcessor, null );
+  }
+
+  /**
+   * @param contextLost called when a tap failed because the PC/SC
+   * context is lost, may be {@code null}
+   */
+  public ReaderWorker( CardTerminal terminal, TapProcessor tapProcessor,
+    Consumer<CardException> contextLost )
+  {
+    this.terminal = terminal;
+    this.tapProcessor = tapProcessor;
+    this.contextLost = contextLost;
+  }
+
+  @Override
+  public void run()
+  {
+    log.info( "Using card reader: {}", terminal.getName() );
+
+    while( running )
+    {
+      try
+      {
+        log.debug( "Waiting for a card..." );
+        insertion.acquire();
+        // insertions from now on need another round
+        pending.set( false );
+
+        if( running && terminal.isCardPresent() )
+        {
+          tapProcessor.process( terminal, transport, detectedAt );
+          tappedAt = System.nanoTime();
+        }
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+      catch( CardException e )
+      {
+        log.error( "ERROR: {}", e.getMessage() );
+        tapProcessor.tapFailed( terminal, detectedAt );
+        // a retired worker's context is already being replaced
+        if( contextLost != null && running
+          && PcscFault.of( e ) == PcscFault.CONTEXT )
+        {
+          contextLost.accept( e );
+        }
+      }
+      catch( RuntimeException e )
+      {
+        log.error( "ERROR: {}", e.getMessage() );
+        tapProcessor.tapFailed( terminal, detectedAt );
+      }
+    }
+
+    log.info( "Card reader retired: {}", terminal.getName() );
+  }
+
+  /**
+   * Signals a card insertion. Insertions signaled while a tap is still
+   * in progress collapse into one.
+   */
+  public void cardInserted( long detectedAt )
+  {
+    this.detectedAt = detectedAt;
+    if( pending.compareAndSet( false, true ) )
+    {
+      insertion.release();
+    }
+  }
+
+  /**
+   * Records how long the last tapped card stayed on the reader.
+   */
+  public void cardRemoved( long removedAt )
+  {
+    long tapped = tappedAt;
+    if( tapped != 0 )
+    {
+      tappedAt = 0;
+      tapProcessor.getMetrics()
+        .record( TapStage.REMOVAL_WAIT, removedAt - tapped );
+    }
+  }
+
+  public void stop()
+  {
+    running = false;
+    insertion.release();
+  }
+
+  public String getName()
+  {
+    return terminal.getName();
+  }
+
+  private final CardTerminal terminal;
+
+  private final TapProcessor tapProcessor;
+
+  private final Consumer<CardException> contextLost;
+
+  private final ApduTransport transport = new ApduTransport();
+
+  private final Semaphore insertion = new Semaphore( 0 );
+
+  /**
+   * An insertion is signaled and not yet picked up by the worker.
+   */
+  private final AtomicBoolean pending = new AtomicBoolean();
+
+  private volatile boolean running = true;
+
+  private volatile long detectedAt;
+
+  private volatile long tappedAt;
+
+}
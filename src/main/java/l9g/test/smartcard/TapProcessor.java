@@ -0,0 +1,384 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.io.IOException;
+import java.time.Instant;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.debounce.TapDebouncer;
+import l9g.test.smartcard.directory.IdentityCache;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import l9g.test.smartcard.event.TapOutcome;
+import l9g.test.smartcard.metrics.TapFlightEvent;
+import l9g.test.smartcard.metrics.TapMetrics;
+import l9g.test.smartcard.metrics.TapStage;
+import l9g.test.smartcard.profile.AnswerToReset;
+import l9g.test.smartcard.profile.CardProfile;
+import l9g.test.smartcard.profile.CardProfileCache;
+import l9g.test.smartcard.profile.UidStrategy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the UID of the card currently present in a terminal.
+ *
+ * Instances are stateless and may be shared by all reader workers, the
+ * per reader buffers live in the {@link ApduTransport} of the worker.
+ * Reading the UID and recording the metrics do not allocate; the report
+ * of a tap, its {@link TapEvent} and, while JFR records it, its
+ * {@link TapFlightEvent} do.
+ *
+ * @author th
+ */
+@Slf4j
+public class TapProcessor
+{
+  public TapProcessor()
+  {
+    this( null, null );
+  }
+
+  /**
+   * @param identityCache resolves the card serial to an identity, may be
+   * {@code null}
+   * @param profileCache card profiles to skip protocol negotiation and
+   * unsupported APDUs, may be {@code null}
+   */
+  public TapProcessor( IdentityCache identityCache,
+    CardProfileCache profileCache )
+  {
+    this( identityCache, profileCache, new TapMetrics() );
+  }
+
+  public TapProcessor( IdentityCache identityCache,
+    CardProfileCache profileCache, TapMetrics metrics )
+  {
+    this( identityCache, profileCache, metrics, null );
+  }
+
+  /**
+   * @param events receives a {@link TapEvent} per tap, may be
+   * {@code null}
+   */
+  public TapProcessor( IdentityCache identityCache,
+    CardProfileCache profileCache, TapMetrics metrics,
+    TapEventPublisher events )
+  {
+    this( identityCache, profileCache, metrics, events, null );
+  }
+
+  /**
+   * @param debouncer drops repeated taps of a card before the directory
+   * is asked, may be {@code null}
+   */
+  public TapProcessor( IdentityCache identityCache,
+    CardProfileCache profileCache, TapMetrics metrics,
+    TapEventPublisher events, TapDebouncer debouncer )
+  {
+    this.identityCache = identityCache;
+    this.profileCache = profileCache;
+    this.metrics = metrics;
+    this.events = events;
+    this.debouncer = debouncer;
+  }
+
+  public TapMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  public void process( CardTerminal terminal, ApduTransport transport )
+    throws CardException
+  {
+    process( terminal, transport, System.nanoTime() );
+  }
+
+  /**
+   * @param transport the APDU transport of the calling reader worker
+   * @param detectedAt {@link System#nanoTime()} the card insertion was
+   * detected at
+   */
+  public void process( CardTerminal terminal, ApduTransport transport,
+    long detectedAt )
+    throws CardException
+  {
+    long start = System.nanoTime();
+    metrics.record( TapStage.DETECT, start - detectedAt );
+
+    TapFlightEvent event = new TapFlightEvent();
+    event.begin();
+    event.detect = start - detectedAt;
+    boolean ended = false;
+
+    try
+    {
+      Card card = connect( terminal );
+      long connected = System.nanoTime();
+      metrics.record( TapStage.CONNECT, connected - start );
+
+      StringBuilder out = new StringBuilder( 256 );
+      out.append( "Card Reader: " ).append( terminal.getName() ).append( '\n' );
+      out.append( "Card: " ).append( card ).append( '\n' );
+      out.append( "Card Protocol: " ).append( card.getProtocol() )
+        .append( '\n' );
+      byte[] cardAtr = card.getATR().getBytes();
+      String atr = UidCodec.toHex( cardAtr );
+      out.append( "Card ATR: " ).append( atr ).append( '\n' );
+
+      CardProfile profile =
+        profileCache != null ? profileCache.get( atr ) : null;
+      boolean readUid =
+        profile == null || profile.uidStrategy() == UidStrategy.GET_DATA;
+      int uidLength = 0;
+      int sw = 0;
+      long transmit = 0;
+      long decode = 0;
+
+      if( readUid )
+      {
+        long t = System.nanoTime();
+        sw = transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x00 )
+          .transmit( card.getBasicChannel() );
+        long transmitted = System.nanoTime();
+        transmit = transmitted - t;
+        metrics.record( TapStage.TRANSMIT, transmit );
+
+        uidLength = transport.getDataLength();
+        out.append( "Card UID: " );
+        UidCodec.encodeHex( transport.getResponse(), 0, uidLength, out )
+          .append( '\n' );
+        decode = System.nanoTime() - transmitted;
+
+        if( sw != ApduTransport.SW_NO_ERROR
+          || !UidCodec.isValidUidLength( uidLength ) )
+        {
+          log.warn( "GET UID returned {} bytes, SW={}", uidLength,
+            Integer.toHexString( sw ) );
+        }
+      }
+      else
+      {
+        out.append( "Card UID: <none>\n" );
+      }
+
+      if( profileCache != null )
+      {
+        UidStrategy uidStrategy = readUid ? uidStrategy( sw, uidLength ) : null;
+        if( profile == null && uidStrategy != null )
+        {
+          profile = profileCache.learn( atr, card.getProtocol(), uidStrategy,
+            AnswerToReset.parse( cardAtr ).getCardName() );
+        }
+
+        if( profile != null && profile.cardName() != null )
+        {
+          out.append( "Card Name: " ).append( profile.cardName() )
+            .append( '\n' );
+        }
+      }
+
+      // In this format the card uid/serial is stored in our directory service
+      long t = System.nanoTime();
+      // an error status word leaves no UID, not UID 0
+      boolean hasSerial = readUid && sw == ApduTransport.SW_NO_ERROR
+        && UidCodec.fitsSerial( uidLength );
+      long serial = hasSerial
+        ? UidCodec.toLongLittleEndian( transport.getResponse(), 0, uidLength )
+        : 0;
+      out.append( "Card Serial: " );
+      if( hasSerial )
+      {
+        out.append( serial );
+      }
+      else
+      {
+        out.append( "<" ).append( uidLength ).append( " byte UID>" );
+      }
+      long decoded = System.nanoTime();
+      decode += decoded - t;
+      metrics.record( TapStage.DECODE, decode );
+
+      // remove active sessions on card
+      card.disconnect( true );
+      long disconnect = System.nanoTime() - decoded;
+      metrics.record( TapStage.DISCONNECT, disconnect );
+      metrics.reader( terminal.getName() ).tap();
+
+      if( profileCache != null )
+      {
+        profileCache.seen( terminal.getName(), atr );
+      }
+
+      event.end();
+      event.success = sw == ApduTransport.SW_NO_ERROR || !readUid;
+      event.connect = connected - start;
+      event.transmit = transmit;
+      event.decode = decode;
+      event.disconnect = disconnect;
+      ended = true;
+
+      if( debouncer != null && hasSerial
+        && !debouncer.accept( terminal.getName(), serial ) )
+      {
+        metrics.reader( terminal.getName() ).duplicate();
+        log.debug( "Duplicate tap of {} on {} suppressed", serial,
+          terminal.getName() );
+        return;
+      }
+
+      TapOutcome outcome = readUid && sw == ApduTransport.SW_NO_ERROR
+        && uidLength > 0 ? TapOutcome.SUCCESS : TapOutcome.NO_UID;
+      String identity = null;
+
+      // the card is already released while the directory is asked
+      if( identityCache != null && hasSerial )
+      {
+        try
+        {
+          identity = identityCache.lookup( serial );
+          if( identity == null )
+          {
+            outcome = TapOutcome.UNKNOWN_CARD;
+          }
+        }
+        catch( IOException e )
+        {
+          log.error( "ERROR: directory lookup of {} failed: {}",
+            serial, e.getMessage() );
+          outcome = TapOutcome.LOOKUP_FAILED;
+        }
+
+        out.append( "\nCard Identity: " ).append( identity != null ? identity
+          : outcome == TapOutcome.UNKNOWN_CARD
+            ? "<unknown card>" : "<lookup failed>" );
+      }
+
+      if( events != null && events.hasSubscribers() )
+      {
+        // the only copy of the UID, the event keeps this array
+        byte[] uid = new byte[ uidLength ];
+        transport.getResponse().get( 0, uid );
+        events.submit( new TapEvent( terminal.getName(), atr, uid,
+          hasSerial ? serial : null, identity, outcome, Instant.now(),
+          System.nanoTime() - detectedAt ) );
+      }
+
+      report( terminal, out.toString() );
+    }
+    finally
+    {
+      // a tap failing with an exception is recorded as well
+      if( !ended )
+      {
+        event.end();
+      }
+      if( event.shouldCommit() )
+      {
+        event.reader = terminal.getName();
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Counts a tap that failed with an exception and publishes it as
+   * {@link TapOutcome#ERROR}.
+   */
+  public void tapFailed( CardTerminal terminal, long detectedAt )
+  {
+    metrics.reader( terminal.getName() ).error();
+
+    if( events != null && events.hasSubscribers() )
+    {
+      events.submit( new TapEvent( terminal.getName(), null, NO_UID, null,
+        null, TapOutcome.ERROR, Instant.now(),
+        System.nanoTime() - detectedAt ) );
+    }
+  }
+
+  /**
+   * The UID strategy a GET UID answer proves for the whole card family,
+   * {@code null} if it proves nothing (e.g. {@code 6300} for a card
+   * pulled during the read).
+   */
+  private static UidStrategy uidStrategy( int sw, int uidLength )
+  {
+    if( sw == ApduTransport.SW_NO_ERROR && uidLength > 0 )
+    {
+      return UidStrategy.GET_DATA;
+    }
+    // function, instruction or class not supported
+    if( sw == 0x6A81 || ( sw & 0xFF00 ) == 0x6D00
+      || ( sw & 0xFF00 ) == 0x6E00 )
+    {
+      return UidStrategy.NONE;
+    }
+    return null;
+  }
+
+  /**
+   * Connects with the protocol predicted by the profile cache, falls back
+   * to protocol negotiation if the prediction does not fit the card.
+   */
+  private Card connect( CardTerminal terminal )
+    throws CardException
+  {
+    if( profileCache != null )
+    {
+      String hint = profileCache.getProtocolHint( terminal.getName() );
+
+      if( !CardProfileCache.ANY_PROTOCOL.equals( hint ) )
+      {
+        try
+        {
+          return terminal.connect( hint );
+        }
+        catch( CardException e )
+        {
+          log.debug( "connect( {} ) failed, negotiating: {}", hint,
+            e.getMessage() );
+          profileCache.clearProtocolHint( terminal.getName() );
+        }
+      }
+    }
+
+    return terminal.connect( CardProfileCache.ANY_PROTOCOL );
+  }
+
+  /**
+   * Prints the tap as one block, so the output of concurrent readers does
+   * not interleave.
+   */
+  protected void report( CardTerminal terminal, String tap )
+  {
+    System.out.println( tap );
+  }
+
+  private static final byte[] NO_UID = new byte[ 0 ];
+
+  private final IdentityCache identityCache;
+
+  private final CardProfileCache profileCache;
+
+  private final TapMetrics metrics;
+
+  private final TapEventPublisher events;
+
+  private final TapDebouncer debouncer;
+
+}
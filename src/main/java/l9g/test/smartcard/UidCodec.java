@@ -0,0 +1,265 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocation free encoding and decoding of card UIDs.
+ *
+ * All methods work on caller supplied buffers at an offset, so a UID can
+ * be converted straight out of a response APDU buffer without copying it
+ * first. Only {@link #toHex(byte[])} creates a new object.
+ *
+ * UIDs of ISO 14443 cards are 4 (single size), 7 (double size) or 10
+ * (triple size) bytes long. A triple size UID does not fit into a
+ * {@code long} serial, the serial conversions throw an
+ * {@link ArithmeticException} instead of silently dropping bytes.
+ *
+ * @author th
+ */
+public final class UidCodec
+{
+  public static final int UID_SINGLE_SIZE = 4;
+
+  public static final int UID_DOUBLE_SIZE = 7;
+
+  public static final int UID_TRIPLE_SIZE = 10;
+
+  /**
+   * Longest UID that still fits into a {@code long} serial.
+   */
+  public static final int MAX_SERIAL_LENGTH = Long.BYTES;
+
+  private UidCodec()
+  {
+  }
+
+  public static boolean isValidUidLength( int length )
+  {
+    return length == UID_SINGLE_SIZE || length == UID_DOUBLE_SIZE
+      || length == UID_TRIPLE_SIZE;
+  }
+
+  /**
+   * Whether a UID of {@code length} bytes has a serial, an empty UID has
+   * none.
+   */
+  public static boolean fitsSerial( int length )
+  {
+    return length > 0 && length <= MAX_SERIAL_LENGTH;
+  }
+
+  /**
+   * Writes {@code 2 * length} upper case hex digits to {@code dst}.
+   *
+   * @return the offset in {@code dst} after the last digit written
+   */
+  public static int encodeHex( byte[] src, int offset, int length,
+    char[] dst, int dstOffset )
+  {
+    checkRange( src.length, offset, length );
+    checkRange( dst.length, dstOffset, 2 * length );
+
+    for( int i = offset, end = offset + length; i < end; i++ )
+    {
+      int b = src[ i ] & 0xff;
+      dst[ dstOffset++ ] = HEX[ b >>> 4 ];
+      dst[ dstOffset++ ] = HEX[ b & 0x0f ];
+    }
+    return dstOffset;
+  }
+
+  /**
+   * Appends {@code 2 * length} upper case hex digits to {@code dst}, which
+   * does not allocate as long as the builder has enough capacity.
+   */
+  public static StringBuilder encodeHex( byte[] src, int offset, int length,
+    StringBuilder dst )
+  {
+    checkRange( src.length, offset, length );
+
+    for( int i = offset, end = offset + length; i < end; i++ )
+    {
+      int b = src[ i ] & 0xff;
+      dst.append( HEX[ b >>> 4 ] ).append( HEX[ b & 0x0f ] );
+    }
+    return dst;
+  }
+
+  /**
+   * Appends the bytes between {@code offset} and {@code offset + length}
+   * of {@code src} as hex digits, the buffer position is not changed.
+   */
+  public static StringBuilder encodeHex( ByteBuffer src, int offset,
+    int length, StringBuilder dst )
+  {
+    checkRange( src.limit(), offset, length );
+
+    for( int i = offset, end = offset + length; i < end; i++ )
+    {
+      int b = src.get( i ) & 0xff;
+      dst.append( HEX[ b >>> 4 ] ).append( HEX[ b & 0x0f ] );
+    }
+    return dst;
+  }
+
+  public static String toHex( byte[] bytes )
+  {
+    char[] hex = new char[ 2 * bytes.length ];
+    encodeHex( bytes, 0, bytes.length, hex, 0 );
+    return new String( hex );
+  }
+
+  /**
+   * Decodes {@code length} hex digits (upper or lower case) of
+   * {@code src} into {@code dst}.
+   *
+   * @return the number of bytes written
+   * @throws IllegalArgumentException for an odd length or a non hex digit
+   */
+  public static int decodeHex( CharSequence src, int offset, int length,
+    byte[] dst, int dstOffset )
+  {
+    if( ( length & 1 ) != 0 )
+    {
+      throw new IllegalArgumentException( "odd number of hex digits" );
+    }
+    checkRange( src.length(), offset, length );
+    checkRange( dst.length, dstOffset, length / 2 );
+
+    for( int i = offset, end = offset + length; i < end; i += 2 )
+    {
+      dst[ dstOffset++ ] = (byte) ( ( hexValue( src, i ) << 4 )
+        | hexValue( src, i + 1 ) );
+    }
+    return length / 2;
+  }
+
+  /**
+   * The serial as stored in our directory service: the UID read as little
+   * endian number.
+   *
+   * @throws ArithmeticException if the UID is longer than 8 bytes
+   */
+  public static long toLongLittleEndian( byte[] src, int offset, int length )
+  {
+    checkSerial( src.length, offset, length );
+
+    long value = 0;
+    for( int i = offset + length - 1; i >= offset; i-- )
+    {
+      value = ( value << 8 ) | ( src[ i ] & 0xff );
+    }
+    return value;
+  }
+
+  /**
+   * @see #toLongLittleEndian(byte[], int, int)
+   */
+  public static long toLongLittleEndian( ByteBuffer src, int offset,
+    int length )
+  {
+    checkSerial( src.limit(), offset, length );
+
+    long value = 0;
+    for( int i = offset + length - 1; i >= offset; i-- )
+    {
+      value = ( value << 8 ) | ( src.get( i ) & 0xff );
+    }
+    return value;
+  }
+
+  /**
+   * The UID read as big endian number, i.e. in the order the hex string
+   * shows it.
+   *
+   * @throws ArithmeticException if the UID is longer than 8 bytes
+   */
+  public static long toLongBigEndian( byte[] src, int offset, int length )
+  {
+    checkSerial( src.length, offset, length );
+
+    long value = 0;
+    for( int i = offset, end = offset + length; i < end; i++ )
+    {
+      value = ( value << 8 ) | ( src[ i ] & 0xff );
+    }
+    return value;
+  }
+
+  /**
+   * @see #toLongBigEndian(byte[], int, int)
+   */
+  public static long toLongBigEndian( ByteBuffer src, int offset, int length )
+  {
+    checkSerial( src.limit(), offset, length );
+
+    long value = 0;
+    for( int i = offset, end = offset + length; i < end; i++ )
+    {
+      value = ( value << 8 ) | ( src.get( i ) & 0xff );
+    }
+    return value;
+  }
+
+  private static void checkSerial( int size, int offset, int length )
+  {
+    checkRange( size, offset, length );
+    if( length > MAX_SERIAL_LENGTH )
+    {
+      throw new ArithmeticException( "UID of " + length
+        + " bytes does not fit into a long serial" );
+    }
+  }
+
+  private static void checkRange( int size, int offset, int length )
+  {
+    if( offset < 0 || length < 0 || offset > size - length )
+    {
+      throw new IndexOutOfBoundsException( "offset " + offset + ", length "
+        + length + " out of bounds for size " + size );
+    }
+  }
+
+  private static int hexValue( CharSequence src, int index )
+  {
+    char c = src.charAt( index );
+    int value = c < HEX_VALUES.length ? HEX_VALUES[ c ] : -1;
+    if( value < 0 )
+    {
+      throw new IllegalArgumentException( "invalid hex digit '" + c
+        + "' at index " + index );
+    }
+    return value;
+  }
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private static final byte[] HEX_VALUES = new byte[ 128 ];
+
+  static
+  {
+    Arrays.fill( HEX_VALUES, (byte) -1 );
+    for( int i = 0; i < 16; i++ )
+    {
+      HEX_VALUES[ HEX[ i ] ] = (byte) i;
+      HEX_VALUES[ Character.toLowerCase( HEX[ i ] ) ] = (byte) i;
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.apdu;
+
+/**
+ * A command or status word of the APDU reference table, with all
+ * names and specifications listed for the same pattern.
+ *
+ * @author th
+ */
+public final class ApduDefinition
+{
+  ApduDefinition( String pattern, String name, String specification,
+    String annotation, int value, int mask, int fixedBits )
+  {
+    this.pattern = pattern;
+    this.name = name;
+    this.specification = specification;
+    this.annotation = annotation;
+    this.value = value;
+    this.mask = mask;
+    this.fixedBits = fixedBits;
+  }
+
+  /**
+   * The pattern as hex bytes, {@code xx} for any byte, {@code x} for
+   * any hex digit, e.g. {@code A0 B0 xx xx} or {@code 63Cx}.
+   */
+  public String getPattern()
+  {
+    return pattern;
+  }
+
+  /**
+   * Name of the first listed command, e.g. {@code READ BINARY}.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * All specifications defining this pattern, comma separated, may be
+   * empty.
+   */
+  public String getSpecification()
+  {
+    return specification;
+  }
+
+  /**
+   * Every name with its specifications, e.g.
+   * {@code INVALIDATE [3GPP TS 11.11, SAGEM SCT U34 6.15]}.
+   */
+  @Override
+  public String toString()
+  {
+    return annotation;
+  }
+
+  /**
+   * @param tail P1 P2 of a command, SW2 of a status word
+   */
+  boolean matches( int tail )
+  {
+    return ( tail & mask ) == value;
+  }
+
+  int getFixedBits()
+  {
+    return fixedBits;
+  }
+
+  private final String pattern;
+
+  private final String name;
+
+  private final String specification;
+
+  private final String annotation;
+
+  private final int value;
+
+  private final int mask;
+
+  private final int fixedBits;
+
+}
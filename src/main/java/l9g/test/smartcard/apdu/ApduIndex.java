@@ -0,0 +1,460 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.apdu;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Lookup index over Cheef's Grand APDU List ({@code apdu-list.txt}) and
+ * the ISO 7816-4 status words ({@code status-words.txt}).
+ *
+ * The tables are compiled once into arrays indexed by CLA and INS (by
+ * SW1 for status words). Each slot holds the few patterns for that
+ * CLA/INS, most specific first, which are matched against P1 P2 with a
+ * value and mask. Rows without a CLA apply to every class. A CLA with
+ * the lower nibble (secure messaging, logical channel) set is looked up
+ * in its own rows first, then in the rows of its class with the lower
+ * nibble cleared, each time together with the rows without a CLA. A
+ * lookup costs a few array loads and at most
+ * {@link #getMaxCandidates()} mask compares, and never allocates.
+ *
+ * @author th
+ */
+public final class ApduIndex
+{
+  /**
+   * The index over the bundled tables, built on first use.
+   */
+  public static ApduIndex getDefault()
+  {
+    return DefaultIndex.INSTANCE;
+  }
+
+  /**
+   * @param commands APDU table in the format of {@code apdu-list.txt}
+   * @param statusWords {@code SW1SW2;description} lines
+   *
+   * @throws IllegalArgumentException for a malformed table row
+   */
+  public static ApduIndex load( BufferedReader commands,
+    BufferedReader statusWords )
+    throws IOException
+  {
+    return new ApduIndex( parseCommands( commands ),
+      parseStatusWords( statusWords ) );
+  }
+
+  /**
+   * @return the most specific definition of the command or {@code null}
+   */
+  public ApduDefinition lookup( int cla, int ins, int p1, int p2 )
+  {
+    int tail = ( ( p1 & 0xff ) << 8 ) | ( p2 & 0xff );
+    int slot = claSlots[ cla & 0xff ];
+    ApduDefinition definition = match( commands[ slot ][ ins & 0xff ], tail );
+
+    int fallback = claSlots[ cla & 0xf0 ];
+    if( definition == null && fallback != slot )
+    {
+      definition = match( commands[ fallback ][ ins & 0xff ], tail );
+    }
+    return definition;
+  }
+
+  /**
+   * Looks up the command header (CLA INS P1 P2) at {@code offset}.
+   */
+  public ApduDefinition lookup( byte[] apdu, int offset )
+  {
+    return lookup( apdu[ offset ], apdu[ offset + 1 ], apdu[ offset + 2 ],
+      apdu[ offset + 3 ] );
+  }
+
+  /**
+   * @return the most specific definition of the status word or
+   * {@code null}
+   */
+  public ApduDefinition lookupStatus( int sw )
+  {
+    return match( statusWords[ ( sw >>> 8 ) & 0xff ], sw & 0xff );
+  }
+
+  /**
+   * Number of distinct command patterns.
+   */
+  public int getCommandCount()
+  {
+    return commandCount;
+  }
+
+  /**
+   * Upper bound of the patterns compared by one lookup.
+   */
+  public int getMaxCandidates()
+  {
+    return maxCandidates;
+  }
+
+  private ApduIndex( List<Group> commandGroups, List<Group> statusGroups )
+  {
+    int[] classes = commandGroups.stream()
+      .filter( group -> !group.anyCla )
+      .mapToInt( group -> group.cla ).distinct().sorted().toArray();
+
+    // slot 0 holds the rows without CLA only
+    commands = new ApduDefinition[ classes.length + 1 ][][];
+    commands[ 0 ] = buildSlots( commandGroups, -1 );
+    for( int i = 0; i < classes.length; i++ )
+    {
+      commands[ i + 1 ] = buildSlots( commandGroups, classes[ i ] );
+    }
+
+    // up to 256 classes and slot 0, more than a byte holds
+    claSlots = new char[ 256 ];
+    for( int cla = 0; cla < 256; cla++ )
+    {
+      int slot = Arrays.binarySearch( classes, cla );
+      if( slot < 0 )
+      {
+        slot = Arrays.binarySearch( classes, cla & 0xf0 );
+      }
+      claSlots[ cla ] = (char) ( slot < 0 ? 0 : slot + 1 );
+    }
+
+    statusWords = buildSlots( statusGroups, -1 );
+    commandCount = commandGroups.size();
+
+    int max = 0;
+    for( int cla = 0; cla < 256; cla++ )
+    {
+      ApduDefinition[][] slots = commands[ claSlots[ cla ] ];
+      ApduDefinition[][] fallback = claSlots[ cla & 0xf0 ] != claSlots[ cla ]
+        ? commands[ claSlots[ cla & 0xf0 ] ] : null;
+      for( int ins = 0; ins < 256; ins++ )
+      {
+        max = Math.max( max, slots[ ins ].length
+          + ( fallback != null ? fallback[ ins ].length : 0 ) );
+      }
+    }
+    maxCandidates = max;
+  }
+
+  private static ApduDefinition match( ApduDefinition[] candidates, int tail )
+  {
+    for( ApduDefinition candidate : candidates )
+    {
+      if( candidate.matches( tail ) )
+      {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Candidates per INS (or SW1) for one class, {@code cla} -1 for the
+   * rows without CLA only.
+   */
+  private static ApduDefinition[][] buildSlots( List<Group> groups, int cla )
+  {
+    List<List<ApduDefinition>> lists = new ArrayList<>( 256 );
+    for( int i = 0; i < 256; i++ )
+    {
+      lists.add( new ArrayList<>() );
+    }
+
+    for( Group group : groups )
+    {
+      if( group.anyCla || group.cla == cla )
+      {
+        lists.get( group.key ).add( group.definition );
+      }
+    }
+
+    ApduDefinition[][] slots = new ApduDefinition[ 256 ][];
+    for( int i = 0; i < 256; i++ )
+    {
+      // stable, so equally specific rows keep the table order
+      slots[ i ] = lists.get( i ).stream()
+        .sorted( Comparator.comparingInt( ApduDefinition::getFixedBits )
+          .reversed() )
+        .toArray( ApduDefinition[]::new );
+    }
+    return slots;
+  }
+
+  static List<Group> parseCommands( BufferedReader reader )
+    throws IOException
+  {
+    Map<String, Group> groups = new LinkedHashMap<>();
+    String line;
+    int lineNumber = 0;
+
+    while( ( line = reader.readLine() ) != null )
+    {
+      lineNumber++;
+      if( !line.startsWith( "|" ) || line.startsWith( "|ClaIns" ) )
+      {
+        continue;
+      }
+
+      // | CLA INS P1 P2 Lc ... | specification | description |
+      String[] cells = line.split( "\\|", -1 );
+      if( cells.length < 4 || cells[ 1 ].length() < HEADER_WIDTH )
+      {
+        throw new IllegalArgumentException( "line " + lineNumber
+          + ": malformed APDU row" );
+      }
+
+      String header = cells[ 1 ];
+      int cla = parseByte( header, 1, lineNumber );
+      int ins = parseByte( header, 4, lineNumber );
+      int p1 = parseByte( header, 7, lineNumber );
+      int p2 = parseByte( header, 10, lineNumber );
+      if( mask( ins ) != 0xff || ( mask( cla ) != 0 && mask( cla ) != 0xff ) )
+      {
+        throw new IllegalArgumentException( "line " + lineNumber
+          + ": INS and CLA must not contain wildcard digits" );
+      }
+
+      String pattern = patternOf( cla ) + " " + patternOf( ins ) + " "
+        + patternOf( p1 ) + " " + patternOf( p2 );
+      Group group = groups.computeIfAbsent( pattern, p -> new Group( p,
+        mask( cla ) == 0, value( cla ), value( ins ),
+        ( value( p1 ) << 8 ) | value( p2 ),
+        ( mask( p1 ) << 8 ) | mask( p2 ) ) );
+      group.add( cells[ 3 ].strip(), cells[ 2 ].strip() );
+    }
+
+    groups.values().forEach( Group::build );
+    return List.copyOf( groups.values() );
+  }
+
+  static List<Group> parseStatusWords( BufferedReader reader )
+    throws IOException
+  {
+    Map<String, Group> groups = new LinkedHashMap<>();
+    String line;
+    int lineNumber = 0;
+
+    while( ( line = reader.readLine() ) != null )
+    {
+      lineNumber++;
+      if( line.isBlank() || line.startsWith( "#" ) )
+      {
+        continue;
+      }
+
+      int separator = line.indexOf( ';' );
+      if( separator != 4 )
+      {
+        throw new IllegalArgumentException( "line " + lineNumber
+          + ": malformed status word" );
+      }
+
+      int sw1 = parseByte( line, 0, lineNumber );
+      int sw2 = parseByte( line, 2, lineNumber );
+      if( mask( sw1 ) != 0xff )
+      {
+        throw new IllegalArgumentException( "line " + lineNumber
+          + ": SW1 must not contain wildcard digits" );
+      }
+
+      String pattern = patternOf( sw1 ) + patternOf( sw2 );
+      Group group = groups.computeIfAbsent( pattern, p -> new Group( p,
+        true, 0, value( sw1 ), value( sw2 ), mask( sw2 ) ) );
+      group.add( line.substring( separator + 1 ).strip(), "" );
+    }
+
+    groups.values().forEach( Group::build );
+    return List.copyOf( groups.values() );
+  }
+
+  /**
+   * Parses the two digit byte pattern at {@code index}, where {@code x},
+   * {@code X}, {@code #} and blank match any digit.
+   *
+   * @return mask in bits 8..15, value in bits 0..7
+   */
+  private static int parseByte( String text, int index, int lineNumber )
+  {
+    return ( parseDigit( text.charAt( index ), lineNumber ) << 4 )
+      | parseDigit( text.charAt( index + 1 ), lineNumber );
+  }
+
+  private static int parseDigit( char c, int lineNumber )
+  {
+    if( c == 'x' || c == 'X' || c == '#' || c == ' ' )
+    {
+      return 0;
+    }
+
+    int digit = Character.digit( c, 16 );
+    if( digit < 0 )
+    {
+      throw new IllegalArgumentException( "line " + lineNumber
+        + ": invalid pattern digit '" + c + "'" );
+    }
+    // mask nibble in bits 8..11, shifted with the value by parseByte
+    return 0xf00 | digit;
+  }
+
+  private static int value( int parsed )
+  {
+    return parsed & 0xff;
+  }
+
+  private static int mask( int parsed )
+  {
+    return ( parsed >>> 8 ) & 0xff;
+  }
+
+  private static String patternOf( int parsed )
+  {
+    char[] digits = new char[ 2 ];
+    int mask = mask( parsed );
+    int value = value( parsed );
+    digits[ 0 ] = ( mask & 0xf0 ) != 0
+      ? Character.toUpperCase( Character.forDigit( value >>> 4, 16 ) ) : 'x';
+    digits[ 1 ] = ( mask & 0x0f ) != 0
+      ? Character.toUpperCase( Character.forDigit( value & 0x0f, 16 ) ) : 'x';
+    return new String( digits );
+  }
+
+  private static BufferedReader resource( String name )
+    throws IOException
+  {
+    InputStream in = ApduIndex.class.getResourceAsStream( name );
+    if( in == null )
+    {
+      throw new FileNotFoundException( name );
+    }
+    return new BufferedReader( new InputStreamReader( in,
+      StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * All table rows sharing one pattern.
+   */
+  static final class Group
+  {
+    Group( String pattern, boolean anyCla, int cla, int key, int value,
+      int mask )
+    {
+      this.pattern = pattern;
+      this.anyCla = anyCla;
+      this.cla = cla;
+      this.key = key;
+      this.value = value;
+      this.mask = mask;
+    }
+
+    void add( String name, String specification )
+    {
+      Set<String> specifications =
+        names.computeIfAbsent( name, n -> new LinkedHashSet<>() );
+      if( !specification.isEmpty() )
+      {
+        specifications.add( specification );
+      }
+    }
+
+    void build()
+    {
+      StringJoiner annotation = new StringJoiner( "; " );
+      StringJoiner allSpecifications = new StringJoiner( ", " );
+
+      for( Map.Entry<String, Set<String>> entry : names.entrySet() )
+      {
+        Set<String> specifications = entry.getValue();
+        annotation.add( specifications.isEmpty() ? entry.getKey()
+          : entry.getKey() + " [" + String.join( ", ", specifications )
+          + "]" );
+        specifications.forEach( allSpecifications::add );
+      }
+
+      definition = new ApduDefinition( pattern,
+        names.keySet().iterator().next(), allSpecifications.toString(),
+        annotation.toString(), value, mask,
+        ( anyCla ? 0 : 8 ) + Integer.bitCount( mask ) );
+    }
+
+    private final String pattern;
+
+    private final boolean anyCla;
+
+    private final int cla;
+
+    private final int key;
+
+    private final int value;
+
+    private final int mask;
+
+    private final Map<String, Set<String>> names = new LinkedHashMap<>();
+
+    private ApduDefinition definition;
+
+  }
+
+  private static final class DefaultIndex
+  {
+    static final ApduIndex INSTANCE;
+
+    static
+    {
+      try( BufferedReader commands = resource( "apdu-list.txt" );
+        BufferedReader statusWords = resource( "status-words.txt" ) )
+      {
+        INSTANCE = load( commands, statusWords );
+      }
+      catch( IOException e )
+      {
+        throw new UncheckedIOException( e );
+      }
+    }
+
+  }
+
+  // width of the "ClaIns P1 P2" column
+  private static final int HEADER_WIDTH = 12;
+
+  private final ApduDefinition[][][] commands;
+
+  private final char[] claSlots;
+
+  private final ApduDefinition[][] statusWords;
+
+  private final int commandCount;
+
+  private final int maxCandidates;
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.apdu;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Annotates an APDU trace with the command and status word names of an
+ * {@link ApduIndex}.
+ *
+ * A trace has one APDU per line as hex digits, blanks allowed, commands
+ * prefixed with {@code >} and responses with {@code <}:
+ *
+ * <pre>
+ * &gt; 00 A4 04 00 07 A0 00 00 00 03 10 10
+ * &lt; 6A 82
+ * </pre>
+ *
+ * A command is annotated with its name and specifications, a response
+ * with its status word and the name of the command it answers. Other
+ * lines are passed through unchanged.
+ *
+ * A decoder keeps the last command and is not thread safe.
+ *
+ * @author th
+ */
+public class ApduTraceDecoder
+{
+  public static final char COMMAND_PREFIX = '>';
+
+  public static final char RESPONSE_PREFIX = '<';
+
+  public ApduTraceDecoder( ApduIndex index )
+  {
+    this.index = index;
+  }
+
+  /**
+   * Decodes the trace file given as argument, or standard input, to
+   * standard output.
+   */
+  public static void main( String[] args )
+    throws IOException
+  {
+    ApduTraceDecoder decoder = new ApduTraceDecoder( ApduIndex.getDefault() );
+
+    try( BufferedReader in = args.length > 0
+      ? Files.newBufferedReader( Path.of( args[ 0 ] ), StandardCharsets.UTF_8 )
+      : new BufferedReader( new InputStreamReader( System.in,
+        StandardCharsets.UTF_8 ) );
+      Writer out = new BufferedWriter( new OutputStreamWriter( System.out,
+        StandardCharsets.UTF_8 ) ) )
+    {
+      decoder.decode( in, out );
+    }
+  }
+
+  /**
+   * Appends {@code line} and its annotation, if any, to {@code out}.
+   *
+   * @return the command or status word definition or {@code null}
+   */
+  public ApduDefinition decodeLine( CharSequence line, StringBuilder out )
+  {
+    out.append( line );
+
+    if( line.isEmpty() )
+    {
+      return null;
+    }
+
+    ApduDefinition definition = null;
+    char prefix = line.charAt( 0 );
+
+    if( prefix == COMMAND_PREFIX )
+    {
+      long header = readHeader( line );
+      if( header >= 0 )
+      {
+        definition = index.lookup( (int) ( header >>> 24 ),
+          (int) ( header >>> 16 ), (int) ( header >>> 8 ), (int) header );
+      }
+      command = definition;
+
+      if( definition != null )
+      {
+        out.append( ANNOTATION ).append( definition.toString() );
+      }
+    }
+    else if( prefix == RESPONSE_PREFIX )
+    {
+      int sw = readStatusWord( line );
+      if( sw >= 0 )
+      {
+        definition = index.lookupStatus( sw );
+        out.append( ANNOTATION ).append( definition != null
+          ? definition.getName() : "Unknown status" );
+        if( command != null )
+        {
+          out.append( " (" ).append( command.getName() ).append( ')' );
+        }
+      }
+      command = null;
+    }
+
+    return definition;
+  }
+
+  /**
+   * Decodes a whole trace.
+   *
+   * @return the number of lines read
+   */
+  public long decode( BufferedReader in, Writer out )
+    throws IOException
+  {
+    StringBuilder line = new StringBuilder( 256 );
+    char[] chars = new char[ 256 ];
+    long lines = 0;
+    String text;
+
+    while( ( text = in.readLine() ) != null )
+    {
+      line.setLength( 0 );
+      decodeLine( text, line );
+      line.append( '\n' );
+
+      if( chars.length < line.length() )
+      {
+        chars = new char[ Math.max( line.length(), 2 * chars.length ) ];
+      }
+      line.getChars( 0, line.length(), chars, 0 );
+      out.write( chars, 0, line.length() );
+      lines++;
+    }
+
+    return lines;
+  }
+
+  /**
+   * @return CLA INS P1 P2 of a command line or -1
+   */
+  private static long readHeader( CharSequence line )
+  {
+    long header = 0;
+    int digits = 0;
+
+    for( int i = 1, length = line.length(); i < length && digits < 8; i++ )
+    {
+      char c = line.charAt( i );
+      if( c != ' ' && c != '\t' )
+      {
+        int digit = Character.digit( c, 16 );
+        if( digit < 0 )
+        {
+          return -1;
+        }
+        header = ( header << 4 ) | digit;
+        digits++;
+      }
+    }
+
+    return digits == 8 ? header : -1;
+  }
+
+  /**
+   * @return the last two bytes of a response line or -1
+   */
+  private static int readStatusWord( CharSequence line )
+  {
+    int sw = 0;
+    int digits = 0;
+
+    for( int i = line.length() - 1; i > 0 && digits < 4; i-- )
+    {
+      char c = line.charAt( i );
+      if( c != ' ' && c != '\t' )
+      {
+        int digit = Character.digit( c, 16 );
+        if( digit < 0 )
+        {
+          return -1;
+        }
+        sw |= digit << ( 4 * digits++ );
+      }
+    }
+
+    return digits == 4 ? sw : -1;
+  }
+
+  private static final String ANNOTATION = "  # ";
+
+  private final ApduIndex index;
+
+  private ApduDefinition command;
+
+}
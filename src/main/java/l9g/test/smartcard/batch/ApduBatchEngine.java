@@ -0,0 +1,240 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.batch;
+
+import java.nio.ByteBuffer;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import l9g.test.smartcard.ApduTransport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs {@link ApduScript}s against a card in one exclusive burst.
+ *
+ * The whole script runs between {@link Card#beginExclusive()} and
+ * {@link Card#endExclusive()}, so no other application can interleave
+ * its APDUs and the reader keeps the card session open.
+ *
+ * READ BINARY steps start with the largest chunk possible: an extended
+ * Le up to the transport capacity if extended length is enabled,
+ * otherwise 256 bytes. Every {@code 67xx} (wrong length) halves the
+ * refused length, which is less than the chunk for the end of a range,
+ * falling back to short APDUs at 256 bytes. {@code 6Cxx} is answered by
+ * the {@link ApduTransport} itself.
+ *
+ * One engine per reader, not thread safe.
+ *
+ * @author th
+ */
+@Slf4j
+public class ApduBatchEngine
+{
+  /**
+   * @param transport the APDU transport of the reader
+   * @param extendedLength whether to try extended length READ BINARY
+   */
+  public ApduBatchEngine( ApduTransport transport, boolean extendedLength )
+  {
+    this.transport = transport;
+    this.extendedLength = extendedLength;
+  }
+
+  /**
+   * Runs {@code script}, appending all response data of commands with Le
+   * and of READ BINARY steps to {@code output}.
+   *
+   * @throws IllegalArgumentException if {@code output} is too small
+   */
+  public BatchResult execute( Card card, ApduScript script, ByteBuffer output )
+    throws CardException
+  {
+    CardChannel channel = card.getBasicChannel();
+
+    card.beginExclusive();
+    try
+    {
+      return run( channel, script, output );
+    }
+    finally
+    {
+      try
+      {
+        card.endExclusive();
+      }
+      catch( CardException | IllegalStateException e )
+      {
+        // card already gone, nothing left to release
+        log.debug( "endExclusive: {}", e.getMessage() );
+      }
+    }
+  }
+
+  private BatchResult run( CardChannel channel, ApduScript script,
+    ByteBuffer output )
+    throws CardException
+  {
+    int chunk = extendedLength
+      ? Math.min( 65535, transport.getMaxResponseData() )
+      : Math.min( 256, transport.getMaxResponseData() );
+    int apdus = 0;
+    int bytesRead = 0;
+    int executed = 0;
+    int sw = 0;
+    String name = null;
+    int i = 0;
+
+    while( i < script.getSteps().size() )
+    {
+      if( ++executed > MAX_STEPS )
+      {
+        log.warn( "script aborted after {} steps", MAX_STEPS );
+        return new BatchResult( false, name, sw, apdus, bytesRead, chunk );
+      }
+
+      ApduStep step = script.getSteps().get( i );
+      name = step.name();
+      boolean endOfFile = false;
+
+      switch( step )
+      {
+        case ApduStep.Command c ->
+        {
+          if( c.data().length == 0 )
+          {
+            transport.prepare( c.cla(), c.ins(), c.p1(), c.p2(), c.le() );
+          }
+          else
+          {
+            transport.prepare( c.cla(), c.ins(), c.p1(), c.p2(), c.data(), 0,
+              c.data().length, c.le() );
+          }
+          sw = transport.transmit( channel );
+          apdus++;
+          if( c.le() >= 0 )
+          {
+            bytesRead += copy( output );
+          }
+        }
+
+        case ApduStep.ReadBinary r ->
+        {
+          int offset = r.offset();
+          int end = r.offset() + r.length();
+          sw = ApduTransport.SW_NO_ERROR;
+
+          while( offset < end )
+          {
+            int want = Math.min( chunk, end - offset );
+
+            if( want > 256 )
+            {
+              transport.prepareExtended( 0x00, 0xB0, offset >>> 8,
+                offset & 0xff, want );
+            }
+            else
+            {
+              transport.prepare( 0x00, 0xB0, offset >>> 8, offset & 0xff,
+                want & 0xff );
+            }
+
+            sw = transport.transmit( channel );
+            apdus++;
+            int n = transport.getDataLength();
+
+            if( ( sw & 0xff00 ) == 0x6700 && n == 0 )
+            {
+              if( want == 1 )
+              {
+                break;
+              }
+              chunk = want > 256 && want / 2 < 256 ? 256 : want / 2;
+              continue;
+            }
+
+            n = copy( output );
+            bytesRead += n;
+            offset += n;
+
+            if( sw == 0x6282 || sw == 0x6B00 || n == 0 )
+            {
+              endOfFile = true;
+              break;
+            }
+            if( sw != ApduTransport.SW_NO_ERROR )
+            {
+              break;
+            }
+          }
+        }
+      }
+
+      ApduStep.Action action = sw == ApduTransport.SW_NO_ERROR || endOfFile
+        ? ApduStep.Action.NEXT : ApduStep.Action.ABORT;
+      String target = null;
+
+      for( ApduStep.StatusRule rule : step.rules() )
+      {
+        if( rule.matches( sw ) )
+        {
+          action = rule.action();
+          target = rule.target();
+          break;
+        }
+      }
+
+      switch( action )
+      {
+        case NEXT ->
+          i++;
+        case GOTO ->
+          i = script.indexOf( target );
+        case STOP ->
+        {
+          return new BatchResult( true, name, sw, apdus, bytesRead, chunk );
+        }
+        case ABORT ->
+        {
+          return new BatchResult( false, name, sw, apdus, bytesRead, chunk );
+        }
+      }
+    }
+
+    return new BatchResult( true, name, sw, apdus, bytesRead, chunk );
+  }
+
+  private int copy( ByteBuffer output )
+  {
+    ByteBuffer response = transport.getResponse();
+    int n = response.remaining();
+    if( output.remaining() < n )
+    {
+      throw new IllegalArgumentException( "output buffer too small" );
+    }
+    output.put( response );
+    return n;
+  }
+
+  /**
+   * Guards against scripts looping through GOTO rules forever.
+   */
+  private static final int MAX_STEPS = 1024;
+
+  private final ApduTransport transport;
+
+  private final boolean extendedLength;
+
+}
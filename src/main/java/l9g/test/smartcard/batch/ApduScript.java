@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declarative sequence of APDUs run per card session by the
+ * {@link ApduBatchEngine}.
+ *
+ * <pre>
+ * ApduScript script = ApduScript.builder()
+ *   .command( "select", 0x00, 0xA4, 0x00, 0x0C, EF_ID, -1 )
+ *     .on( 0x6A82, ApduStep.Action.GOTO, "fallback" )
+ *   .readBinary( "read", 0, 1024 )
+ *     .on( 0x9000, ApduStep.Action.STOP, null )
+ *   .command( "fallback", ... )
+ *   .build();
+ * </pre>
+ *
+ * @author th
+ */
+public final class ApduScript
+{
+  private ApduScript( List<ApduStep> steps, Map<String, Integer> index )
+  {
+    this.steps = steps;
+    this.index = index;
+  }
+
+  public static Builder builder()
+  {
+    return new Builder();
+  }
+
+  public List<ApduStep> getSteps()
+  {
+    return steps;
+  }
+
+  int indexOf( String name )
+  {
+    Integer i = index.get( name );
+    if( i == null )
+    {
+      throw new IllegalArgumentException( "unknown step: " + name );
+    }
+    return i;
+  }
+
+  public static final class Builder
+  {
+    private Builder()
+    {
+    }
+
+    public Builder command( String name, int cla, int ins, int p1, int p2,
+      byte[] data, int le )
+    {
+      rules = new ArrayList<>();
+      pending.add( new Pending( name, new ApduStep.Command( name, cla, ins, p1,
+        p2, data == null ? new byte[ 0 ] : data.clone(), le, rules ) ) );
+      return this;
+    }
+
+    public Builder command( String name, int cla, int ins, int p1, int p2,
+      int le )
+    {
+      return command( name, cla, ins, p1, p2, null, le );
+    }
+
+    public Builder readBinary( String name, int offset, int length )
+    {
+      if( offset < 0 || length < 1 || offset + length > 0x8000 )
+      {
+        throw new IllegalArgumentException(
+          "READ BINARY range must lie within 0..32767" );
+      }
+      rules = new ArrayList<>();
+      pending.add( new Pending( name,
+        new ApduStep.ReadBinary( name, offset, length, rules ) ) );
+      return this;
+    }
+
+    /**
+     * Adds a rule for the exact status word {@code sw} to the last step.
+     */
+    public Builder on( int sw, ApduStep.Action action, String target )
+    {
+      return on( sw, 0xffff, action, target );
+    }
+
+    /**
+     * Adds a rule for all status words matching {@code value} under
+     * {@code mask} to the last step, e.g. {@code on( 0x6300, 0xff00, ... )}
+     * for all {@code 63xx}.
+     */
+    public Builder on( int value, int mask, ApduStep.Action action,
+      String target )
+    {
+      if( rules == null )
+      {
+        throw new IllegalStateException( "no step to add a rule to" );
+      }
+      if( action == ApduStep.Action.GOTO && target == null )
+      {
+        throw new IllegalArgumentException( "GOTO needs a target step" );
+      }
+      rules.add( new ApduStep.StatusRule( value, mask, action, target ) );
+      return this;
+    }
+
+    public ApduScript build()
+    {
+      List<ApduStep> steps = new ArrayList<>();
+      Map<String, Integer> index = new HashMap<>();
+
+      for( Pending p : pending )
+      {
+        if( index.put( p.name(), steps.size() ) != null )
+        {
+          throw new IllegalArgumentException( "duplicate step: " + p.name() );
+        }
+        steps.add( freeze( p.step() ) );
+      }
+
+      for( ApduStep step : steps )
+      {
+        for( ApduStep.StatusRule rule : step.rules() )
+        {
+          if( rule.target() != null && !index.containsKey( rule.target() ) )
+          {
+            throw new IllegalArgumentException( step.name()
+              + ": unknown target step " + rule.target() );
+          }
+        }
+      }
+
+      return new ApduScript( List.copyOf( steps ), Map.copyOf( index ) );
+    }
+
+    private static ApduStep freeze( ApduStep step )
+    {
+      return switch( step )
+      {
+        case ApduStep.Command c -> new ApduStep.Command( c.name(), c.cla(),
+          c.ins(), c.p1(), c.p2(), c.data(), c.le(), List.copyOf( c.rules() ) );
+        case ApduStep.ReadBinary r -> new ApduStep.ReadBinary( r.name(),
+          r.offset(), r.length(), List.copyOf( r.rules() ) );
+      };
+    }
+
+    private record Pending( String name, ApduStep step )
+    {
+    }
+
+    private final List<Pending> pending = new ArrayList<>();
+
+    private List<ApduStep.StatusRule> rules;
+
+  }
+
+  private final List<ApduStep> steps;
+
+  private final Map<String, Integer> index;
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.batch;
+
+import java.util.List;
+
+/**
+ * One step of an {@link ApduScript}.
+ *
+ * The status word of a step is matched against its rules in order, the
+ * first matching rule decides how the script goes on. Without a
+ * matching rule {@code 9000} continues with the next step and anything
+ * else aborts the script.
+ *
+ * @author th
+ */
+public sealed interface ApduStep
+{
+  String name();
+
+  List<StatusRule> rules();
+
+  /**
+   * What to do after a step, see {@link StatusRule}.
+   */
+  enum Action
+  {
+    /**
+     * Continue with the next step.
+     */
+    NEXT,
+    /**
+     * Continue with the step named {@code target}.
+     */
+    GOTO,
+    /**
+     * End the script successfully.
+     */
+    STOP,
+    /**
+     * End the script as failed.
+     */
+    ABORT
+  }
+
+  /**
+   * Matches status words {@code sw} for which {@code (sw & mask) == value}.
+   */
+  record StatusRule( int value, int mask, Action action, String target )
+  {
+    boolean matches( int sw )
+    {
+      return ( sw & mask ) == value;
+    }
+
+  }
+
+  /**
+   * A single command APDU.
+   *
+   * @param data command data, empty for case 1 and 2 commands
+   * @param le expected length (0 for "up to 256"), {@code -1} for none
+   */
+  record Command( String name, int cla, int ins, int p1, int p2, byte[] data,
+    int le, List<StatusRule> rules ) implements ApduStep
+  {
+  }
+
+  /**
+   * READ BINARY of {@code length} bytes starting at {@code offset} of the
+   * current EF. The engine splits it into as few APDUs as the card and
+   * reader accept; reaching the end of the file ({@code 6282},
+   * {@code 6B00}) ends the read early.
+   */
+  record ReadBinary( String name, int offset, int length,
+    List<StatusRule> rules ) implements ApduStep
+  {
+  }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.batch;
+
+/**
+ * Outcome of an {@link ApduScript} run.
+ *
+ * @param success whether the script ended regularly (last step done or
+ * {@code STOP})
+ * @param lastStep name of the last step executed
+ * @param lastSw status word of the last step
+ * @param apdus number of APDUs sent, including retries with smaller
+ * chunks
+ * @param bytesRead response data bytes written to the output buffer
+ * @param chunkSize READ BINARY chunk size the card and reader accepted
+ *
+ * @author th
+ */
+public record BatchResult( boolean success, String lastStep, int lastSw,
+  int apdus, int bytesRead, int chunkSize )
+{
+}
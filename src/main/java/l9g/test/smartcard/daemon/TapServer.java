@@ -0,0 +1,706 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the taps to other processes on the host over a Unix domain or
+ * loopback TCP socket, with a line protocol:
+ *
+ * <pre>
+ * LAST              the last tap of every reader, then END
+ * LAST reader name  the last tap of one reader, or END only; the name
+ *                   escaped as in the tap line
+ * SUBSCRIBE         OK, then every tap as it happens
+ * UNSUBSCRIBE       OK, no more taps
+ * PING              PONG
+ * QUIT              closes the connection
+ * </pre>
+ *
+ * A tap is one line of tab separated fields:
+ *
+ * <pre>
+ * TAP time reader uid serial identity outcome latencyMicros
+ * </pre>
+ *
+ * with the time in ISO-8601 and {@code -} for a missing serial or
+ * identity. Backslashes and control characters in the reader name and
+ * identity are escaped ({@code \\}, {@code \t}, {@code \n},
+ * {@code \r}, else {@code \xHH}), so a tap is always one line of eight
+ * fields. Lines end with {@code \n}, unknown commands are answered with
+ * {@code ERR}.
+ *
+ * A Unix domain socket is only as open as its file permissions, a
+ * loopback TCP socket has no access control at all: every process of
+ * every user on the host can read the taps.
+ *
+ * The server subscribes to a {@link TapEventPublisher}. Each tap is
+ * encoded once and written by the delivery thread of the publisher to
+ * all subscribed clients without blocking, rather than handing it to the
+ * selector thread, which would cost a thread wakeup per tap. The
+ * selector thread accepts clients, reads their commands and writes what
+ * a socket did not take at once. A client that does not read falls
+ * behind by at most {@link #MAX_PENDING} lines, then it is disconnected,
+ * so it can never hold up the readers or other clients. Loopback TCP
+ * sockets are used with {@code TCP_NODELAY}.
+ *
+ * @author th
+ */
+@Slf4j
+public class TapServer implements Flow.Subscriber<TapEvent>, AutoCloseable
+{
+  /**
+   * Lines queued for a client before it is disconnected.
+   */
+  public static final int MAX_PENDING = 1024;
+
+  /**
+   * @throws BindException if the address is in use, also if another
+   * server still answers on the Unix domain socket
+   */
+  public TapServer( SocketAddress address )
+    throws IOException
+  {
+    if( address instanceof UnixDomainSocketAddress unix )
+    {
+      if( Files.exists( unix.getPath() ) )
+      {
+        if( answers( unix ) )
+        {
+          throw new BindException( "Tap server already running on "
+            + unix.getPath() );
+        }
+        // left over by a daemon that was killed
+        Files.deleteIfExists( unix.getPath() );
+      }
+      server = ServerSocketChannel.open( StandardProtocolFamily.UNIX );
+    }
+    else
+    {
+      server = ServerSocketChannel.open();
+    }
+
+    server.bind( address );
+    server.configureBlocking( false );
+    selector = Selector.open();
+    server.register( selector, SelectionKey.OP_ACCEPT );
+    this.address = server.getLocalAddress();
+
+    log.info( "Tap server listening on {}", this.address );
+    thread = Thread.ofPlatform().name( "tap-server" ).daemon()
+      .start( this::run );
+  }
+
+  /**
+   * A TCP port number for a loopback socket, anything else is the path
+   * of a Unix domain socket.
+   */
+  public static SocketAddress address( String spec )
+  {
+    if( spec.matches( "\\d{1,5}" ) )
+    {
+      return new InetSocketAddress( InetAddress.getLoopbackAddress(),
+        Integer.parseInt( spec ) );
+    }
+    return UnixDomainSocketAddress.of( spec );
+  }
+
+  /**
+   * The tap line of an event, without the line end.
+   */
+  public static String format( TapEvent event )
+  {
+    StringBuilder line = new StringBuilder( 128 );
+    line.append( "TAP\t" ).append( event.time() ).append( '\t' );
+    escape( event.reader(), line );
+    line.append( '\t' );
+    event.appendUidHex( line ).append( '\t' )
+      .append( event.serial() == null ? "-" : event.serial().toString() )
+      .append( '\t' );
+    if( event.identity() == null )
+    {
+      line.append( '-' );
+    }
+    else
+    {
+      escape( event.identity(), line );
+    }
+    line.append( '\t' ).append( event.outcome() ).append( '\t' )
+      .append( event.latencyNanos() / 1000 );
+
+    return line.toString();
+  }
+
+  public SocketAddress getAddress()
+  {
+    return address;
+  }
+
+  public int getClients()
+  {
+    return clients;
+  }
+
+  public int getSubscribers()
+  {
+    return subscribers;
+  }
+
+  /**
+   * Tap lines written to subscribers.
+   */
+  public long getSent()
+  {
+    return sent.get();
+  }
+
+  /**
+   * Clients disconnected because they did not read.
+   */
+  public long getEvicted()
+  {
+    return evicted.get();
+  }
+
+  @Override
+  public void onSubscribe( Flow.Subscription subscription )
+  {
+    subscription.request( Long.MAX_VALUE );
+  }
+
+  @Override
+  public void onNext( TapEvent event )
+  {
+    byte[] line = ( format( event ) + "\n" )
+      .getBytes( StandardCharsets.UTF_8 );
+    StringBuilder reader = new StringBuilder( event.reader().length() );
+    escape( event.reader(), reader );
+    last.put( reader.toString(), line );
+
+    if( subscribers > 0 )
+    {
+      lock.lock();
+      try
+      {
+        broadcast( line );
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public void onError( Throwable throwable )
+  {
+    log.error( "ERROR: tap events for the tap server failed: {}",
+      throwable.getMessage() );
+  }
+
+  @Override
+  public void onComplete()
+  {
+  }
+
+  /**
+   * Disconnects all clients and removes the Unix domain socket. An
+   * interrupt does not stop the close, the interrupt status is kept.
+   */
+  @Override
+  public void close()
+    throws IOException
+  {
+    running = false;
+    selector.wakeup();
+
+    boolean interrupted = false;
+    while( thread.isAlive() )
+    {
+      try
+      {
+        thread.join();
+      }
+      catch( InterruptedException e )
+      {
+        interrupted = true;
+      }
+    }
+    if( interrupted )
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    lock.lock();
+    try
+    {
+      subscribed.clear();
+      subscribers = 0;
+      for( SelectionKey key : selector.keys() )
+      {
+        key.channel().close();
+      }
+      selector.close();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    if( address instanceof UnixDomainSocketAddress unix )
+    {
+      Files.deleteIfExists( unix.getPath() );
+    }
+  }
+
+  private void run()
+  {
+    while( running )
+    {
+      try
+      {
+        selector.select();
+
+        lock.lock();
+        try
+        {
+          handleSelected();
+        }
+        finally
+        {
+          lock.unlock();
+        }
+      }
+      catch( IOException e )
+      {
+        log.error( "ERROR: {}", e.getMessage() );
+      }
+    }
+  }
+
+  private void handleSelected()
+    throws IOException
+  {
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while( keys.hasNext() )
+    {
+      SelectionKey key = keys.next();
+      keys.remove();
+      if( !key.isValid() )
+      {
+        continue;
+      }
+
+      if( key.isAcceptable() )
+      {
+        accept();
+      }
+      else
+      {
+        Client client = (Client) key.attachment();
+        try
+        {
+          if( key.isReadable() )
+          {
+            read( client );
+          }
+          if( key.isValid() && key.isWritable() )
+          {
+            flush( client );
+          }
+        }
+        catch( IOException e )
+        {
+          log.debug( "client {}: {}", client.id, e.getMessage() );
+          disconnect( client );
+        }
+      }
+    }
+  }
+
+  private void accept()
+    throws IOException
+  {
+    SocketChannel channel;
+    while( ( channel = server.accept() ) != null )
+    {
+      channel.configureBlocking( false );
+      if( channel.getLocalAddress() instanceof InetSocketAddress )
+      {
+        channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+      }
+      Client client = new Client( channel, nextClientId++ );
+      client.key = channel.register( selector, SelectionKey.OP_READ, client );
+      clients++;
+      log.debug( "client {} connected", client.id );
+    }
+  }
+
+  private void read( Client client )
+    throws IOException
+  {
+    if( client.channel.read( client.in ) < 0 )
+    {
+      disconnect( client );
+      return;
+    }
+
+    ByteBuffer in = client.in;
+    int start = 0;
+
+    for( int i = 0; i < in.position(); i++ )
+    {
+      if( in.get( i ) == '\n' )
+      {
+        String command = new String( in.array(), start, i - start,
+          StandardCharsets.UTF_8 ).strip();
+        start = i + 1;
+        if( !execute( client, command ) )
+        {
+          return;
+        }
+      }
+    }
+
+    if( start == 0 && !in.hasRemaining() )
+    {
+      send( client, "ERR line too long" );
+      disconnect( client );
+      return;
+    }
+
+    // keep the incomplete line
+    in.limit( in.position() ).position( start );
+    in.compact();
+  }
+
+  /**
+   * @return {@code false} if the client is gone
+   */
+  private boolean execute( Client client, String command )
+    throws IOException
+  {
+    int space = command.indexOf( ' ' );
+    String name = space < 0 ? command : command.substring( 0, space );
+
+    switch( name.toUpperCase() )
+    {
+      case "LAST" ->
+      {
+        // one write for the whole answer
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        if( space < 0 )
+        {
+          // sorted by reader name
+          new TreeMap<>( last ).values().forEach( answer::writeBytes );
+        }
+        else
+        {
+          byte[] line = last.get( command.substring( space + 1 ).strip() );
+          if( line != null )
+          {
+            answer.writeBytes( line );
+          }
+        }
+        answer.writeBytes( END );
+        send( client, answer.toByteArray() );
+      }
+
+      case "SUBSCRIBE" ->
+      {
+        if( !client.subscribed )
+        {
+          client.subscribed = true;
+          subscribed.add( client );
+          subscribers++;
+        }
+        send( client, "OK" );
+      }
+
+      case "UNSUBSCRIBE" ->
+      {
+        unsubscribe( client );
+        send( client, "OK" );
+      }
+
+      case "PING" ->
+        send( client, "PONG" );
+
+      case "QUIT" ->
+      {
+        disconnect( client );
+        return false;
+      }
+
+      case "" ->
+      {
+      }
+
+      default ->
+        send( client, "ERR unknown command: " + name );
+    }
+
+    return client.key.isValid();
+  }
+
+  /**
+   * Caller must hold the lock.
+   */
+  private void broadcast( byte[] line )
+  {
+    // a copy, failing clients are removed on the way
+    for( Client client : subscribed.toArray( Client[]::new ) )
+    {
+      try
+      {
+        send( client, line );
+        sent.incrementAndGet();
+      }
+      catch( IOException e )
+      {
+        log.debug( "client {}: {}", client.id, e.getMessage() );
+        disconnect( client );
+      }
+    }
+  }
+
+  private void send( Client client, String line )
+    throws IOException
+  {
+    send( client, ( line + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Writes at once if nothing is queued for the client, and queues what
+   * the socket did not take.
+   */
+  private void send( Client client, byte[] line )
+    throws IOException
+  {
+    if( !client.key.isValid() )
+    {
+      return;
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap( line );
+
+    if( client.out.isEmpty() )
+    {
+      client.channel.write( buffer );
+      if( !buffer.hasRemaining() )
+      {
+        return;
+      }
+      client.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+      // may be called by the delivery thread
+      selector.wakeup();
+    }
+
+    if( client.out.size() >= MAX_PENDING )
+    {
+      log.warn( "Tap server: client {} does not read, disconnected",
+        client.id );
+      evicted.incrementAndGet();
+      disconnect( client );
+      return;
+    }
+
+    client.out.add( buffer );
+  }
+
+  private void flush( Client client )
+    throws IOException
+  {
+    ByteBuffer buffer;
+    while( ( buffer = client.out.peek() ) != null )
+    {
+      client.channel.write( buffer );
+      if( buffer.hasRemaining() )
+      {
+        return;
+      }
+      client.out.poll();
+    }
+    client.key.interestOps( SelectionKey.OP_READ );
+  }
+
+  private void unsubscribe( Client client )
+  {
+    if( client.subscribed )
+    {
+      client.subscribed = false;
+      subscribed.remove( client );
+      subscribers--;
+    }
+  }
+
+  private void disconnect( Client client )
+  {
+    if( client.key.isValid() )
+    {
+      unsubscribe( client );
+      clients--;
+      client.key.cancel();
+      try
+      {
+        client.channel.close();
+      }
+      catch( IOException e )
+      {
+        log.debug( "client {}: {}", client.id, e.getMessage() );
+      }
+      log.debug( "client {} disconnected", client.id );
+    }
+  }
+
+  /**
+   * Whether a server accepts connections on the socket.
+   */
+  private static boolean answers( UnixDomainSocketAddress address )
+  {
+    try
+    {
+      SocketChannel.open( address ).close();
+      return true;
+    }
+    catch( IOException e )
+    {
+      return false;
+    }
+  }
+
+  private static void escape( String value, StringBuilder line )
+  {
+    for( int i = 0; i < value.length(); i++ )
+    {
+      char c = value.charAt( i );
+      switch( c )
+      {
+        case '\\' ->
+          line.append( "\\\\" );
+        case '\t' ->
+          line.append( "\\t" );
+        case '\n' ->
+          line.append( "\\n" );
+        case '\r' ->
+          line.append( "\\r" );
+        default ->
+        {
+          if( Character.isISOControl( c ) )
+          {
+            line.append( "\\x" ).append( HEX[ c >>> 4 ] )
+              .append( HEX[ c & 0x0f ] );
+          }
+          else
+          {
+            line.append( c );
+          }
+        }
+      }
+    }
+  }
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private static final byte[] END = "END\n".getBytes( StandardCharsets.UTF_8 );
+
+  private static final class Client
+  {
+    Client( SocketChannel channel, long id )
+    {
+      this.channel = channel;
+      this.id = id;
+    }
+
+    private final SocketChannel channel;
+
+    private final long id;
+
+    private final ByteBuffer in = ByteBuffer.allocate( 1024 );
+
+    private final Queue<ByteBuffer> out = new ArrayDeque<>();
+
+    private SelectionKey key;
+
+    private boolean subscribed;
+
+  }
+
+  private final SocketAddress address;
+
+  private final ServerSocketChannel server;
+
+  private final Selector selector;
+
+  private final Thread thread;
+
+  /**
+   * The last tap line by escaped reader name, as {@code LAST} is asked.
+   */
+  private final Map<String, byte[]> last = new ConcurrentHashMap<>();
+
+  /**
+   * Guards the clients, held by the selector thread while it handles
+   * selected keys and by the delivery thread while it writes a tap.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final List<Client> subscribed = new ArrayList<>();
+
+  private final AtomicLong sent = new AtomicLong();
+
+  private final AtomicLong evicted = new AtomicLong();
+
+  private volatile boolean running = true;
+
+  private volatile int clients;
+
+  private volatile int subscribers;
+
+  private long nextClientId = 1;
+
+}
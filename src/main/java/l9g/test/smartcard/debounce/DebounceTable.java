@@ -0,0 +1,262 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.debounce;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One generation of the {@link TapDebouncer} time wheel: a fixed size,
+ * insert only, lock free open addressing table of the last accepted tap
+ * per serial, both per reader and on any reader.
+ *
+ * Every slot is a pair of longs, the serial and the tap. A tap holds a
+ * written flag in the top bit, the reader id in the next 15 and the
+ * time in the lower 48 bits, the tap on any reader carries the reserved
+ * id {@link #GLOBAL}. A slot is claimed by a CAS on the serial, so all
+ * taps of a serial are found on its probe sequence before the first
+ * empty slot. Right after the CAS the claiming thread writes the reader
+ * id with time 0, that is no tap yet.
+ *
+ * A serial word of 0 marks an empty slot, so serial 0 cannot be its own
+ * key. It gets a probe sequence of its own, {@link #MAX_PROBES} slots
+ * behind the table that no other serial reaches, where its slots are
+ * claimed with the key {@code ZERO_KEY}.
+ *
+ * @author th
+ */
+class DebounceTable
+{
+  static final int MAX_PROBES = 64;
+
+  static final long TIME_MASK = ( 1L << 48 ) - 1;
+
+  /**
+   * Reader id of the tap on any reader.
+   */
+  static final int GLOBAL = 0x7fff;
+
+  static final int CLAIMED = 0;
+
+  static final int DUPLICATE = 1;
+
+  static final int FULL = 2;
+
+  /**
+   * @param capacity accepted taps, each takes two slots, the table is
+   * at most half full
+   */
+  DebounceTable( int capacity )
+  {
+    int size = Integer.highestOneBit( Math.max( 1, capacity ) * 4 - 1 ) * 2;
+    this.mask = size - 1;
+    this.slots = new AtomicLongArray( 2 * ( size + MAX_PROBES ) );
+  }
+
+  /**
+   * Records an accepted tap of {@code serial} on {@code reader} at
+   * {@code time}.
+   *
+   * @return {@code false} if the probe sequence of the serial is full
+   */
+  boolean record( long serial, int reader, long time )
+  {
+    int slot = find( serial, reader );
+    if( slot < 0 )
+    {
+      return false;
+    }
+    // one worker per reader, so no one else writes this slot
+    slots.set( 2 * slot + 1, tapOf( reader, time ) );
+    return true;
+  }
+
+  /**
+   * Replaces the tap of {@code serial} on any reader by one at
+   * {@code time}, unless it is within {@code globalWindow}. Of racing
+   * readers exactly one claims the tap.
+   *
+   * @return {@link #CLAIMED}, {@link #DUPLICATE} or {@link #FULL} if the
+   * probe sequence of the serial is full
+   */
+  int claim( long serial, long time, long globalWindow )
+  {
+    int slot = find( serial, GLOBAL );
+    if( slot < 0 )
+    {
+      return FULL;
+    }
+
+    long tap = tapOf( GLOBAL, time );
+    long current = slots.get( 2 * slot + 1 );
+
+    while( ( current & TIME_MASK ) == 0
+      || time - ( current & TIME_MASK ) >= globalWindow )
+    {
+      if( slots.compareAndSet( 2 * slot + 1, current, tap ) )
+      {
+        return CLAIMED;
+      }
+      current = slots.get( 2 * slot + 1 );
+    }
+
+    return DUPLICATE;
+  }
+
+  /**
+   * Looks for a tap of {@code serial} that makes a tap on {@code reader}
+   * at {@code time} a duplicate.
+   *
+   * @param readerWindow window for taps on the same reader
+   * @param globalWindow window for taps on any reader
+   */
+  boolean seen( long serial, int reader, long time, long readerWindow,
+    long globalWindow )
+  {
+    long key = keyOf( serial );
+
+    for( int i = 0, slot = first( serial ); i < MAX_PROBES;
+      i++, slot = next( serial, slot ) )
+    {
+      long current = slots.get( 2 * slot );
+      if( current == EMPTY )
+      {
+        return false;
+      }
+      if( current != key )
+      {
+        continue;
+      }
+
+      long tap = slots.get( 2 * slot + 1 );
+      long tapTime = tap & TIME_MASK;
+      int tapReader = readerOf( tap );
+
+      if( tapTime != 0
+        && ( ( tapReader == reader && time - tapTime < readerWindow )
+        || ( tapReader == GLOBAL && time - tapTime < globalWindow ) ) )
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  int slots()
+  {
+    return slots.length() / 2;
+  }
+
+  /**
+   * The slot of {@code serial} on {@code reader}, claimed if there is
+   * none yet, or -1 if the probe sequence is full.
+   */
+  private int find( long serial, int reader )
+  {
+    long key = keyOf( serial );
+
+    for( int i = 0, slot = first( serial ); i < MAX_PROBES;
+      i++, slot = next( serial, slot ) )
+    {
+      long current = slots.get( 2 * slot );
+
+      if( current == EMPTY )
+      {
+        if( slots.compareAndSet( 2 * slot, EMPTY, key ) )
+        {
+          slots.set( 2 * slot + 1, tapOf( reader, 0 ) );
+          return slot;
+        }
+        current = slots.get( 2 * slot );
+      }
+
+      if( current == key && readerOf( awaitTap( slot ) ) == reader )
+      {
+        return slot;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * The tap of a claimed slot, its claimer writes it right after the
+   * CAS.
+   */
+  private long awaitTap( int slot )
+  {
+    long tap;
+    while( ( tap = slots.get( 2 * slot + 1 ) ) == 0 )
+    {
+      Thread.onSpinWait();
+    }
+    return tap;
+  }
+
+  /**
+   * First slot of the probe sequence, serial 0 starts behind the table.
+   */
+  private int first( long serial )
+  {
+    return serial == EMPTY ? mask + 1 : home( serial );
+  }
+
+  private int next( long serial, int slot )
+  {
+    return serial == EMPTY ? slot + 1 : ( slot + 1 ) & mask;
+  }
+
+  private int home( long key )
+  {
+    // murmur3 finalizer, serials are often sequential
+    long h = ( key ^ ( key >>> 33 ) ) * 0xff51afd7ed558ccdL;
+    h = ( h ^ ( h >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+    return (int) ( h ^ ( h >>> 33 ) ) & mask;
+  }
+
+  private static long tapOf( int reader, long time )
+  {
+    return WRITTEN | ( (long) reader << 48 ) | time;
+  }
+
+  private static int readerOf( long tap )
+  {
+    return (int) ( tap >>> 48 ) & GLOBAL;
+  }
+
+  /**
+   * 0 marks an empty slot, so serial 0 is stored as {@link #ZERO_KEY} in
+   * its own probe sequence.
+   */
+  private static long keyOf( long serial )
+  {
+    return serial == EMPTY ? ZERO_KEY : serial;
+  }
+
+  private static final long EMPTY = 0;
+
+  /**
+   * Key of serial 0, only found behind the table.
+   */
+  private static final long ZERO_KEY = 1;
+
+  private static final long WRITTEN = Long.MIN_VALUE;
+
+  private final int mask;
+
+  private final AtomicLongArray slots;
+
+}
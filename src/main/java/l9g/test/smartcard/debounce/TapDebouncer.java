@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.debounce;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suppresses repeated taps of the same card serial: a tap is a
+ * duplicate if the serial has been accepted on the same reader within
+ * {@code readerWindow}, or on any reader within {@code globalWindow}.
+ * Windows start at the accepted tap, suppressed taps do not extend them.
+ *
+ * The taps are kept in a time wheel of {@value #GENERATIONS}
+ * {@link DebounceTable} generations, each covering a third of the larger
+ * window. The wheel is rotated by replacing it through an
+ * {@link AtomicReference}, expired generations are simply dropped, so
+ * memory is bounded by {@code GENERATIONS * capacity} taps whatever
+ * the number of cards.
+ *
+ * {@link #accept} is lock free. Readers racing with the same serial
+ * CAS the tap on any reader in the current generation, so exactly one of
+ * them wins the global window; a winner that finds the wheel rotated
+ * meanwhile has to win in the new generation as well.
+ *
+ * @author th
+ */
+public class TapDebouncer
+{
+  /**
+   * Generations of the time wheel, the current one included.
+   */
+  public static final int GENERATIONS = 4;
+
+  /**
+   * @param capacity taps per generation, i.e. per third of the larger
+   * window; when full, taps are accepted without being recorded
+   */
+  public TapDebouncer( Duration readerWindow, Duration globalWindow,
+    int capacity )
+  {
+    this.readerWindow = Math.max( readerWindow.toNanos(),
+      globalWindow.toNanos() ) / 1000;
+    this.globalWindow = globalWindow.toNanos() / 1000;
+    this.tickMicros = Math.max( 1, Math.max( this.readerWindow,
+      this.globalWindow ) / ( GENERATIONS - 1 ) );
+    this.capacity = capacity;
+    this.origin = System.nanoTime();
+
+    DebounceTable[] generations = new DebounceTable[ GENERATIONS ];
+    for( int i = 0; i < GENERATIONS; i++ )
+    {
+      generations[ i ] = new DebounceTable( capacity );
+    }
+    this.wheel = new AtomicReference<>( new Wheel( 0, generations ) );
+  }
+
+  /**
+   * Id of a reader name for {@link #accept(int, long, long)}.
+   */
+  public int readerId( String reader )
+  {
+    Integer id = readerIds.get( reader );
+    if( id == null )
+    {
+      id = readerIds.computeIfAbsent( reader, r ->
+      {
+        int next = nextReaderId.getAndIncrement();
+        if( next > MAX_READER_ID )
+        {
+          throw new IllegalStateException( "too many readers" );
+        }
+        return next;
+      } );
+    }
+    return id;
+  }
+
+  /**
+   * @return {@code true} if the tap is not a duplicate
+   */
+  public boolean accept( String reader, long serial )
+  {
+    return accept( readerId( reader ), serial, System.nanoTime() );
+  }
+
+  /**
+   * @param reader id from {@link #readerId(String)}
+   * @param nanoTime {@link System#nanoTime()} of the tap
+   */
+  public boolean accept( int reader, long serial, long nanoTime )
+  {
+    // + 1, so a recorded tap is never 0
+    long time = ( nanoTime - origin ) / 1000 + 1;
+    Wheel current = advance( time );
+
+    if( current.seen( serial, reader, time, readerWindow, globalWindow ) )
+    {
+      suppressed.increment();
+      return false;
+    }
+
+    DebounceTable table = current.generations[ 0 ];
+    int claim;
+
+    while( ( claim = table.claim( serial, time, globalWindow ) )
+      == DebounceTable.CLAIMED )
+    {
+      DebounceTable latest = wheel.get().generations[ 0 ];
+      if( latest == table )
+      {
+        break;
+      }
+      // rotated by a racing reader, which may have claimed the new one
+      table = latest;
+    }
+
+    if( claim == DebounceTable.DUPLICATE )
+    {
+      suppressed.increment();
+      return false;
+    }
+
+    if( claim == DebounceTable.FULL
+      || !table.record( serial, reader, time ) )
+    {
+      overflows.increment();
+    }
+
+    accepted.increment();
+    return true;
+  }
+
+  public long getAccepted()
+  {
+    return accepted.sum();
+  }
+
+  public long getSuppressed()
+  {
+    return suppressed.sum();
+  }
+
+  /**
+   * Taps accepted without being recorded, the capacity is too small.
+   */
+  public long getOverflows()
+  {
+    return overflows.sum();
+  }
+
+  /**
+   * Slots of the wheel, 16 bytes each, the bound of its memory.
+   */
+  public int getSlots()
+  {
+    return GENERATIONS * wheel.get().generations[ 0 ].slots();
+  }
+
+  private Wheel advance( long time )
+  {
+    long epoch = time / tickMicros;
+    Wheel current = wheel.get();
+
+    while( current.epoch < epoch )
+    {
+      Wheel next = current.rotate( epoch, capacity );
+      if( wheel.compareAndSet( current, next ) )
+      {
+        return next;
+      }
+      current = wheel.get();
+    }
+
+    return current;
+  }
+
+  /**
+   * Immutable set of generations, {@code generations[ 0 ]} takes the
+   * taps of the current tick.
+   */
+  private record Wheel( long epoch, DebounceTable[] generations )
+  {
+    Wheel rotate( long to, int capacity )
+    {
+      int shift = (int) Math.min( GENERATIONS, to - epoch );
+      DebounceTable[] next = new DebounceTable[ GENERATIONS ];
+      for( int i = 0; i < GENERATIONS; i++ )
+      {
+        next[ i ] = i < shift ? new DebounceTable( capacity )
+          : generations[ i - shift ];
+      }
+      return new Wheel( to, next );
+    }
+
+    boolean seen( long serial, int reader, long time, long readerWindow,
+      long globalWindow )
+    {
+      for( DebounceTable generation : generations )
+      {
+        if( generation.seen( serial, reader, time, readerWindow,
+          globalWindow ) )
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  private static final int MAX_READER_ID = DebounceTable.GLOBAL - 1;
+
+  private final long readerWindow;
+
+  private final long globalWindow;
+
+  private final long tickMicros;
+
+  private final int capacity;
+
+  private final long origin;
+
+  private final AtomicReference<Wheel> wheel;
+
+  private final Map<String, Integer> readerIds = new ConcurrentHashMap<>();
+
+  private final AtomicInteger nextReaderId = new AtomicInteger();
+
+  private final LongAdder accepted = new LongAdder();
+
+  private final LongAdder suppressed = new LongAdder();
+
+  private final LongAdder overflows = new LongAdder();
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.directory;
+
+import java.io.IOException;
+
+/**
+ * Resolves a card serial (little endian UID, see
+ * {@link l9g.test.smartcard.L9gTestSmartcard#bytesToLongLittleEndian(byte[])})
+ * to the identity stored in the directory service.
+ *
+ * @author th
+ */
+@FunctionalInterface
+public interface DirectoryService
+{
+  /**
+   * A directory without entries, for setups served from a preloaded
+   * export only.
+   */
+  DirectoryService NONE = serial -> null;
+
+  /**
+   * @return the identity, {@code null} if the card is unknown
+   * @throws IOException if the directory could not be asked
+   */
+  String lookup( long serial )
+    throws IOException;
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.directory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process cache in front of the {@link DirectoryService}, keyed by the
+ * primitive card serial.
+ *
+ * <ul>
+ * <li>Entries live for {@code ttl}, unknown cards are cached as negative
+ * entries for {@code negativeTtl}.</li>
+ * <li>Hits on known cards older than {@code refreshAfter} trigger one
+ * background reload, the cached identity is served meanwhile.</li>
+ * <li>At most {@code maxSize} entries are kept, the CLOCK algorithm picks
+ * the entry to evict.</li>
+ * <li>{@link #preload(Path)} fills the cache from a directory export, so
+ * a cold start serves hits immediately.</li>
+ * </ul>
+ *
+ * Without a directory service ({@link #IdentityCache(int)}) the cache only
+ * serves the preloaded export: entries never expire nor get refreshed,
+ * unknown cards are not cached, so they can not evict known ones.
+ *
+ * Lookups of different readers may run concurrently, the directory is
+ * always asked outside of the cache lock.
+ *
+ * @author th
+ */
+@Slf4j
+public class IdentityCache implements AutoCloseable
+{
+  public IdentityCache( DirectoryService directory, int maxSize,
+    Duration ttl, Duration negativeTtl, Duration refreshAfter )
+  {
+    if( refreshAfter.compareTo( ttl ) > 0 )
+    {
+      throw new IllegalArgumentException( "refreshAfter must not exceed ttl" );
+    }
+    this.directory = directory;
+    this.table = new SerialTable( maxSize );
+    this.ttl = ttl.toNanos();
+    this.negativeTtl = negativeTtl.toNanos();
+    this.refreshAfter = refreshAfter.toNanos();
+    this.preloadOnly = false;
+  }
+
+  /**
+   * Cache served from {@link #preload(Path)} only, there is no directory
+   * to refresh from.
+   */
+  public IdentityCache( int maxSize )
+  {
+    this.directory = DirectoryService.NONE;
+    this.table = new SerialTable( maxSize );
+    this.ttl = 0;
+    this.negativeTtl = 0;
+    this.refreshAfter = 0;
+    this.preloadOnly = true;
+  }
+
+  /**
+   * @return the identity, {@code null} if the card is unknown to the
+   * directory
+   * @throws IOException if the card is not cached and the directory
+   * lookup failed
+   */
+  public String lookup( long serial )
+    throws IOException
+  {
+    long now = System.nanoTime();
+
+    synchronized( table )
+    {
+      int slot = table.find( serial );
+
+      if( slot >= 0 )
+      {
+        if( preloadOnly || now - table.expires[ slot ] < 0 )
+        {
+          String identity = table.values[ slot ];
+          byte flags = table.flags[ slot ];
+
+          if( identity == null )
+          {
+            negativeHits.increment();
+          }
+          else
+          {
+            hits.increment();
+            if( !preloadOnly && now - table.refreshAt[ slot ] >= 0
+              && ( flags & SerialTable.REFRESHING ) == 0 )
+            {
+              flags |= SerialTable.REFRESHING;
+              refresh( serial );
+            }
+          }
+
+          table.flags[ slot ] = (byte) ( flags | SerialTable.REFERENCED );
+          return identity;
+        }
+
+        table.remove( slot );
+        expirations.increment();
+      }
+    }
+
+    misses.increment();
+
+    if( preloadOnly )
+    {
+      return null;
+    }
+
+    String identity;
+    try
+    {
+      identity = directory.lookup( serial );
+    }
+    catch( IOException e )
+    {
+      loadFailures.increment();
+      throw e;
+    }
+
+    store( serial, identity, System.nanoTime() );
+    return identity;
+  }
+
+  /**
+   * Loads a directory export with one {@code serial;identity} entry per
+   * line. {@code ,} and tab are accepted as separator as well, empty
+   * lines and lines starting with {@code #} are skipped.
+   *
+   * @return the number of entries loaded
+   */
+  public int preload( Path exportFile )
+    throws IOException
+  {
+    int count = 0;
+    int lineNumber = 0;
+    long now = System.nanoTime();
+
+    try( BufferedReader reader =
+      Files.newBufferedReader( exportFile, StandardCharsets.UTF_8 ) )
+    {
+      String line;
+      while( ( line = reader.readLine() ) != null )
+      {
+        lineNumber++;
+        line = line.strip();
+        if( line.isEmpty() || line.charAt( 0 ) == '#' )
+        {
+          continue;
+        }
+
+        int separator = indexOfSeparator( line );
+        if( separator < 0 )
+        {
+          log.warn( "{}:{}: missing separator", exportFile, lineNumber );
+          continue;
+        }
+
+        String serial = line.substring( 0, separator ).strip();
+        String identity = line.substring( separator + 1 ).strip();
+
+        try
+        {
+          store( serial.startsWith( "-" )
+            ? Long.parseLong( serial ) : Long.parseUnsignedLong( serial ),
+            identity.isEmpty() ? null : identity, now );
+          count++;
+        }
+        catch( NumberFormatException e )
+        {
+          log.warn( "{}:{}: invalid serial '{}'", exportFile, lineNumber, serial );
+        }
+      }
+    }
+
+    log.info( "Preloaded {} identities from {}", count, exportFile );
+    return count;
+  }
+
+  public void invalidateAll()
+  {
+    synchronized( table )
+    {
+      table.clearAll();
+    }
+  }
+
+  public IdentityCacheStatistics getStatistics()
+  {
+    int size;
+    synchronized( table )
+    {
+      size = table.size();
+    }
+    return new IdentityCacheStatistics( hits.sum(), negativeHits.sum(),
+      misses.sum(), evictions.sum(), expirations.sum(), refreshes.sum(),
+      loadFailures.sum(), size );
+  }
+
+  @Override
+  public void close()
+  {
+    refresher.shutdownNow();
+  }
+
+  private void store( long serial, String identity, long now )
+  {
+    long expires = now + ( identity == null ? negativeTtl : ttl );
+    long refreshAt = identity == null ? expires : now + refreshAfter;
+
+    synchronized( table )
+    {
+      if( table.put( serial, identity, expires, refreshAt ) )
+      {
+        evictions.increment();
+      }
+    }
+  }
+
+  private void refresh( long serial )
+  {
+    refresher.execute( () ->
+    {
+      try
+      {
+        String identity = directory.lookup( serial );
+        store( serial, identity, System.nanoTime() );
+        refreshes.increment();
+      }
+      catch( IOException e )
+      {
+        loadFailures.increment();
+        log.debug( "refresh of {} failed: {}", serial, e.getMessage() );
+
+        synchronized( table )
+        {
+          int slot = table.find( serial );
+          if( slot >= 0 )
+          {
+            table.flags[ slot ] &= ~SerialTable.REFRESHING;
+          }
+        }
+      }
+    } );
+  }
+
+  private static int indexOfSeparator( String line )
+  {
+    for( int i = 0; i < line.length(); i++ )
+    {
+      char c = line.charAt( i );
+      if( c == ';' || c == ',' || c == '\t' )
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private final DirectoryService directory;
+
+  private final SerialTable table;
+
+  private final long ttl;
+
+  private final long negativeTtl;
+
+  private final long refreshAfter;
+
+  private final boolean preloadOnly;
+
+  private final ExecutorService refresher =
+    Executors.newVirtualThreadPerTaskExecutor();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder negativeHits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  private final LongAdder expirations = new LongAdder();
+
+  private final LongAdder refreshes = new LongAdder();
+
+  private final LongAdder loadFailures = new LongAdder();
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.directory;
+
+/**
+ * Counters of an {@link IdentityCache}.
+ *
+ * @param hits lookups answered with a cached identity
+ * @param negativeHits lookups answered with a cached "unknown card"
+ * @param misses lookups that had to ask the directory service
+ * @param evictions entries dropped to stay within the size bound
+ * @param expirations entries dropped because their TTL elapsed
+ * @param refreshes background reloads of entries close to expiry
+ * @param loadFailures failed directory lookups (nothing was cached)
+ * @param size current number of entries
+ *
+ * @author th
+ */
+public record IdentityCacheStatistics( long hits, long negativeHits,
+  long misses, long evictions, long expirations, long refreshes,
+  long loadFailures, int size )
+{
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.directory;
+
+/**
+ * Open addressing hash table keyed by a primitive {@code long} serial,
+ * linear probing with backward shift deletion and a CLOCK (second
+ * chance) hand for size bounded eviction.
+ *
+ * Not thread safe, {@link IdentityCache} guards all access.
+ *
+ * @author th
+ */
+class SerialTable
+{
+  static final byte USED = 1;
+
+  static final byte REFERENCED = 2;
+
+  static final byte REFRESHING = 4;
+
+  SerialTable( int maxSize )
+  {
+    if( maxSize < 1 )
+    {
+      throw new IllegalArgumentException( "maxSize must be positive" );
+    }
+    this.maxSize = maxSize;
+    int capacity = Integer.highestOneBit( Math.max( 2, maxSize ) * 2 - 1 ) << 1;
+    this.mask = capacity - 1;
+    this.keys = new long[ capacity ];
+    this.values = new String[ capacity ];
+    this.expires = new long[ capacity ];
+    this.refreshAt = new long[ capacity ];
+    this.flags = new byte[ capacity ];
+  }
+
+  /**
+   * @return the slot of {@code key}, or {@code -1} if absent
+   */
+  int find( long key )
+  {
+    for( int i = home( key ); ( flags[ i ] & USED ) != 0; i = ( i + 1 ) & mask )
+    {
+      if( keys[ i ] == key )
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Inserts or replaces an entry, evicting another one if the table is
+   * full.
+   *
+   * @return {@code true} if an entry was evicted
+   */
+  boolean put( long key, String value, long expires, long refreshAt )
+  {
+    boolean evicted = false;
+    int slot = find( key );
+
+    if( slot < 0 )
+    {
+      if( size >= maxSize )
+      {
+        evictOne();
+        evicted = true;
+      }
+
+      slot = home( key );
+      while( ( flags[ slot ] & USED ) != 0 )
+      {
+        slot = ( slot + 1 ) & mask;
+      }
+      keys[ slot ] = key;
+      size++;
+    }
+
+    values[ slot ] = value;
+    this.expires[ slot ] = expires;
+    this.refreshAt[ slot ] = refreshAt;
+    flags[ slot ] = USED;
+    return evicted;
+  }
+
+  void remove( int slot )
+  {
+    int hole = slot;
+    clear( hole );
+    size--;
+
+    for( int i = ( hole + 1 ) & mask; ( flags[ i ] & USED ) != 0;
+      i = ( i + 1 ) & mask )
+    {
+      int h = home( keys[ i ] );
+      // entry i may move into the hole unless its home lies
+      // cyclically within (hole, i]
+      boolean stays = hole <= i
+        ? ( h > hole && h <= i )
+        : ( h > hole || h <= i );
+
+      if( !stays )
+      {
+        keys[ hole ] = keys[ i ];
+        values[ hole ] = values[ i ];
+        expires[ hole ] = expires[ i ];
+        refreshAt[ hole ] = refreshAt[ i ];
+        flags[ hole ] = flags[ i ];
+        clear( i );
+        hole = i;
+      }
+    }
+  }
+
+  void clearAll()
+  {
+    for( int i = 0; i <= mask; i++ )
+    {
+      clear( i );
+    }
+    size = 0;
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  private void evictOne()
+  {
+    while( true )
+    {
+      int i = hand;
+      hand = ( hand + 1 ) & mask;
+
+      if( ( flags[ i ] & USED ) != 0 )
+      {
+        if( ( flags[ i ] & REFERENCED ) != 0 )
+        {
+          flags[ i ] &= ~REFERENCED;
+        }
+        else
+        {
+          remove( i );
+          return;
+        }
+      }
+    }
+  }
+
+  private void clear( int slot )
+  {
+    values[ slot ] = null;
+    flags[ slot ] = 0;
+  }
+
+  private int home( long key )
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) ( h ^ ( h >>> 32 ) ) & mask;
+  }
+
+  final long[] keys;
+
+  final String[] values;
+
+  final long[] expires;
+
+  final long[] refreshAt;
+
+  final byte[] flags;
+
+  private final int maxSize;
+
+  private final int mask;
+
+  private int size;
+
+  private int hand;
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.event;
+
+/**
+ * What a {@link TapEventPublisher} does with a tap event when the buffer
+ * of a subscriber is full.
+ *
+ * @author th
+ */
+public enum OverflowPolicy
+{
+  /**
+   * Discard the oldest buffered event, slow subscribers see the latest
+   * taps.
+   */
+  DROP_OLDEST,
+  /**
+   * Discard the new event.
+   */
+  DROP_NEWEST,
+  /**
+   * Block the reader worker until the subscriber catches up. Taps on
+   * that reader are delayed, none are lost.
+   */
+  BLOCK,
+  /**
+   * Cancel the subscription and signal {@code onError}.
+   */
+  FAIL
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.event;
+
+import java.time.Instant;
+import l9g.test.smartcard.UidCodec;
+
+/**
+ * One tap on a card reader.
+ *
+ * @param reader name of the card reader
+ * @param atr ATR as hex string, {@code null} if the tap failed before
+ * @param uid the UID bytes, empty if none was read; the event takes the
+ * array over, the caller must not change it afterwards
+ * @param serial the serial as stored in the directory, {@code null} for
+ * UIDs longer than 8 bytes or none
+ * @param identity the identity of the serial, may be {@code null}
+ * @param outcome how the tap ended
+ * @param time when the tap was done
+ * @param latencyNanos time from detecting the card until the tap was done
+ *
+ * @author th
+ */
+public record TapEvent( String reader, String atr, byte[] uid, Long serial,
+  String identity, TapOutcome outcome, Instant time, long latencyNanos )
+{
+  @Override
+  public byte[] uid()
+  {
+    return uid.clone();
+  }
+
+  public int uidLength()
+  {
+    return uid.length;
+  }
+
+  /**
+   * Appends the UID as upper case hex digits without copying it.
+   */
+  public StringBuilder appendUidHex( StringBuilder out )
+  {
+    return UidCodec.encodeHex( uid, 0, uid.length, out );
+  }
+
+  /**
+   * Copies the UID without cloning it, at most {@code maxLength} bytes.
+   *
+   * @return the number of bytes copied
+   */
+  public int copyUid( byte[] dst, int dstOffset, int maxLength )
+  {
+    int length = Math.min( uid.length, maxLength );
+    System.arraycopy( uid, 0, dst, dstOffset, length );
+    return length;
+  }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.event;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes the {@link TapEvent}s of all readers to any number of
+ * subscribers.
+ *
+ * Every subscriber has its own bounded buffer and its own (virtual)
+ * delivery thread, so a slow subscriber never delays the others. When a
+ * buffer is full the {@link OverflowPolicy} decides what happens.
+ *
+ * Subscribers of {@link #subscribeBatched} receive lists of events: one
+ * requested item is one batch of up to {@code maxBatchSize} events,
+ * delivered when it is full or {@code maxDelay} after its first event,
+ * so a burst of taps reaches a backend in one call.
+ *
+ * @author th
+ */
+@Slf4j
+public class TapEventPublisher implements Flow.Publisher<TapEvent>,
+  AutoCloseable
+{
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  public TapEventPublisher()
+  {
+    this( DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST );
+  }
+
+  /**
+   * @param bufferSize events buffered per subscriber
+   */
+  public TapEventPublisher( int bufferSize, OverflowPolicy overflowPolicy )
+  {
+    if( bufferSize < 1 )
+    {
+      throw new IllegalArgumentException( "bufferSize < 1" );
+    }
+    this.bufferSize = bufferSize;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  @Override
+  public void subscribe( Flow.Subscriber<? super TapEvent> subscriber )
+  {
+    start( new TapSubscription<>( subscriber, 1, 0,
+      batch -> batch.get( 0 ) ) );
+  }
+
+  /**
+   * @param maxBatchSize maximum events per batch, at most the buffer
+   * size
+   * @param maxDelay how long the first event of a batch waits for more
+   */
+  public void subscribeBatched(
+    Flow.Subscriber<? super List<TapEvent>> subscriber, int maxBatchSize,
+    Duration maxDelay )
+  {
+    if( maxBatchSize < 1 || maxBatchSize > bufferSize )
+    {
+      throw new IllegalArgumentException( "maxBatchSize must be 1.."
+        + bufferSize );
+    }
+    start( new TapSubscription<>( subscriber, maxBatchSize,
+      maxDelay.toNanos(), List::copyOf ) );
+  }
+
+  /**
+   * Offers the event to every subscriber. Blocks only with
+   * {@link OverflowPolicy#BLOCK} and a full buffer.
+   */
+  public void submit( TapEvent event )
+  {
+    submitted.increment();
+    for( TapSubscription<?> subscription : subscriptions )
+    {
+      subscription.offer( event );
+    }
+  }
+
+  /**
+   * Whether a tap event would reach anyone, so taps without subscribers
+   * do not even create the event.
+   */
+  public boolean hasSubscribers()
+  {
+    return !subscriptions.isEmpty();
+  }
+
+  public int getSubscriberCount()
+  {
+    return subscriptions.size();
+  }
+
+  public long getSubmitted()
+  {
+    return submitted.sum();
+  }
+
+  /**
+   * Events dropped by full buffers, counted once per subscriber.
+   */
+  public long getDropped()
+  {
+    return dropped.sum();
+  }
+
+  /**
+   * Completes every subscriber after its buffered events have been
+   * delivered. Later subscribers are completed right away.
+   */
+  @Override
+  public void close()
+  {
+    closed = true;
+    subscriptions.forEach( TapSubscription::close );
+  }
+
+  private void start( TapSubscription<?> subscription )
+  {
+    subscriptions.add( subscription );
+    if( closed )
+    {
+      subscription.close();
+    }
+    Thread.ofVirtual()
+      .name( "tap-events-" + subscriptionIds.incrementAndGet() )
+      .start( subscription );
+  }
+
+  /**
+   * Buffer and delivery loop of one subscriber.
+   */
+  private final class TapSubscription<T> implements Flow.Subscription,
+    Runnable
+  {
+    TapSubscription( Flow.Subscriber<? super T> subscriber, int maxBatchSize,
+      long maxDelayNanos, Function<List<TapEvent>, T> toItem )
+    {
+      this.subscriber = subscriber;
+      this.maxBatchSize = maxBatchSize;
+      this.maxDelayNanos = maxDelayNanos;
+      this.toItem = toItem;
+      this.buffer = new TapEvent[ bufferSize ];
+    }
+
+    @Override
+    public void request( long n )
+    {
+      lock.lock();
+      try
+      {
+        if( n <= 0 )
+        {
+          // Reactive Streams rule 3.9
+          error = new IllegalArgumentException( "non-positive request: " + n );
+        }
+        else
+        {
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        changed.signal();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void cancel()
+    {
+      lock.lock();
+      try
+      {
+        cancelled = true;
+        clear();
+        changed.signal();
+        notFull.signalAll();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+      subscriptions.remove( this );
+    }
+
+    void close()
+    {
+      lock.lock();
+      try
+      {
+        completing = true;
+        changed.signal();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    void offer( TapEvent event )
+    {
+      lock.lock();
+      try
+      {
+        if( cancelled || completing || error != null )
+        {
+          return;
+        }
+
+        if( count == buffer.length )
+        {
+          switch( overflowPolicy )
+          {
+            case DROP_OLDEST ->
+            {
+              buffer[ head ] = null;
+              head = ( head + 1 ) % buffer.length;
+              count--;
+              dropped.increment();
+            }
+            case DROP_NEWEST ->
+            {
+              dropped.increment();
+              return;
+            }
+            case BLOCK ->
+            {
+              while( count == buffer.length && !cancelled && error == null )
+              {
+                notFull.await();
+              }
+              if( cancelled || error != null )
+              {
+                return;
+              }
+            }
+            case FAIL ->
+            {
+              error = new IllegalStateException(
+                "tap event buffer overflow (" + buffer.length + ")" );
+              clear();
+              dropped.increment();
+              changed.signal();
+              return;
+            }
+          }
+        }
+
+        if( count == 0 )
+        {
+          firstEventAt = System.nanoTime();
+        }
+        buffer[ ( head + count ) % buffer.length ] = event;
+        count++;
+        changed.signal();
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        dropped.increment();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        subscriber.onSubscribe( this );
+      }
+      catch( RuntimeException e )
+      {
+        failed( e );
+        return;
+      }
+
+      List<TapEvent> batch = new ArrayList<>( maxBatchSize );
+
+      try
+      {
+        while( true )
+        {
+          Throwable signalError;
+
+          lock.lock();
+          try
+          {
+            awaitSignal();
+            if( cancelled )
+            {
+              return;
+            }
+
+            signalError = error;
+            if( signalError == null && count > 0 )
+            {
+              int n = Math.min( count, maxBatchSize );
+              for( int i = 0; i < n; i++ )
+              {
+                batch.add( buffer[ head ] );
+                buffer[ head ] = null;
+                head = ( head + 1 ) % buffer.length;
+              }
+              count -= n;
+              demand--;
+              // the remaining events start a new batch
+              firstEventAt = System.nanoTime();
+              notFull.signalAll();
+            }
+          }
+          finally
+          {
+            lock.unlock();
+          }
+
+          if( signalError != null )
+          {
+            cancel();
+            subscriber.onError( signalError );
+            return;
+          }
+
+          if( batch.isEmpty() )
+          {
+            subscriptions.remove( this );
+            subscriber.onComplete();
+            return;
+          }
+
+          subscriber.onNext( toItem.apply( batch ) );
+          batch.clear();
+        }
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        cancel();
+      }
+      catch( RuntimeException e )
+      {
+        // Reactive Streams rule 2.13, a failing subscriber is cancelled
+        failed( e );
+      }
+    }
+
+    /**
+     * Waits until a batch can be delivered, or the subscription ends.
+     */
+    private void awaitSignal()
+      throws InterruptedException
+    {
+      while( !cancelled && error == null && !( completing && count == 0 ) )
+      {
+        if( demand > 0 && count > 0 )
+        {
+          if( count >= maxBatchSize || completing )
+          {
+            return;
+          }
+          long wait = firstEventAt + maxDelayNanos - System.nanoTime();
+          if( wait <= 0 )
+          {
+            return;
+          }
+          changed.awaitNanos( wait );
+        }
+        else
+        {
+          changed.await();
+        }
+      }
+    }
+
+    private void clear()
+    {
+      for( int i = 0; i < count; i++ )
+      {
+        buffer[ ( head + i ) % buffer.length ] = null;
+      }
+      head = 0;
+      count = 0;
+    }
+
+    private void failed( RuntimeException e )
+    {
+      log.error( "ERROR: tap event subscriber failed: {}", e.getMessage() );
+      cancel();
+    }
+
+    private final Flow.Subscriber<? super T> subscriber;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private final Function<List<TapEvent>, T> toItem;
+
+    private final TapEvent[] buffer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+
+    private int count;
+
+    private long firstEventAt;
+
+    private long demand;
+
+    private boolean cancelled;
+
+    private boolean completing;
+
+    private Throwable error;
+
+  }
+
+  private final int bufferSize;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final List<TapSubscription<?>> subscriptions =
+    new CopyOnWriteArrayList<>();
+
+  private final LongAdder submitted = new LongAdder();
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final AtomicLong subscriptionIds = new AtomicLong();
+
+  private volatile boolean closed;
+
+}
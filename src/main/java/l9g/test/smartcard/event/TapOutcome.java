@@ -0,0 +1,45 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.event;
+
+/**
+ * How a tap ended.
+ *
+ * @author th
+ */
+public enum TapOutcome
+{
+  /**
+   * UID read, identity resolved if there is an identity cache.
+   */
+  SUCCESS,
+  /**
+   * UID read, but the card is not known to the directory.
+   */
+  UNKNOWN_CARD,
+  /**
+   * UID read, the directory lookup failed.
+   */
+  LOOKUP_FAILED,
+  /**
+   * The card did not return a UID.
+   */
+  NO_UID,
+  /**
+   * The tap failed, e.g. the card was removed too early.
+   */
+  ERROR
+}
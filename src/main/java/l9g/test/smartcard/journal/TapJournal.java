@@ -0,0 +1,712 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import l9g.test.smartcard.event.TapOutcome;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of all taps, written through memory mapped
+ * segment files of fixed 64 byte {@link TapRecord}s.
+ *
+ * <ul>
+ * <li>An append copies one record into the mapped segment, it never
+ * waits for the disk. A background thread forces the records appended
+ * since its last run every {@code syncInterval} (group commit),
+ * {@link #getDurableSequence()} tells how far.</li>
+ * <li>A segment holds {@code segmentRecords} records (at most
+ * {@link #MAX_SEGMENT_RECORDS}), then the next segment file
+ * {@code tap-<first sequence>.journal} is started. The background thread
+ * creates and maps it ahead of time, so the rollover under the append
+ * lock only switches buffers; the append maps the file itself only if
+ * the thread has not caught up yet.</li>
+ * <li>Every record carries its sequence number and a CRC32C. On open
+ * every segment is checked, which reads the whole journal once. The
+ * last segment is cut after the last complete record, so a record torn
+ * by a crash is dropped. A sealed segment that lost records (a crash
+ * before it was forced) ends the journal as well: the segments after it
+ * are renamed to {@code *.journal.damaged}, empty ones prepared ahead
+ * are deleted.</li>
+ * </ul>
+ *
+ * The journal subscribes to a {@link TapEventPublisher} as batched
+ * subscriber, an append costs no disk I/O, so the publisher may block
+ * rather than drop events. Use
+ * {@link TapJournalReader} to replay or query it.
+ *
+ * @author th
+ */
+@Slf4j
+public class TapJournal implements Flow.Subscriber<List<TapEvent>>,
+  AutoCloseable
+{
+  /**
+   * 64 MiB segments.
+   */
+  public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+  /**
+   * Largest segment a single mapping and int record offsets can address,
+   * just under 2 GiB.
+   */
+  public static final int MAX_SEGMENT_RECORDS =
+    Integer.MAX_VALUE / TapRecord.SIZE;
+
+  public TapJournal( Path directory )
+    throws IOException
+  {
+    this( directory, DEFAULT_SEGMENT_RECORDS, Duration.ofMillis( 10 ) );
+  }
+
+  public TapJournal( Path directory, int segmentRecords,
+    Duration syncInterval )
+    throws IOException
+  {
+    if( segmentRecords < 1 || segmentRecords > MAX_SEGMENT_RECORDS )
+    {
+      throw new IllegalArgumentException( "segmentRecords must be 1.."
+        + MAX_SEGMENT_RECORDS );
+    }
+    this.directory = directory;
+    this.segmentRecords = segmentRecords;
+    this.syncInterval = syncInterval;
+
+    Files.createDirectories( directory );
+    List<Path> segments = listSegments( directory );
+    long firstSequence = 1;
+    int count = 0;
+    int kept = 1;
+
+    for( int i = 0; i < segments.size(); i++ )
+    {
+      firstSequence = firstSequenceOf( segments.get( i ) );
+      count = recover( segments.get( i ), firstSequence );
+      kept = i + 1;
+
+      if( i + 1 < segments.size() && firstSequence + count
+        != firstSequenceOf( segments.get( i + 1 ) ) )
+      {
+        // records after a gap would never be read
+        discard( segments.subList( i + 1, segments.size() ) );
+        break;
+      }
+    }
+
+    segment = openSegment( firstSequence, count );
+    nextSequence = segment.firstSequence + segment.count;
+    durableSequence = nextSequence - 1;
+    log.info( "Tap journal {}: {} segment(s), next sequence {}", directory,
+      kept, nextSequence );
+
+    syncer = Thread.ofPlatform().name( "tap-journal-sync" ).daemon()
+      .start( this::syncLoop );
+  }
+
+  public long append( TapEvent event )
+  {
+    Long serial = event.serial();
+    return append( event.time().toEpochMilli(), event.reader(), event,
+      null, 0, event.uidLength(), serial != null,
+      serial != null ? serial : 0, event.outcome(), event.latencyNanos() );
+  }
+
+  /**
+   * Appends one tap. UIDs longer than 10 bytes and reader names longer
+   * than 18 UTF-8 bytes are truncated.
+   *
+   * @return the sequence number of the record
+   * @throws IllegalStateException if the journal is closed
+   */
+  public long append( long time, String reader, byte[] uid, int uidOffset,
+    int uidLength, boolean hasSerial, long serial, TapOutcome outcome,
+    long latencyNanos )
+  {
+    return append( time, reader, null, uid, uidOffset, uidLength, hasSerial,
+      serial, outcome, latencyNanos );
+  }
+
+  /**
+   * The UID is copied from {@code event} if given, else from
+   * {@code uid}.
+   */
+  private long append( long time, String reader, TapEvent event,
+    byte[] uid, int uidOffset, int uidLength, boolean hasSerial, long serial,
+    TapOutcome outcome, long latencyNanos )
+  {
+    byte[] name = readerNames.get( reader );
+    if( name == null )
+    {
+      name = readerNames.computeIfAbsent( reader, TapJournal::encodeReader );
+    }
+    uidLength = Math.min( uidLength, TapRecord.MAX_UID_LENGTH );
+
+    lock.lock();
+    try
+    {
+      if( closed )
+      {
+        throw new IllegalStateException( "tap journal closed" );
+      }
+
+      if( segment.count == segment.capacity )
+      {
+        rollover();
+      }
+
+      long sequence = nextSequence++;
+      Arrays.fill( recordBytes, TapRecord.UID, TapRecord.CRC, (byte) 0 );
+      record.putLong( TapRecord.SEQUENCE, sequence );
+      record.putLong( TapRecord.TIME, time );
+      record.putLong( TapRecord.SERIAL, serial );
+      record.putInt( TapRecord.LATENCY,
+        (int) Math.min( Integer.MAX_VALUE, latencyNanos / 1000 ) );
+      record.put( TapRecord.OUTCOME, (byte) outcome.ordinal() );
+      record.put( TapRecord.FLAGS, hasSerial ? TapRecord.HAS_SERIAL : 0 );
+      record.put( TapRecord.UID_LENGTH, (byte) uidLength );
+      record.put( TapRecord.READER_LENGTH, (byte) name.length );
+      if( event != null )
+      {
+        event.copyUid( recordBytes, TapRecord.UID, uidLength );
+      }
+      else
+      {
+        System.arraycopy( uid, uidOffset, recordBytes, TapRecord.UID,
+          uidLength );
+      }
+      System.arraycopy( name, 0, recordBytes, TapRecord.READER,
+        name.length );
+
+      crc.reset();
+      crc.update( recordBytes, 0, TapRecord.CRC );
+      record.putInt( TapRecord.CRC, (int) crc.getValue() );
+
+      segment.buffer.put( segment.count * TapRecord.SIZE, recordBytes );
+      segment.count++;
+      return sequence;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Forces all records appended so far to the disk.
+   */
+  public void sync()
+  {
+    syncLock.lock();
+    try
+    {
+      Segment current;
+      int end;
+      long sequence;
+      List<Segment> sealedSegments;
+
+      lock.lock();
+      try
+      {
+        current = segment;
+        end = current.count;
+        sequence = nextSequence - 1;
+        sealedSegments = List.copyOf( sealed );
+        sealed.clear();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+
+      for( Segment s : sealedSegments )
+      {
+        s.force( s.count );
+      }
+      current.force( end );
+      durableSequence = sequence;
+    }
+    finally
+    {
+      syncLock.unlock();
+    }
+  }
+
+  /**
+   * Sequence number of the last appended record, 0 if there is none.
+   */
+  public long getLastSequence()
+  {
+    lock.lock();
+    try
+    {
+      return nextSequence - 1;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sequence number of the last record known to be on the disk.
+   */
+  public long getDurableSequence()
+  {
+    return durableSequence;
+  }
+
+  public Path getDirectory()
+  {
+    return directory;
+  }
+
+  @Override
+  public void onSubscribe( Flow.Subscription subscription )
+  {
+    subscribed = true;
+    subscription.request( Long.MAX_VALUE );
+  }
+
+  @Override
+  public void onNext( List<TapEvent> events )
+  {
+    for( TapEvent event : events )
+    {
+      append( event );
+    }
+  }
+
+  @Override
+  public void onError( Throwable throwable )
+  {
+    log.error( "ERROR: tap events for the journal failed: {}",
+      throwable.getMessage() );
+    completed.countDown();
+  }
+
+  @Override
+  public void onComplete()
+  {
+    completed.countDown();
+  }
+
+  /**
+   * If subscribed to a publisher, waits a few seconds for the events
+   * still buffered there, so close the publisher first. An interrupt
+   * stops that wait, the journal is still synced and closed, and the
+   * interrupt status is kept.
+   */
+  @Override
+  public void close()
+  {
+    boolean interrupted = false;
+    try
+    {
+      if( subscribed && !completed.await( 5, TimeUnit.SECONDS ) )
+      {
+        log.warn( "Tap journal {}: closed before all tap events arrived",
+          directory );
+      }
+    }
+    catch( InterruptedException e )
+    {
+      interrupted = true;
+      log.warn( "Tap journal {}: interrupted while waiting for tap events",
+        directory );
+    }
+
+    lock.lock();
+    try
+    {
+      closed = true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    syncer.interrupt();
+    while( syncer.isAlive() )
+    {
+      try
+      {
+        syncer.join();
+      }
+      catch( InterruptedException e )
+      {
+        interrupted = true;
+      }
+    }
+    sync();
+
+    if( interrupted )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  static List<Path> listSegments( Path directory )
+    throws IOException
+  {
+    try( Stream<Path> files = Files.list( directory ) )
+    {
+      // fixed width hex sequence numbers sort by name
+      return files
+        .filter( file -> SEGMENT_NAME.matcher( file.getFileName()
+          .toString() ).matches() )
+        .sorted().toList();
+    }
+  }
+
+  static long firstSequenceOf( Path segment )
+  {
+    Matcher matcher =
+      SEGMENT_NAME.matcher( segment.getFileName().toString() );
+    if( !matcher.matches() )
+    {
+      throw new IllegalArgumentException( "not a journal segment: "
+        + segment );
+    }
+    return Long.parseUnsignedLong( matcher.group( 1 ), 16 );
+  }
+
+  /**
+   * Checks the records of a segment and cuts it after the last valid
+   * one.
+   *
+   * @return the number of valid records
+   */
+  private int recover( Path file, long firstSequence )
+    throws IOException
+  {
+    try( FileChannel channel = FileChannel.open( file,
+      StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+    {
+      ByteBuffer chunk = ByteBuffer.allocate( 1024 * TapRecord.SIZE )
+        .order( ByteOrder.LITTLE_ENDIAN );
+      CRC32C check = new CRC32C();
+      long position = 0;
+      int valid = 0;
+      boolean torn = false;
+
+      scan:
+      while( channel.read( chunk.clear(), position ) > 0 )
+      {
+        chunk.flip();
+        for( int offset = 0; offset + TapRecord.SIZE <= chunk.limit();
+          offset += TapRecord.SIZE )
+        {
+          check.reset();
+          check.update( chunk.slice( offset, TapRecord.CRC ) );
+          if( chunk.getLong( offset + TapRecord.SEQUENCE )
+            != firstSequence + valid
+            || chunk.getInt( offset + TapRecord.CRC ) != (int) check.getValue() )
+          {
+            torn = !isZero( chunk, offset,
+              Math.min( TapRecord.SIZE, chunk.limit() - offset ) );
+            break scan;
+          }
+          valid++;
+        }
+        position += chunk.limit() - chunk.limit() % TapRecord.SIZE;
+        if( chunk.limit() % TapRecord.SIZE != 0 )
+        {
+          // a partial record at the end of the file
+          torn = true;
+          break;
+        }
+      }
+
+      if( torn )
+      {
+        log.warn( "Tap journal {}: torn record after sequence {} truncated",
+          file, firstSequence + valid - 1 );
+      }
+      channel.truncate( (long) valid * TapRecord.SIZE );
+      return valid;
+    }
+  }
+
+  /**
+   * Sets aside the segments after a sealed segment that lost records.
+   */
+  private void discard( List<Path> files )
+    throws IOException
+  {
+    for( Path file : files )
+    {
+      if( recover( file, firstSequenceOf( file ) ) == 0 )
+      {
+        // prepared ahead, never written
+        Files.delete( file );
+      }
+      else
+      {
+        Path damaged = file.resolveSibling( file.getFileName() + ".damaged" );
+        Files.move( file, damaged, StandardCopyOption.REPLACE_EXISTING );
+        log.warn( "Tap journal {}: records missing before {}, set aside as {}",
+          directory, file.getFileName(), damaged.getFileName() );
+      }
+    }
+  }
+
+  private Segment openSegment( long firstSequence, int count )
+    throws IOException
+  {
+    Path file = directory.resolve( String.format( SEGMENT_FORMAT,
+      firstSequence ) );
+    int capacity = Math.max( segmentRecords, count );
+
+    try( FileChannel channel = FileChannel.open( file,
+      StandardOpenOption.CREATE, StandardOpenOption.READ,
+      StandardOpenOption.WRITE ) )
+    {
+      // the mapping stays valid after the channel is closed
+      MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE,
+        0, (long) capacity * TapRecord.SIZE );
+      return new Segment( firstSequence, buffer, capacity, count );
+    }
+  }
+
+  private void rollover()
+  {
+    sealed.add( segment );
+    if( spare != null && spare.firstSequence == nextSequence )
+    {
+      segment = spare;
+      spare = null;
+      return;
+    }
+
+    try
+    {
+      // the sync thread has not prepared the segment yet
+      segment = openSegment( nextSequence, 0 );
+    }
+    catch( IOException e )
+    {
+      throw new UncheckedIOException( e );
+    }
+  }
+
+  /**
+   * Creates and maps the segment following the current one outside of
+   * the append lock.
+   */
+  private void prepareSpare()
+  {
+    long firstSequence;
+
+    lock.lock();
+    try
+    {
+      if( closed || spare != null )
+      {
+        return;
+      }
+      firstSequence = segment.firstSequence + segment.capacity;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    Segment prepared;
+    try
+    {
+      prepared = openSegment( firstSequence, 0 );
+    }
+    catch( IOException e )
+    {
+      log.error( "ERROR: preparing tap journal segment failed: {}",
+        e.getMessage() );
+      return;
+    }
+
+    lock.lock();
+    try
+    {
+      // a rollover may have opened it already
+      if( !closed
+        && firstSequence == segment.firstSequence + segment.capacity )
+      {
+        spare = prepared;
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void syncLoop()
+  {
+    while( true )
+    {
+      prepareSpare();
+
+      try
+      {
+        Thread.sleep( syncInterval );
+      }
+      catch( InterruptedException e )
+      {
+        return;
+      }
+
+      try
+      {
+        sync();
+      }
+      catch( UncheckedIOException e )
+      {
+        log.error( "ERROR: tap journal sync failed: {}", e.getMessage() );
+      }
+    }
+  }
+
+  private static byte[] encodeReader( String reader )
+  {
+    byte[] name = reader.getBytes( StandardCharsets.UTF_8 );
+    return name.length > TapRecord.MAX_READER_LENGTH
+      ? Arrays.copyOf( name, TapRecord.MAX_READER_LENGTH ) : name;
+  }
+
+  private static boolean isZero( ByteBuffer buffer, int offset, int length )
+  {
+    for( int i = offset; i < offset + length; i++ )
+    {
+      if( buffer.get( i ) != 0 )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * One mapped segment file.
+   */
+  private static final class Segment
+  {
+    Segment( long firstSequence, MappedByteBuffer buffer, int capacity,
+      int count )
+    {
+      this.firstSequence = firstSequence;
+      this.buffer = buffer;
+      this.capacity = capacity;
+      this.count = count;
+      this.forced = count;
+    }
+
+    /**
+     * Forces the records up to {@code end}, only called by the sync
+     * thread.
+     */
+    void force( int end )
+    {
+      if( end > forced )
+      {
+        buffer.force( forced * TapRecord.SIZE,
+          ( end - forced ) * TapRecord.SIZE );
+        forced = end;
+      }
+    }
+
+    private final long firstSequence;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private int count;
+
+    private int forced;
+
+  }
+
+  private static final String SEGMENT_FORMAT = "tap-%016x.journal";
+
+  private static final Pattern SEGMENT_NAME =
+    Pattern.compile( "tap-([0-9a-f]{16})\\.journal" );
+
+  private final Path directory;
+
+  private final int segmentRecords;
+
+  private final Duration syncInterval;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final ReentrantLock syncLock = new ReentrantLock();
+
+  private final byte[] recordBytes = new byte[ TapRecord.SIZE ];
+
+  private final ByteBuffer record =
+    ByteBuffer.wrap( recordBytes ).order( ByteOrder.LITTLE_ENDIAN );
+
+  private final CRC32C crc = new CRC32C();
+
+  private final Map<String, byte[]> readerNames = new ConcurrentHashMap<>();
+
+  private final List<Segment> sealed = new ArrayList<>();
+
+  private final Thread syncer;
+
+  private final CountDownLatch completed = new CountDownLatch( 1 );
+
+  private volatile boolean subscribed;
+
+  private Segment segment;
+
+  /**
+   * The segment after {@link #segment}, mapped ahead by the sync thread.
+   */
+  private Segment spare;
+
+  private long nextSequence;
+
+  private volatile long durableSequence;
+
+  private boolean closed;
+
+}
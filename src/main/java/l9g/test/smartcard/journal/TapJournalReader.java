@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.journal;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Sequential scans over the segments of a {@link TapJournal}, also while
+ * the journal is written.
+ *
+ * Segments are mapped read only and the records are visited in place
+ * through one reused {@link TapRecord}, a scan does not allocate per
+ * record. A scan ends at the first record that is missing or incomplete,
+ * the CRC is checked for every record passed to the visitor.
+ *
+ * Tap times are wall clock times, so a time range is a filter over all
+ * records and does not assume them to be ordered.
+ *
+ * @author th
+ */
+public class TapJournalReader
+{
+  public TapJournalReader( Path directory )
+  {
+    this.directory = directory;
+  }
+
+  /**
+   * Replays all records in sequence.
+   *
+   * @return the number of records visited
+   */
+  public long scan( TapRecordVisitor visitor )
+    throws IOException
+  {
+    return scan( ( buffer, offset ) -> true, visitor );
+  }
+
+  /**
+   * Visits the taps of one card serial.
+   */
+  public long scanSerial( long serial, TapRecordVisitor visitor )
+    throws IOException
+  {
+    return scan( ( buffer, offset ) ->
+      buffer.getLong( offset + TapRecord.SERIAL ) == serial
+      && ( buffer.get( offset + TapRecord.FLAGS ) & TapRecord.HAS_SERIAL ) != 0,
+      visitor );
+  }
+
+  /**
+   * Visits the taps from {@code fromMillis} (inclusive) to
+   * {@code toMillis} (exclusive), epoch milliseconds.
+   */
+  public long scanTimeRange( long fromMillis, long toMillis,
+    TapRecordVisitor visitor )
+    throws IOException
+  {
+    return scan( ( buffer, offset ) ->
+    {
+      long time = buffer.getLong( offset + TapRecord.TIME );
+      return time >= fromMillis && time < toMillis;
+    }, visitor );
+  }
+
+  private long scan( Filter filter, TapRecordVisitor visitor )
+    throws IOException
+  {
+    TapRecord record = new TapRecord();
+    CRC32C crc = new CRC32C();
+    long visited = 0;
+
+    for( Path file : TapJournal.listSegments( directory ) )
+    {
+      long expected = TapJournal.firstSequenceOf( file );
+      MappedByteBuffer buffer;
+
+      try( FileChannel channel = FileChannel.open( file,
+        StandardOpenOption.READ ) )
+      {
+        buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+          channel.size() );
+      }
+      buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+      for( int offset = 0, limit = buffer.capacity();
+        offset + TapRecord.SIZE <= limit; offset += TapRecord.SIZE )
+      {
+        // the sequence number finds the end, the CRC is only checked
+        // for matching records
+        if( buffer.getLong( offset + TapRecord.SEQUENCE ) != expected++ )
+        {
+          return visited;
+        }
+
+        if( filter.test( buffer, offset ) )
+        {
+          crc.reset();
+          crc.update( buffer.limit( offset + TapRecord.CRC )
+            .position( offset ) );
+          buffer.limit( limit );
+          if( buffer.getInt( offset + TapRecord.CRC ) != (int) crc.getValue() )
+          {
+            // torn by a crash or still being written
+            return visited;
+          }
+
+          visited++;
+          record.moveTo( buffer, offset );
+          if( !visitor.visit( record ) )
+          {
+            return visited;
+          }
+        }
+      }
+    }
+
+    return visited;
+  }
+
+  @FunctionalInterface
+  private interface Filter
+  {
+    boolean test( MappedByteBuffer buffer, int offset );
+  }
+
+  private final Path directory;
+
+}
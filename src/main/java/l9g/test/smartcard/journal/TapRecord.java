@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import l9g.test.smartcard.event.TapOutcome;
+
+/**
+ * View of one 64 byte journal record, reused for every record of a scan.
+ *
+ * <pre>
+ *  0 long  sequence, starting at 1
+ *  8 long  time, epoch milliseconds
+ * 16 long  serial
+ * 24 int   latency in microseconds
+ * 28 byte  outcome
+ * 29 byte  flags
+ * 30 byte  UID length
+ * 31 byte  reader name length
+ * 32       UID, 10 bytes
+ * 42       reader name, UTF-8, truncated to 18 bytes
+ * 60 int   CRC32C of bytes 0..59
+ * </pre>
+ *
+ * All values are little endian.
+ *
+ * @author th
+ */
+public final class TapRecord
+{
+  TapRecord()
+  {
+  }
+
+  public long getSequence()
+  {
+    return buffer.getLong( offset + SEQUENCE );
+  }
+
+  /**
+   * Epoch milliseconds the tap was done at.
+   */
+  public long getTime()
+  {
+    return buffer.getLong( offset + TIME );
+  }
+
+  public boolean hasSerial()
+  {
+    return ( buffer.get( offset + FLAGS ) & HAS_SERIAL ) != 0;
+  }
+
+  public long getSerial()
+  {
+    return buffer.getLong( offset + SERIAL );
+  }
+
+  public int getLatencyMicros()
+  {
+    return buffer.getInt( offset + LATENCY );
+  }
+
+  public TapOutcome getOutcome()
+  {
+    return OUTCOMES[ buffer.get( offset + OUTCOME ) ];
+  }
+
+  public int getUidLength()
+  {
+    return buffer.get( offset + UID_LENGTH );
+  }
+
+  /**
+   * Copies the UID to {@code dst}.
+   *
+   * @return the UID length
+   */
+  public int getUid( byte[] dst, int dstOffset )
+  {
+    int length = getUidLength();
+    buffer.get( offset + UID, dst, dstOffset, length );
+    return length;
+  }
+
+  public byte[] getUid()
+  {
+    byte[] uid = new byte[ getUidLength() ];
+    getUid( uid, 0 );
+    return uid;
+  }
+
+  public String getReader()
+  {
+    byte[] name = new byte[ buffer.get( offset + READER_LENGTH ) ];
+    buffer.get( offset + READER, name );
+    return new String( name, StandardCharsets.UTF_8 );
+  }
+
+  @Override
+  public String toString()
+  {
+    return "TapRecord[sequence=" + getSequence() + ", time=" + getTime()
+      + ", reader=" + getReader() + ", serial="
+      + ( hasSerial() ? getSerial() : "-" ) + ", outcome=" + getOutcome()
+      + "]";
+  }
+
+  void moveTo( ByteBuffer buffer, int offset )
+  {
+    this.buffer = buffer;
+    this.offset = offset;
+  }
+
+  static final int SIZE = 64;
+
+  static final int SEQUENCE = 0;
+
+  static final int TIME = 8;
+
+  static final int SERIAL = 16;
+
+  static final int LATENCY = 24;
+
+  static final int OUTCOME = 28;
+
+  static final int FLAGS = 29;
+
+  static final int UID_LENGTH = 30;
+
+  static final int READER_LENGTH = 31;
+
+  static final int UID = 32;
+
+  static final int MAX_UID_LENGTH = 10;
+
+  static final int READER = 42;
+
+  static final int MAX_READER_LENGTH = 18;
+
+  static final int CRC = 60;
+
+  static final byte HAS_SERIAL = 1;
+
+  private static final TapOutcome[] OUTCOMES = TapOutcome.values();
+
+  private ByteBuffer buffer;
+
+  private int offset;
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.journal;
+
+/**
+ * Receives the records of a journal scan.
+ *
+ * @author th
+ */
+@FunctionalInterface
+public interface TapRecordVisitor
+{
+  /**
+   * @param record valid until this method returns
+   * @return {@code false} to stop the scan
+   */
+  boolean visit( TapRecord record );
+}
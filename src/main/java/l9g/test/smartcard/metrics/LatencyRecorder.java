@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock and allocation free latency histogram in the style of
+ * HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power of two range is
+ * split into 32 sub buckets, so a recorded value is reported with a
+ * relative error below about 3 %. Values from 0 ns up to the full
+ * {@code long} range are covered by a fixed array of counters.
+ *
+ * @author th
+ */
+public class LatencyRecorder
+{
+  public void record( long nanos )
+  {
+    if( nanos < 0 )
+    {
+      nanos = 0;
+    }
+    counts.incrementAndGet( indexOf( nanos ) );
+    total.increment();
+    sum.add( nanos );
+
+    long current = max.get();
+    while( nanos > current && !max.compareAndSet( current, nanos ) )
+    {
+      current = max.get();
+    }
+  }
+
+  public long getCount()
+  {
+    return total.sum();
+  }
+
+  /**
+   * Takes a snapshot. Recording may continue concurrently, so the
+   * snapshot is not necessarily consistent to the last count.
+   */
+  public LatencySnapshot snapshot()
+  {
+    long[] copy = new long[ counts.length() ];
+    long count = 0;
+    for( int i = 0; i < copy.length; i++ )
+    {
+      copy[ i ] = counts.get( i );
+      count += copy[ i ];
+    }
+
+    if( count == 0 )
+    {
+      return new LatencySnapshot( 0, 0, 0, 0, 0, 0, 0 );
+    }
+
+    // a bucket's upper bound may lie above the largest recorded value
+    long maxValue = max.get();
+    return new LatencySnapshot( count, sum.sum() / Math.max( 1, total.sum() ),
+      Math.min( maxValue, percentile( copy, count, 0.50 ) ),
+      Math.min( maxValue, percentile( copy, count, 0.90 ) ),
+      Math.min( maxValue, percentile( copy, count, 0.99 ) ),
+      Math.min( maxValue, percentile( copy, count, 0.999 ) ), maxValue );
+  }
+
+  public void reset()
+  {
+    for( int i = 0; i < counts.length(); i++ )
+    {
+      counts.set( i, 0 );
+    }
+    total.reset();
+    sum.reset();
+    max.set( 0 );
+  }
+
+  static int indexOf( long value )
+  {
+    int msb = 63 - Long.numberOfLeadingZeros( value | 1 );
+    if( msb <= SUB_BITS )
+    {
+      return (int) value;
+    }
+    int shift = msb - SUB_BITS;
+    return ( shift + 1 ) * SUB_BUCKETS
+      + (int) ( ( value >>> shift ) - SUB_BUCKETS );
+  }
+
+  /**
+   * Highest value that falls into bucket {@code index}.
+   */
+  static long highestValueOf( int index )
+  {
+    if( index < 2 * SUB_BUCKETS )
+    {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ( ( sub + 1 ) << shift ) - 1;
+  }
+
+  private static long percentile( long[] counts, long count, double p )
+  {
+    long rank = Math.max( 1, (long) Math.ceil( p * count ) );
+    long seen = 0;
+    for( int i = 0; i < counts.length; i++ )
+    {
+      seen += counts[ i ];
+      if( seen >= rank )
+      {
+        return highestValueOf( i );
+      }
+    }
+    return highestValueOf( counts.length - 1 );
+  }
+
+  private static final int SUB_BITS = 5;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  private final AtomicLongArray counts =
+    new AtomicLongArray( indexOf( Long.MAX_VALUE ) + 1 );
+
+  private final LongAdder total = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final AtomicLong max = new AtomicLong();
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically writes a JSON snapshot of the {@link TapMetrics} to a
+ * file. The file is replaced atomically, readers always see a complete
+ * snapshot.
+ *
+ * @author th
+ */
+@Slf4j
+public class MetricsExporter implements AutoCloseable
+{
+  public MetricsExporter( TapMetrics metrics, Path file, Duration interval )
+  {
+    this.metrics = metrics;
+    this.file = file;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name( "metrics-exporter" ).daemon().factory() );
+    scheduler.scheduleAtFixedRate( this::export, interval.toMillis(),
+      interval.toMillis(), TimeUnit.MILLISECONDS );
+  }
+
+  public synchronized void export()
+  {
+    try
+    {
+      Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+      Files.writeString( tmp, toJson( metrics ), StandardCharsets.UTF_8 );
+      Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+    }
+    catch( IOException e )
+    {
+      log.error( "ERROR: writing metrics to {} failed: {}", file,
+        e.getMessage() );
+    }
+  }
+
+  public static String toJson( TapMetrics metrics )
+  {
+    StringBuilder json = new StringBuilder( 2048 );
+    json.append( "{\n  \"timestamp\": \"" ).append( Instant.now() )
+      .append( "\",\n  \"stages\": {" );
+
+    String separator = "\n";
+    for( Map.Entry<TapStage, LatencySnapshot> entry :
+      metrics.snapshotStages().entrySet() )
+    {
+      LatencySnapshot s = entry.getValue();
+      json.append( separator ).append( "    \"" )
+        .append( entry.getKey().name().toLowerCase() ).append( "\": { " )
+        .append( "\"count\": " ).append( s.count() )
+        .append( ", \"meanNanos\": " ).append( s.mean() )
+        .append( ", \"p50Nanos\": " ).append( s.p50() )
+        .append( ", \"p90Nanos\": " ).append( s.p90() )
+        .append( ", \"p99Nanos\": " ).append( s.p99() )
+        .append( ", \"p999Nanos\": " ).append( s.p999() )
+        .append( ", \"maxNanos\": " ).append( s.max() ).append( " }" );
+      separator = ",\n";
+    }
+
+    json.append( "\n  },\n  \"readers\": {" );
+
+    separator = "\n";
+    for( Map.Entry<String, ReaderCounters> entry :
+      metrics.getReaders().entrySet() )
+    {
+      ReaderCounters c = entry.getValue();
+      json.append( separator ).append( "    \"" )
+        .append( escape( entry.getKey() ) ).append( "\": { " )
+        .append( "\"taps\": " ).append( c.getTaps() )
+        .append( ", \"errors\": " ).append( c.getErrors() )
+        .append( ", \"duplicates\": " ).append( c.getDuplicates() )
+        .append( ", \"drops\": " ).append( c.getDrops() ).append( " }" );
+      separator = ",\n";
+    }
+
+    return json.append( "\n  }\n}\n" ).toString();
+  }
+
+  /**
+   * Stops the periodic export and writes a last snapshot, after a
+   * running export has finished with the temporary file.
+   */
+  @Override
+  public void close()
+  {
+    // no interrupt, it would close the file channel of a running export
+    scheduler.shutdown();
+    try
+    {
+      if( !scheduler.awaitTermination( 5, TimeUnit.SECONDS ) )
+      {
+        log.warn( "metrics export to {} did not finish", file );
+      }
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+    export();
+  }
+
+  private static String escape( String value )
+  {
+    StringBuilder escaped = new StringBuilder( value.length() );
+    for( int i = 0; i < value.length(); i++ )
+    {
+      char c = value.charAt( i );
+      if( c == '"' || c == '\\' )
+      {
+        escaped.append( '\\' ).append( c );
+      }
+      else if( c < 0x20 )
+      {
+        escaped.append( String.format( "\\u%04x", (int) c ) );
+      }
+      else
+      {
+        escaped.append( c );
+      }
+    }
+    return escaped.toString();
+  }
+
+  private final TapMetrics metrics;
+
+  private final Path file;
+
+  private final ScheduledExecutorService scheduler;
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tap, error, duplicate and drop counters of one card reader.
+ *
+ * @author th
+ */
+public class ReaderCounters
+{
+  public void tap()
+  {
+    taps.increment();
+  }
+
+  public void error()
+  {
+    errors.increment();
+  }
+
+  /**
+   * A repeated tap suppressed by the debouncer.
+   */
+  public void duplicate()
+  {
+    duplicates.increment();
+  }
+
+  /**
+   * The reader disappeared (unplugged or PC/SC failure).
+   */
+  public void drop()
+  {
+    drops.increment();
+  }
+
+  public long getTaps()
+  {
+    return taps.sum();
+  }
+
+  public long getErrors()
+  {
+    return errors.sum();
+  }
+
+  public long getDuplicates()
+  {
+    return duplicates.sum();
+  }
+
+  public long getDrops()
+  {
+    return drops.sum();
+  }
+
+  private final LongAdder taps = new LongAdder();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder duplicates = new LongAdder();
+
+  private final LongAdder drops = new LongAdder();
+
+}
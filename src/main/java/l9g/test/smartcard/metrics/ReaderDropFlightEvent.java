@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for a card reader that disappeared.
+ *
+ * @author th
+ */
+@Name( "l9g.smartcard.ReaderDrop" )
+@Label( "Card Reader Dropped" )
+@Category(
+  {
+    "L9g", "Smartcard"
+  } )
+@StackTrace( false )
+public class ReaderDropFlightEvent extends jdk.jfr.Event
+{
+  @Label( "Reader" )
+  public String reader;
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event for every tap, its duration spans connect to
+ * disconnect.
+ *
+ * @author th
+ */
+@Name( "l9g.smartcard.Tap" )
+@Label( "Card Tap" )
+@Category(
+  {
+    "L9g", "Smartcard"
+  } )
+@Description( "A card tap with the duration of its stages" )
+@StackTrace( false )
+public class TapFlightEvent extends jdk.jfr.Event
+{
+  @Label( "Reader" )
+  public String reader;
+
+  @Label( "Success" )
+  public boolean success;
+
+  @Label( "Detect" )
+  @Timespan( Timespan.NANOSECONDS )
+  public long detect;
+
+  @Label( "Connect" )
+  @Timespan( Timespan.NANOSECONDS )
+  public long connect;
+
+  @Label( "Transmit" )
+  @Timespan( Timespan.NANOSECONDS )
+  public long transmit;
+
+  @Label( "Decode" )
+  @Timespan( Timespan.NANOSECONDS )
+  public long decode;
+
+  @Label( "Disconnect" )
+  @Timespan( Timespan.NANOSECONDS )
+  public long disconnect;
+
+}
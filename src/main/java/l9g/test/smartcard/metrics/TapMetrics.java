@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency recorders per {@link TapStage} and counters per reader.
+ *
+ * Recording is lock free and does not allocate, except for the counters
+ * of a reader seen for the first time.
+ *
+ * @author th
+ */
+public class TapMetrics
+{
+  public TapMetrics()
+  {
+    TapStage[] stages = TapStage.values();
+    recorders = new LatencyRecorder[ stages.length ];
+    for( TapStage stage : stages )
+    {
+      recorders[ stage.ordinal() ] = new LatencyRecorder();
+    }
+  }
+
+  public void record( TapStage stage, long nanos )
+  {
+    recorders[ stage.ordinal() ].record( nanos );
+  }
+
+  public LatencyRecorder getRecorder( TapStage stage )
+  {
+    return recorders[ stage.ordinal() ];
+  }
+
+  public ReaderCounters reader( String readerName )
+  {
+    ReaderCounters counters = readers.get( readerName );
+    return counters != null
+      ? counters : readers.computeIfAbsent( readerName, n -> new ReaderCounters() );
+  }
+
+  public Map<TapStage, LatencySnapshot> snapshotStages()
+  {
+    Map<TapStage, LatencySnapshot> snapshot = new EnumMap<>( TapStage.class );
+    for( TapStage stage : TapStage.values() )
+    {
+      snapshot.put( stage, recorders[ stage.ordinal() ].snapshot() );
+    }
+    return snapshot;
+  }
+
+  public Map<String, ReaderCounters> getReaders()
+  {
+    return new TreeMap<>( readers );
+  }
+
+  private final LatencyRecorder[] recorders;
+
+  private final Map<String, ReaderCounters> readers = new ConcurrentHashMap<>();
+
+}
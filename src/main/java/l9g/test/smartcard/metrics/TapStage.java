@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+/**
+ * The timed stages of a tap.
+ *
+ * @author th
+ */
+public enum TapStage
+{
+  /**
+   * Card insertion detected until the reader worker picks it up.
+   */
+  DETECT,
+  /**
+   * {@code CardTerminal.connect}, including protocol negotiation.
+   */
+  CONNECT,
+  /**
+   * GET UID APDU round trip(s).
+   */
+  TRANSMIT,
+  /**
+   * UID hex and serial decoding.
+   */
+  DECODE,
+  /**
+   * {@code Card.disconnect}.
+   */
+  DISCONNECT,
+  /**
+   * End of the tap until the card removal is detected.
+   */
+  REMOVAL_WAIT
+
+}
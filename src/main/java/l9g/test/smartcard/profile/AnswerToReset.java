@@ -0,0 +1,303 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.profile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.SortedSet;
+
+/**
+ * Parsed ISO 7816-3 answer to reset.
+ *
+ * Besides the interface bytes TA<i>i</i>, TB<i>i</i>, TC<i>i</i> and
+ * TD<i>i</i>, the offered protocols and the historical bytes, the
+ * PC/SC part 3 storage card information (standard and card name) is
+ * decoded for contactless cards.
+ *
+ * @author th
+ */
+public final class AnswerToReset
+{
+  /**
+   * An interface byte, e.g. {@code TA1}.
+   */
+  public record InterfaceByte( char type, int index, int value )
+  {
+    @Override
+    public String toString()
+    {
+      return String.format( "T%c%d=%02X", type, index, value );
+    }
+
+  }
+
+  private AnswerToReset( byte[] bytes, List<InterfaceByte> interfaceBytes,
+    SortedSet<Integer> protocols, byte[] historicalBytes, int tck,
+    boolean valid )
+  {
+    this.bytes = bytes;
+    this.interfaceBytes = interfaceBytes;
+    this.protocols = protocols;
+    this.historicalBytes = historicalBytes;
+    this.tck = tck;
+    this.valid = valid;
+  }
+
+  /**
+   * Parses an ATR. Truncated ATRs or ATRs with a wrong check byte are
+   * parsed as far as possible and flagged as not {@link #isValid()}.
+   */
+  public static AnswerToReset parse( byte[] atr )
+  {
+    byte[] bytes = atr.clone();
+    List<InterfaceByte> interfaceBytes = new ArrayList<>();
+    SortedSet<Integer> protocols = new TreeSet<>();
+
+    if( bytes.length < 2 )
+    {
+      return new AnswerToReset( bytes, List.of(), Collections.emptySortedSet(),
+        new byte[ 0 ], -1, false );
+    }
+
+    int historicalLength = bytes[ 1 ] & 0x0f;
+    int y = ( bytes[ 1 ] & 0xf0 ) >>> 4;
+    int pos = 2;
+    int index = 1;
+    boolean truncated = false;
+    boolean explicitProtocol = false;
+
+    while( y != 0 )
+    {
+      int td = -1;
+      for( int bit = 0; bit < 4; bit++ )
+      {
+        if( ( y & ( 1 << bit ) ) != 0 )
+        {
+          if( pos >= bytes.length )
+          {
+            truncated = true;
+            break;
+          }
+          int value = bytes[ pos++ ] & 0xff;
+          interfaceBytes.add( new InterfaceByte( "ABCD".charAt( bit ),
+            index, value ) );
+          if( bit == 3 )
+          {
+            td = value;
+          }
+        }
+      }
+
+      if( td < 0 || truncated )
+      {
+        break;
+      }
+
+      protocols.add( td & 0x0f );
+      explicitProtocol = true;
+      y = ( td & 0xf0 ) >>> 4;
+      index++;
+    }
+
+    if( !explicitProtocol )
+    {
+      // no TD1: T=0 is implied
+      protocols.add( 0 );
+    }
+
+    int historicalEnd = Math.min( bytes.length, pos + historicalLength );
+    byte[] historicalBytes = Arrays.copyOfRange( bytes,
+      Math.min( pos, bytes.length ), historicalEnd );
+    truncated |= historicalBytes.length < historicalLength;
+    pos = historicalEnd;
+
+    // TCK is present unless only T=0 is indicated
+    boolean tckExpected = !( protocols.size() == 1 && protocols.first() == 0 );
+    int tck = -1;
+    boolean valid = !truncated;
+
+    if( tckExpected )
+    {
+      if( pos < bytes.length )
+      {
+        tck = bytes[ pos ] & 0xff;
+        int check = 0;
+        for( int i = 1; i <= pos; i++ )
+        {
+          check ^= bytes[ i ] & 0xff;
+        }
+        valid &= check == 0;
+      }
+      else
+      {
+        valid = false;
+      }
+    }
+
+    return new AnswerToReset( bytes, List.copyOf( interfaceBytes ),
+      Collections.unmodifiableSortedSet( protocols ), historicalBytes, tck,
+      valid );
+  }
+
+  public byte[] getBytes()
+  {
+    return bytes.clone();
+  }
+
+  /**
+   * Initial character, {@code 3B} direct or {@code 3F} inverse convention.
+   */
+  public int getTs()
+  {
+    return bytes.length > 0 ? bytes[ 0 ] & 0xff : -1;
+  }
+
+  public List<InterfaceByte> getInterfaceBytes()
+  {
+    return interfaceBytes;
+  }
+
+  /**
+   * @return the value of e.g. {@code TA1}, or {@code -1} if absent
+   */
+  public int getInterfaceByte( char type, int index )
+  {
+    for( InterfaceByte b : interfaceBytes )
+    {
+      if( b.type() == type && b.index() == index )
+      {
+        return b.value();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Protocols offered by the card, {@code 0} for T=0, {@code 1} for T=1.
+   */
+  public SortedSet<Integer> getProtocols()
+  {
+    return protocols;
+  }
+
+  public byte[] getHistoricalBytes()
+  {
+    return historicalBytes.clone();
+  }
+
+  /**
+   * @return the check byte, {@code -1} if absent
+   */
+  public int getTck()
+  {
+    return tck;
+  }
+
+  public boolean isValid()
+  {
+    return valid;
+  }
+
+  /**
+   * Whether the historical bytes carry PC/SC part 3 storage card
+   * information, i.e. the card is a contactless storage card presented
+   * by a PC/SC reader.
+   */
+  public boolean isPcscStorageCard()
+  {
+    return historicalBytes.length >= 11
+      && ( historicalBytes[ 0 ] & 0xff ) == 0x80
+      && ( historicalBytes[ 1 ] & 0xff ) == 0x4F
+      && Arrays.equals( historicalBytes, 3, 8, PCSC_RID, 0, PCSC_RID.length );
+  }
+
+  /**
+   * PC/SC part 3 standard byte, {@code -1} if not a storage card.
+   */
+  public int getPcscStandard()
+  {
+    return isPcscStorageCard() ? historicalBytes[ 8 ] & 0xff : -1;
+  }
+
+  /**
+   * PC/SC part 3 card name code, {@code -1} if not a storage card.
+   */
+  public int getPcscCardName()
+  {
+    return isPcscStorageCard()
+      ? ( ( historicalBytes[ 9 ] & 0xff ) << 8 ) | ( historicalBytes[ 10 ] & 0xff )
+      : -1;
+  }
+
+  /**
+   * Human readable card name from the PC/SC part 3 information, or
+   * {@code null} if unknown.
+   */
+  public String getCardName()
+  {
+    String name = CARD_NAMES.get( getPcscCardName() );
+    if( name == null && isPcscStorageCard() )
+    {
+      name = String.format( "PC/SC storage card %04X (%s)", getPcscCardName(),
+        STANDARDS.getOrDefault( getPcscStandard(), "unknown standard" ) );
+    }
+    return name;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "AnswerToReset[" + interfaceBytes + ", protocols=" + protocols
+      + ", historical=" + historicalBytes.length + " bytes, valid=" + valid
+      + "]";
+  }
+
+  private static final byte[] PCSC_RID =
+  {
+    (byte) 0xA0, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x06
+  };
+
+  private static final Map<Integer, String> STANDARDS = Map.of(
+    0x03, "ISO 14443 A, part 3",
+    0x11, "FeliCa" );
+
+  private static final Map<Integer, String> CARD_NAMES = Map.of(
+    0x0001, "MIFARE Classic 1K",
+    0x0002, "MIFARE Classic 4K",
+    0x0003, "MIFARE Ultralight",
+    0x0026, "MIFARE Mini",
+    0x003A, "MIFARE Ultralight C",
+    0xF004, "Topaz/Jewel",
+    0xF011, "FeliCa 212K",
+    0xF012, "FeliCa 424K" );
+
+  private final byte[] bytes;
+
+  private final List<InterfaceByte> interfaceBytes;
+
+  private final SortedSet<Integer> protocols;
+
+  private final byte[] historicalBytes;
+
+  private final int tck;
+
+  private final boolean valid;
+
+}
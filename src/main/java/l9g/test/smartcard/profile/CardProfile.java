@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.profile;
+
+/**
+ * What has been learned about a card family, identified by its ATR.
+ *
+ * @param atr the ATR as hex string
+ * @param protocol the protocol the card has been connected with,
+ * {@code T=0} or {@code T=1}
+ * @param uidStrategy how the UID is read
+ * @param cardName card name from the ATR, may be {@code null}
+ *
+ * @author th
+ */
+public record CardProfile( String atr, String protocol, UidStrategy uidStrategy,
+  String cardName )
+{
+}
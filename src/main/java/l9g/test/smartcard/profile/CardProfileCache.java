@@ -0,0 +1,274 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.profile;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Card profiles keyed by ATR, so later taps of a known card family skip
+ * protocol negotiation and use the right UID strategy right away.
+ *
+ * A reader only reveals the ATR after the card has been connected, so
+ * the protocol to connect with is predicted per reader from the profile
+ * of the card family seen last on that reader
+ * ({@link #getProtocolHint(String)}).
+ *
+ * Newly learned profiles are written to the optional profile file right
+ * away, which is read again on start. The card family seen last per
+ * reader changes on almost every tap and is only kept in memory; it is
+ * written along with the next learned profile and by {@link #flush()}
+ * on shutdown, so a tap never waits for the file.
+ * Profiles without UID ({@link UidStrategy#NONE}) read from the file are
+ * only trusted again after a tap confirmed them, until then
+ * {@link #get(String)} does not return them.
+ *
+ * @author th
+ */
+@Slf4j
+public class CardProfileCache
+{
+  /**
+   * Protocol wildcard, {@code connect( "*" )} negotiates the protocol.
+   */
+  public static final String ANY_PROTOCOL = "*";
+
+  /**
+   * In-memory cache without persistence.
+   */
+  public CardProfileCache()
+  {
+    this.file = null;
+  }
+
+  /**
+   * Cache persisted in {@code file}, existing profiles are loaded.
+   */
+  public CardProfileCache( Path file )
+    throws IOException
+  {
+    this.file = file;
+
+    if( Files.exists( file ) )
+    {
+      Properties properties = new Properties();
+      try( Reader reader = Files.newBufferedReader( file,
+        StandardCharsets.UTF_8 ) )
+      {
+        properties.load( reader );
+      }
+
+      for( String atr : properties.stringPropertyNames() )
+      {
+        if( atr.startsWith( READER_PREFIX ) )
+        {
+          lastAtrs.put( atr.substring( READER_PREFIX.length() ),
+            properties.getProperty( atr ) );
+          continue;
+        }
+
+        String[] value = properties.getProperty( atr ).split( ";", 3 );
+        try
+        {
+          CardProfile profile = new CardProfile( atr, value[ 0 ],
+            UidStrategy.valueOf( value[ 1 ] ),
+            value.length > 2 && !value[ 2 ].isEmpty() ? value[ 2 ] : null );
+          profiles.put( atr, profile );
+          if( profile.uidStrategy() == UidStrategy.NONE )
+          {
+            unconfirmed.add( atr );
+          }
+        }
+        catch( IllegalArgumentException | ArrayIndexOutOfBoundsException e )
+        {
+          log.warn( "{}: invalid profile for ATR {}", file, atr );
+        }
+      }
+
+      log.info( "Loaded {} card profiles from {}", profiles.size(), file );
+    }
+  }
+
+  /**
+   * @return the profile of the card family, {@code null} if not learned
+   * yet
+   */
+  public CardProfile get( String atr )
+  {
+    CardProfile profile = unconfirmed.contains( atr )
+      ? null : profiles.get( atr );
+    ( profile == null ? misses : hits ).increment();
+    return profile;
+  }
+
+  /**
+   * Records the profile of a card family, replacing an earlier one, and
+   * persists it if it is new or changed.
+   *
+   * Only learn {@link UidStrategy#NONE} from a definitive answer, the
+   * profile applies to every card with this ATR.
+   */
+  public CardProfile learn( String atr, String protocol,
+    UidStrategy uidStrategy, String cardName )
+  {
+    CardProfile profile = new CardProfile( atr, protocol, uidStrategy,
+      cardName );
+    CardProfile previous = profiles.put( atr, profile );
+    unconfirmed.remove( atr );
+
+    if( !profile.equals( previous ) )
+    {
+      log.info( "Learned card profile {}", profile );
+      save();
+    }
+    return profile;
+  }
+
+  /**
+   * The protocol to connect a card on {@code readerName} with: the
+   * protocol of the profile of the card family seen last on that reader,
+   * or {@link #ANY_PROTOCOL}.
+   */
+  public String getProtocolHint( String readerName )
+  {
+    String atr = lastAtrs.get( readerName );
+    CardProfile profile = atr != null ? profiles.get( atr ) : null;
+    return profile != null ? profile.protocol() : ANY_PROTOCOL;
+  }
+
+  /**
+   * Records the card family seen last on {@code readerName}, in memory
+   * only.
+   */
+  public void seen( String readerName, String atr )
+  {
+    if( !Objects.equals( lastAtrs.put( readerName, atr ), atr ) )
+    {
+      hintsChanged = true;
+    }
+  }
+
+  /**
+   * Forgets the hint after the predicted protocol did not match, in
+   * memory only.
+   */
+  public void clearProtocolHint( String readerName )
+  {
+    if( lastAtrs.remove( readerName ) != null )
+    {
+      hintsChanged = true;
+    }
+  }
+
+  /**
+   * Writes the card families seen last per reader, if they changed since
+   * the file was written last.
+   */
+  public void flush()
+  {
+    if( hintsChanged )
+    {
+      save();
+    }
+  }
+
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  public int size()
+  {
+    return profiles.size();
+  }
+
+  private synchronized void save()
+  {
+    if( file == null )
+    {
+      return;
+    }
+
+    // changes from here on are written by the next save
+    hintsChanged = false;
+
+    Properties properties = new Properties();
+    profiles.values().forEach( p -> properties.put( p.atr(), p.protocol()
+      + ";" + p.uidStrategy() + ";"
+      + ( p.cardName() == null ? "" : p.cardName() ) ) );
+    lastAtrs.forEach( ( reader, atr ) ->
+      properties.put( READER_PREFIX + reader, atr ) );
+
+    try
+    {
+      Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+      try( Writer writer = Files.newBufferedWriter( tmp,
+        StandardCharsets.UTF_8 ) )
+      {
+        properties.store( writer, "learned card profiles: ATR=protocol;uid strategy;card name, "
+          + READER_PREFIX + "<reader>=ATR seen last" );
+      }
+      Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+    }
+    catch( IOException e )
+    {
+      log.error( "ERROR: saving card profiles to {} failed: {}", file,
+        e.getMessage() );
+    }
+  }
+
+  private final Map<String, CardProfile> profiles = new ConcurrentHashMap<>();
+
+  /**
+   * Key prefix of the card family seen last per reader in the profile
+   * file, ATRs are hex strings and never start with it.
+   */
+  private static final String READER_PREFIX = "reader.";
+
+  /**
+   * ATR of the card family seen last, by reader name.
+   */
+  private final Map<String, String> lastAtrs = new ConcurrentHashMap<>();
+
+  private final Set<String> unconfirmed = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final Path file;
+
+  private volatile boolean hintsChanged;
+
+}
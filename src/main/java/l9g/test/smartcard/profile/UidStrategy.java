@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.profile;
+
+/**
+ * How the UID of a card family is read.
+ *
+ * @author th
+ */
+public enum UidStrategy
+{
+  /**
+   * PC/SC part 3 pseudo APDU GET DATA {@code FF CA 00 00 00}, answered by
+   * the reader for contactless cards.
+   */
+  GET_DATA,
+
+  /**
+   * The card has no UID the reader can report (e.g. a contact card),
+   * no APDU is sent.
+   */
+  NONE
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.recovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with "equal jitter": the n-th delay is half of
+ * {@code min( max, initial * 2^n )} plus a random share of the other
+ * half, so the readers of several hosts restarting with the same PC/SC
+ * service do not retry in lockstep.
+ *
+ * @author th
+ */
+class Backoff
+{
+  Backoff( long initialMillis, long maxMillis )
+  {
+    this.initialMillis = Math.max( 1, initialMillis );
+    this.maxMillis = Math.max( this.initialMillis, maxMillis );
+  }
+
+  /**
+   * The next delay in milliseconds.
+   */
+  long next()
+  {
+    long ceiling = Math.min( maxMillis,
+      initialMillis << Math.min( attempts, 30 ) );
+    attempts++;
+    long half = ceiling / 2;
+    return ceiling - half + ThreadLocalRandom.current().nextLong( half + 1 );
+  }
+
+  void reset()
+  {
+    attempts = 0;
+  }
+
+  /**
+   * Delays handed out since the last reset.
+   */
+  int getAttempts()
+  {
+    return attempts;
+  }
+
+  private final long initialMillis;
+
+  private final long maxMillis;
+
+  private volatile int attempts;
+
+}
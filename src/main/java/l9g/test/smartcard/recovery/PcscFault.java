@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.recovery;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a failed PC/SC call tells about the state of the system, derived
+ * from the PC/SC error code in the cause chain of the exception. Both
+ * the PC/SC provider of the JDK and the simulation put the name of the
+ * code, e.g. {@code SCARD_E_NO_SERVICE}, into the message of the cause.
+ *
+ * @author th
+ */
+public enum PcscFault
+{
+  /**
+   * The card was removed or does not respond, only the tap fails.
+   */
+  CARD,
+  /**
+   * The reader is gone, its worker is retired until it is back.
+   */
+  READER,
+  /**
+   * The PC/SC service was stopped or restarted, the context is lost and
+   * has to be rebuilt.
+   */
+  CONTEXT,
+  /**
+   * No or an unexpected PC/SC error code.
+   */
+  UNKNOWN;
+
+  public static PcscFault of( Throwable throwable )
+  {
+    String code = code( throwable );
+
+    if( code == null )
+    {
+      return UNKNOWN;
+    }
+
+    return switch( code )
+    {
+      case "SCARD_E_NO_SERVICE", "SCARD_E_SERVICE_STOPPED",
+        "SCARD_E_INVALID_HANDLE", "SCARD_E_SYSTEM_CANCELLED",
+        "SCARD_F_COMM_ERROR", "SCARD_F_INTERNAL_ERROR" ->
+        CONTEXT;
+
+      case "SCARD_E_READER_UNAVAILABLE", "SCARD_E_UNKNOWN_READER",
+        "SCARD_E_NO_READERS_AVAILABLE", "SCARD_E_READER_UNSUPPORTED" ->
+        READER;
+
+      case "SCARD_W_REMOVED_CARD", "SCARD_W_RESET_CARD",
+        "SCARD_W_UNRESPONSIVE_CARD", "SCARD_W_UNPOWERED_CARD",
+        "SCARD_W_UNSUPPORTED_CARD", "SCARD_E_NO_SMARTCARD",
+        "SCARD_E_PROTO_MISMATCH", "SCARD_E_SHARING_VIOLATION",
+        "SCARD_E_NOT_TRANSACTED", "SCARD_E_TIMEOUT" ->
+        CARD;
+
+      default ->
+        UNKNOWN;
+    };
+  }
+
+  /**
+   * The first PC/SC error code in the cause chain, or {@code null}.
+   */
+  public static String code( Throwable throwable )
+  {
+    for( Throwable t = throwable; t != null; t = t.getCause() )
+    {
+      if( t.getMessage() != null )
+      {
+        Matcher matcher = CODE.matcher( t.getMessage() );
+        if( matcher.find() )
+        {
+          return matcher.group();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static final Pattern CODE = Pattern.compile( "SCARD_[EFWS]_\\w+" );
+
+}
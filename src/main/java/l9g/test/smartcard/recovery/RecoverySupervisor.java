@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.recovery;
+
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the {@link l9g.test.smartcard.ReaderManager} supplied with a
+ * working PC/SC context.
+ *
+ * A failed reader list or change wait is classified by its
+ * {@link PcscFault}. Card and reader faults are retried with the same
+ * context. A lost context, after a pcscd restart or a stopped smart card
+ * service, is replaced by one of a new terminal factory; while the
+ * service is down, attempts are repeated with a jittered exponential
+ * backoff between {@code initialBackoff} and {@code maxBackoff}. The
+ * backoff only starts over after a successful change wait, so a context
+ * that keeps failing never loops tight.
+ *
+ * The manager then rebuilds the workers of all readers on the new
+ * context, so the first tap is served at most {@code maxBackoff} after
+ * the service is back.
+ *
+ * @author th
+ */
+@Slf4j
+public class RecoverySupervisor
+{
+  /**
+   * @param factories creates a terminal factory with a new context, e.g.
+   * {@link #newPcscFactory()}
+   */
+  public RecoverySupervisor( Callable<TerminalFactory> factories,
+    Duration initialBackoff, Duration maxBackoff )
+  {
+    this.factories = factories;
+    this.backoff = new Backoff( initialBackoff.toMillis(),
+      maxBackoff.toMillis() );
+  }
+
+  /**
+   * A new PC/SC terminal factory.
+   *
+   * The PC/SC provider of the JDK establishes one context per process on
+   * first use and keeps it, it has no way to release or replace it. A new
+   * factory goes on with that context, which survives a stopped and
+   * started smart card service as long as the service keeps it; after a
+   * pcscd restart it stays invalid and the process has to be restarted,
+   * e.g. by its service manager.
+   */
+  public static TerminalFactory newPcscFactory()
+    throws NoSuchAlgorithmException
+  {
+    return TerminalFactory.getInstance( "PC/SC", null );
+  }
+
+  /**
+   * Establishes a context, waiting as long as the service is down.
+   *
+   * @return the terminals of the new context, {@code null} after
+   * {@link #shutdown()}
+   */
+  public CardTerminals connect()
+    throws InterruptedException
+  {
+    long start = System.nanoTime();
+    int failures = 0;
+
+    while( running )
+    {
+      CardTerminals terminals = null;
+
+      try
+      {
+        terminals = factories.call().terminals();
+        // a factory does not necessarily talk to the service
+        terminals.list();
+      }
+      catch( InterruptedException e )
+      {
+        throw e;
+      }
+      catch( CardException e )
+      {
+        // any other fault is up to the manager
+        if( PcscFault.of( e ) == PcscFault.CONTEXT )
+        {
+          terminals = null;
+          failure( failures++, e );
+        }
+      }
+      catch( Exception e )
+      {
+        failure( failures++, e );
+      }
+
+      if( terminals != null )
+      {
+        if( failures > 0 )
+        {
+          log.info( "PC/SC context established after {} attempts, {} ms",
+            failures + 1, ( System.nanoTime() - start ) / 1_000_000 );
+        }
+        return terminals;
+      }
+
+      Thread.sleep( backoff.next() );
+    }
+
+    return null;
+  }
+
+  /**
+   * Decides how to go on after a failed reader list or change wait on
+   * {@code terminals}.
+   *
+   * @return the terminals to go on with, {@code null} after
+   * {@link #shutdown()}
+   */
+  public CardTerminals recover( CardTerminals terminals, CardException cause )
+    throws InterruptedException
+  {
+    PcscFault fault = PcscFault.of( cause );
+
+    if( fault == PcscFault.CARD || fault == PcscFault.READER )
+    {
+      log.warn( "PC/SC {} fault: {}", fault, PcscFault.code( cause ) );
+      Thread.sleep( backoff.next() );
+      return running ? terminals : null;
+    }
+
+    log.warn( "PC/SC context lost: {}", cause.getCause() != null
+      ? cause.getCause().getMessage() : cause.getMessage() );
+
+    if( backoff.getAttempts() > 0 )
+    {
+      // failing again without a successful wait in between
+      Thread.sleep( backoff.next() );
+    }
+
+    rebuilds.incrementAndGet();
+    return connect();
+  }
+
+  /**
+   * Called after a successful change wait, the next fault is handled
+   * without delay again.
+   */
+  public void reset()
+  {
+    if( backoff.getAttempts() > 0 )
+    {
+      backoff.reset();
+    }
+  }
+
+  public void shutdown()
+  {
+    running = false;
+  }
+
+  /**
+   * Number of contexts replaced after they got lost.
+   */
+  public long getRebuilds()
+  {
+    return rebuilds.get();
+  }
+
+  /**
+   * Number of failed attempts to establish a context.
+   */
+  public long getFailedAttempts()
+  {
+    return failedAttempts.get();
+  }
+
+  private void failure( int failures, Exception e )
+  {
+    failedAttempts.incrementAndGet();
+    if( failures == 0 )
+    {
+      String code = PcscFault.code( e );
+      log.warn( "PC/SC service unavailable: {}",
+        code != null ? code : e.getMessage() );
+    }
+  }
+
+  private final Callable<TerminalFactory> factories;
+
+  private final Backoff backoff;
+
+  private final AtomicLong rebuilds = new AtomicLong();
+
+  private final AtomicLong failedAttempts = new AtomicLong();
+
+  private volatile boolean running = true;
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author th
+ */
+public class ApduTransportTest
+{
+  @Test
+  public void maxResponseDataFitsIntoOneChainedTransmit()
+    throws Exception
+  {
+    byte[] memory = new byte[ 2048 ];
+    for( int i = 0; i < memory.length; i++ )
+    {
+      memory[ i ] = (byte) i;
+    }
+
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Reader 0" );
+    // answers with 61xx, the data is fetched in GET RESPONSE rounds
+    reader.insert( SimulatedSmartcard.builder().memory( memory )
+      .maxResponseLength( memory.length ).extendedLength( true )
+      .chainedResponses( true ).protocol( "T=0" ).build() );
+    Card card = reader.connect( "*" );
+    CardChannel channel = card.getBasicChannel();
+
+    ApduTransport transport = new ApduTransport( 261, 600 );
+    int max = transport.getMaxResponseData();
+    assertEquals( 600, max );
+
+    assertEquals( ApduTransport.SW_NO_ERROR,
+      transport.prepareExtended( 0x00, 0xB0, 0x00, 0x00, max )
+        .transmit( channel ) );
+    assertEquals( max, transport.getDataLength() );
+    assertEquals( (byte) ( max - 1 ),
+      (byte) transport.getResponseByte( max - 1 ) );
+
+    card.disconnect( true );
+  }
+
+  @Test
+  public void getResponseStaysOnTheLogicalChannel()
+    throws Exception
+  {
+    byte[] memory = new byte[ 32 ];
+    for( int i = 0; i < memory.length; i++ )
+    {
+      memory[ i ] = (byte) ( 0x40 + i );
+    }
+
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Reader 0" );
+    // the card answers 6881 to a GET RESPONSE on the wrong channel
+    reader.insert( SimulatedSmartcard.builder().memory( memory )
+      .chainedResponses( true ).protocol( "T=0" ).build() );
+    Card card = reader.connect( "T=0" );
+    CardChannel channel = card.getBasicChannel();
+    ApduTransport transport = new ApduTransport();
+
+    // basic and interindustry channels 1-3, with and without SM,
+    // further interindustry channels 4-19 with and without SM
+    int[] classes =
+    {
+      0x00, 0x01, 0x03, 0x0D, 0x1B, 0x40, 0x45, 0x4F, 0x65, 0x7F, 0x80,
+      0xC5
+    };
+    for( int cla : classes )
+    {
+      assertEquals( ApduTransport.SW_NO_ERROR,
+        transport.prepare( cla, 0xB0, 0x00, 0x02, 16 ).transmit( channel ),
+        () -> String.format( "CLA %02X", cla ) );
+      assertEquals( 16, transport.getDataLength() );
+      assertEquals( 0x42, transport.getResponseByte( 0 ) );
+      assertEquals( 0x51, transport.getResponseByte( 15 ) );
+    }
+
+    card.disconnect( true );
+  }
+
+  @Test
+  public void getResponseClassFollowsIso7816()
+  {
+    // b5 (command chaining) is always cleared
+    assertEquals( 0x00, ApduTransport.getResponseClass( 0x10 ) );
+    // channel 3, SM b4-b3 kept
+    assertEquals( 0x0F, ApduTransport.getResponseClass( 0x1F ) );
+    // channel 4 and 19
+    assertEquals( 0x40, ApduTransport.getResponseClass( 0x40 ) );
+    assertEquals( 0x4F, ApduTransport.getResponseClass( 0x5F ) );
+    // channel 9 with SM (b6)
+    assertEquals( 0x65, ApduTransport.getResponseClass( 0x75 ) );
+    // proprietary class: interindustry GET RESPONSE on the same channel
+    assertEquals( 0x02, ApduTransport.getResponseClass( 0x82 ) );
+    assertEquals( 0x47, ApduTransport.getResponseClass( 0xC7 ) );
+    assertEquals( 0x00, ApduTransport.getResponseClass( 0xFF ) );
+  }
+
+}
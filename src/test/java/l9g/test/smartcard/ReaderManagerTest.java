@@ -0,0 +1,353 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.recovery.RecoverySupervisor;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Drives the {@link ReaderManager} with a simulated terminal factory.
+ *
+ * @author th
+ */
+public class ReaderManagerTest
+{
+  @BeforeEach
+  public void setUp()
+  {
+    readers = new SimulatedReaders();
+    processor = new TapProcessor()
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        reports.computeIfAbsent( terminal.getName(),
+          name -> new LinkedBlockingQueue<>() ).add( tap );
+      }
+    };
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws InterruptedException
+  {
+    if( manager != null )
+    {
+      manager.shutdown();
+      managerThread.join( 5000 );
+    }
+  }
+
+  @Test
+  public void everyReaderIsServedByItsOwnWorker()
+    throws Exception
+  {
+    List<SimulatedCardTerminal> terminals = new ArrayList<>();
+    for( int i = 0; i < 4; i++ )
+    {
+      terminals.add( readers.attach( "Reader " + i ) );
+    }
+    start();
+    await( () -> manager.getActiveReaders().size() == 4 );
+
+    List<Thread> tappers = new ArrayList<>();
+    for( int i = 0; i < terminals.size(); i++ )
+    {
+      SimulatedCardTerminal terminal = terminals.get( i );
+      SimulatedSmartcard card = card( i );
+      tappers.add( Thread.ofVirtual().start( () ->
+      {
+        try
+        {
+          terminal.tap( card, 5000 );
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } ) );
+    }
+    for( Thread tapper : tappers )
+    {
+      tapper.join();
+    }
+
+    for( int i = 0; i < terminals.size(); i++ )
+    {
+      String tap = nextReport( "Reader " + i );
+      assertTrue( tap.contains( "Card UID: 0400000" + i ), tap );
+    }
+    assertEquals( 4, manager.getInsertions() );
+  }
+
+  @Test
+  public void slowReaderDoesNotBlockTheOthers()
+    throws Exception
+  {
+    SimulatedCardTerminal slow = readers.attach( "Slow Reader" );
+    SimulatedCardTerminal fast = readers.attach( "Fast Reader" );
+    start();
+    await( () -> manager.getActiveReaders().size() == 2 );
+
+    // the worker of the slow reader hangs in connect for 3 s
+    slow.insert( SimulatedSmartcard.builder().uid( new byte[]
+    {
+      1, 2, 3, 4
+    } ).connectNanos( TimeUnit.SECONDS.toNanos( 3 ) ).build() );
+    Thread.sleep( 100 );
+
+    long start = System.nanoTime();
+    assertTrue( fast.tap( card( 1 ), 2000 ) );
+    assertNotNull( nextReport( "Fast Reader" ) );
+    assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 2 ) );
+    assertTrue( reports.getOrDefault( "Slow Reader",
+      new LinkedBlockingQueue<>() ).isEmpty() );
+  }
+
+  @Test
+  public void hotPluggedReadersGetAndLoseWorkers()
+    throws Exception
+  {
+    readers.attach( "Reader 0" );
+    start();
+    await( () -> manager.getActiveReaders().equals( Set.of( "Reader 0" ) ) );
+
+    SimulatedCardTerminal plugged = readers.attach( "Reader 1" );
+    await( () -> manager.getActiveReaders().size() == 2 );
+    assertTrue( plugged.tap( card( 1 ), 5000 ) );
+    assertNotNull( nextReport( "Reader 1" ) );
+
+    readers.detach( "Reader 0" );
+    await( () -> manager.getActiveReaders().equals( Set.of( "Reader 1" ) ) );
+    assertEquals( 1, processor.getMetrics().reader( "Reader 0" ).getDrops() );
+  }
+
+  @Test
+  public void cardsAlreadyOnTheReaderAreServedOnce()
+    throws Exception
+  {
+    readers.attach( "Reader 0" ).insert( card( 0 ) );
+    start();
+    assertTrue( nextReport( "Reader 0" ).contains( "Card UID: 04000000" ) );
+
+    // hot-plugged with a card on it
+    SimulatedCardTerminal plugged = readers.attach( "Reader 1" );
+    plugged.insert( card( 1 ) );
+    assertTrue( nextReport( "Reader 1" ).contains( "Card UID: 04000001" ) );
+
+    Thread.sleep( 300 );
+    assertTrue( reports.get( "Reader 0" ).isEmpty() );
+    assertTrue( reports.get( "Reader 1" ).isEmpty() );
+    assertEquals( 2, manager.getInsertions() );
+  }
+
+  @Test
+  public void insertionIsServedWithoutWaitingForTheChangeTimeout()
+    throws Exception
+  {
+    SimulatedCardTerminal terminal = readers.attach( "Reader 0" );
+    start( 2000 );
+    await( () -> manager.getActiveReaders().size() == 1 );
+    // let the manager settle in its change wait
+    Thread.sleep( 100 );
+
+    long worst = 0;
+    for( int i = 0; i < 20; i++ )
+    {
+      long inserted = System.nanoTime();
+      terminal.insert( card( i ) );
+      nextReport( "Reader 0" );
+      worst = Math.max( worst, System.nanoTime() - inserted );
+      terminal.remove();
+    }
+
+    assertTrue( worst < TimeUnit.MILLISECONDS.toNanos( 200 ),
+      "tap to report latency " + worst / 1000 + " µs" );
+  }
+
+  @Test
+  public void idleWakeupsDoNotDependOnTheNumberOfReaders()
+    throws Exception
+  {
+    readers.attach( "Reader 0" );
+    long single = idleWakeups();
+    tearDown();
+
+    setUp();
+    for( int i = 0; i < 16; i++ )
+    {
+      readers.attach( "Reader " + i );
+    }
+    long many = idleWakeups();
+
+    // one wakeup per change timeout, 10 per second, with a bit of slack
+    assertTrue( single >= 8 && single <= 12, single + " idle wakeups" );
+    assertTrue( many >= 8 && many <= 12, many + " idle wakeups" );
+  }
+
+  @Test
+  public void contextLostInAWorkerIsRecovered()
+    throws Exception
+  {
+    SimulatedCardTerminal terminal = readers.attach( "Reader 0" );
+    RecoverySupervisor recovery = new RecoverySupervisor(
+      readers::createTerminalFactory, Duration.ofMillis( 10 ),
+      Duration.ofMillis( 50 ) );
+    start( new ReaderManager( recovery, processor, 100, 20 ) );
+    await( () -> manager.getActiveReaders().size() == 1 );
+
+    // the reader list still works, only the worker sees the lost context
+    readers.injectConnectFault( "SCARD_E_INVALID_HANDLE", 1 );
+    terminal.insert( card( 0 ) );
+    await( () -> processor.getMetrics().reader( "Reader 0" ).getErrors() == 1 );
+    terminal.remove();
+
+    await( () -> recovery.getRebuilds() == 1
+      && manager.getActiveReaders().size() == 1 );
+    assertTrue( terminal.tap( card( 1 ), 5000 ) );
+    assertTrue( nextReport( "Reader 0" ).contains( "Card UID: 04000001" ) );
+    assertEquals( 1, recovery.getRebuilds() );
+  }
+
+  @Test
+  public void readerFaultKeepsTheWorkers()
+    throws Exception
+  {
+    SimulatedCardTerminal terminal = readers.attach( "Reader 0" );
+    RecoverySupervisor recovery = new RecoverySupervisor(
+      readers::createTerminalFactory, Duration.ofMillis( 10 ),
+      Duration.ofMillis( 50 ) );
+    start( new ReaderManager( recovery, processor, 100, 20 ) );
+    await( () -> manager.getActiveReaders().size() == 1 );
+
+    // enough faults for the reader list to see some of them
+    readers.injectFault( "SCARD_E_READER_UNAVAILABLE", 4 );
+    Thread.sleep( 500 );
+
+    assertEquals( Set.of( "Reader 0" ), manager.getActiveReaders() );
+    assertEquals( 0, processor.getMetrics().reader( "Reader 0" ).getDrops() );
+    assertEquals( 0, recovery.getRebuilds() );
+    assertTrue( terminal.tap( card( 0 ), 5000 ) );
+    assertTrue( nextReport( "Reader 0" ).contains( "Card UID: 04000000" ) );
+  }
+
+  /**
+   * Idle wakeups of the detection loop within one second.
+   */
+  private long idleWakeups()
+    throws Exception
+  {
+    start( 100 );
+    await( () -> !manager.getActiveReaders().isEmpty() );
+    Thread.sleep( 50 );
+    long before = manager.getIdleWakeups();
+    Thread.sleep( 1000 );
+    return manager.getIdleWakeups() - before;
+  }
+
+  private void start()
+    throws Exception
+  {
+    start( 100 );
+  }
+
+  private void start( long changeTimeout )
+    throws Exception
+  {
+    start( new ReaderManager( readers.createTerminalFactory().terminals(),
+      processor, changeTimeout, 20 ) );
+  }
+
+  private void start( ReaderManager manager )
+  {
+    this.manager = manager;
+    managerThread = Thread.ofPlatform().name( "test-manager" ).start( () ->
+    {
+      try
+      {
+        manager.run();
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+    } );
+  }
+
+  private String nextReport( String reader )
+    throws InterruptedException
+  {
+    String tap = reports.computeIfAbsent( reader,
+      name -> new LinkedBlockingQueue<>() ).poll( 5, TimeUnit.SECONDS );
+    assertNotNull( tap, "no tap reported by " + reader );
+    return tap;
+  }
+
+  private static SimulatedSmartcard card( int i )
+  {
+    return SimulatedSmartcard.builder().uid( new byte[]
+    {
+      4, 0, 0, (byte) i
+    } ).build();
+  }
+
+  static void await( BooleanSupplier condition )
+    throws InterruptedException
+  {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 5 );
+    while( !condition.getAsBoolean() )
+    {
+      if( System.nanoTime() > deadline )
+      {
+        fail( "condition not met within 5 s" );
+      }
+      Thread.sleep( 10 );
+    }
+  }
+
+  private final Map<String, BlockingQueue<String>> reports =
+    new ConcurrentHashMap<>();
+
+  private SimulatedReaders readers;
+
+  private TapProcessor processor;
+
+  private ReaderManager manager;
+
+  private Thread managerThread;
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class ReaderWorkerTest
+{
+  @Test
+  public void insertionsDuringATapCollapseIntoOne()
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal terminal = readers.attach( "Reader 0" );
+    terminal.insert( SimulatedSmartcard.builder().build() );
+
+    CountDownLatch tapping = new CountDownLatch( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    AtomicInteger taps = new AtomicInteger();
+
+    TapProcessor processor = new TapProcessor()
+    {
+      @Override
+      public void process( CardTerminal terminal, ApduTransport transport,
+        long detectedAt )
+      {
+        if( taps.incrementAndGet() == 1 )
+        {
+          tapping.countDown();
+          try
+          {
+            release.await();
+          }
+          catch( InterruptedException e )
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+
+    ReaderWorker worker = new ReaderWorker(
+      readers.createTerminalFactory().terminals().list().get( 0 ),
+      processor );
+    Thread thread = Thread.ofVirtual().start( worker );
+
+    worker.cardInserted( System.nanoTime() );
+    assertTrue( tapping.await( 5, TimeUnit.SECONDS ) );
+
+    // racing signals while the first tap is in progress
+    List<Thread> signalers = new ArrayList<>();
+    for( int i = 0; i < 8; i++ )
+    {
+      signalers.add( Thread.ofPlatform().start( () ->
+      {
+        for( int j = 0; j < 1000; j++ )
+        {
+          worker.cardInserted( System.nanoTime() );
+        }
+      } ) );
+    }
+    for( Thread signaler : signalers )
+    {
+      signaler.join();
+    }
+    release.countDown();
+
+    ReaderManagerTest.await( () -> taps.get() == 2 );
+    Thread.sleep( 100 );
+    assertEquals( 2, taps.get() );
+
+    worker.stop();
+    thread.join( 5000 );
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedDirectoryService;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Runs the demo against simulated readers instead of the PC/SC readers,
+ * all other options are the ones of {@link L9gTestSmartcard}.
+ *
+ * @author th
+ */
+public class SimulatedL9gTestSmartcard
+{
+  // Number of simulated card readers.
+  private static final int SIMULATED_READERS =
+    Integer.getInteger( "l9g.smartcard.simulated", 4 );
+
+  public static void main( String[] args )
+    throws InterruptedException, IOException
+  {
+    SimulatedDirectoryService directory =
+      new SimulatedDirectoryService( Duration.ofMillis( 20 ) );
+    SimulatedReaders readers = simulatedReaders( SIMULATED_READERS, directory );
+
+    L9gTestSmartcard.run( args, readers::createTerminalFactory,
+      L9gTestSmartcard.newIdentityCache( directory ) );
+  }
+
+  /**
+   * Attaches the given number of simulated readers, each one tapped with
+   * one of a few random cards every few seconds. Three out of four cards
+   * are known to the simulated directory.
+   */
+  private static SimulatedReaders simulatedReaders( int count,
+    SimulatedDirectoryService directory )
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedSmartcard[] cards = new SimulatedSmartcard[ 16 ];
+
+    for( int i = 0; i < cards.length; i++ )
+    {
+      byte[] uid = new byte[ 4 ];
+      ThreadLocalRandom.current().nextBytes( uid );
+      cards[ i ] = SimulatedSmartcard.builder().uid( uid ).build();
+      if( i % 4 != 0 )
+      {
+        directory.put( L9gTestSmartcard.bytesToLongLittleEndian( uid ),
+          "user" + i );
+      }
+    }
+
+    for( int i = 0; i < count; i++ )
+    {
+      SimulatedCardTerminal reader = readers.attach( "Simulated Reader " + i );
+      Thread.ofVirtual().name( "tapper-" + i ).start( () ->
+      {
+        try
+        {
+          while( true )
+          {
+            Thread.sleep( ThreadLocalRandom.current().nextLong( 1000, 5000 ) );
+            reader.tap( cards[ ThreadLocalRandom.current()
+              .nextInt( cards.length ) ], 5000 );
+          }
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } );
+    }
+
+    return readers;
+  }
+
+}
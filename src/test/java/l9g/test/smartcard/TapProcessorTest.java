@@ -0,0 +1,336 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import l9g.test.smartcard.debounce.TapDebouncer;
+import l9g.test.smartcard.directory.IdentityCache;
+import l9g.test.smartcard.event.OverflowPolicy;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import l9g.test.smartcard.event.TapOutcome;
+import l9g.test.smartcard.metrics.TapMetrics;
+import l9g.test.smartcard.profile.CardProfileCache;
+import l9g.test.smartcard.profile.UidStrategy;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedDirectoryService;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Taps single cards on a simulated reader through the
+ * {@link TapProcessor}.
+ *
+ * @author th
+ */
+public class TapProcessorTest
+{
+  @BeforeEach
+  public void setUp()
+    throws Exception
+  {
+    reader = readers.attach( "Reader 0" );
+    terminal = readers.createTerminalFactory().terminals().list().get( 0 );
+    events.subscribe( new Flow.Subscriber<TapEvent>()
+    {
+      @Override
+      public void onSubscribe( Flow.Subscription subscription )
+      {
+        subscription.request( Long.MAX_VALUE );
+      }
+
+      @Override
+      public void onNext( TapEvent event )
+      {
+        published.add( event );
+      }
+
+      @Override
+      public void onError( Throwable throwable )
+      {
+      }
+
+      @Override
+      public void onComplete()
+      {
+      }
+    } );
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    events.close();
+    identityCache.close();
+  }
+
+  @Test
+  public void knownCardIsResolved()
+    throws Exception
+  {
+    directory.put( 0x04030201L, "alice" );
+
+    String tap = tap( processor( null ), SimulatedSmartcard.builder()
+      .uid( new byte[]
+      {
+        1, 2, 3, 4
+      } ).build() );
+
+    assertTrue( tap.contains( "Card UID: 01020304" ), tap );
+    assertTrue( tap.contains( "Card Serial: " + 0x04030201L ), tap );
+    assertTrue( tap.contains( "Card Identity: alice" ), tap );
+    TapEvent event = nextEvent();
+    assertEquals( TapOutcome.SUCCESS, event.outcome() );
+    assertEquals( 0x04030201L, event.serial() );
+  }
+
+  @Test
+  public void errorStatusWordHasNoSerial()
+    throws Exception
+  {
+    // an empty UID is answered with 6A81
+    String tap = tap( processor( null ),
+      SimulatedSmartcard.builder().uid( new byte[ 0 ] ).build() );
+
+    assertFalse( tap.contains( "Card Serial: 0" ), tap );
+    assertFalse( tap.contains( "Card Identity" ), tap );
+    assertEquals( 0, directory.getLookups() );
+    TapEvent event = nextEvent();
+    assertEquals( TapOutcome.NO_UID, event.outcome() );
+    assertNull( event.serial() );
+  }
+
+  @Test
+  public void failedReadIsNotLearnedForTheCardFamily()
+    throws Exception
+  {
+    CardProfileCache profileCache = new CardProfileCache();
+    TapProcessor processor = processor( profileCache );
+
+    // card pulled while the UID is read
+    tap( processor, SimulatedSmartcard.builder().uidStatus( 0x6300 ).build() );
+    assertNull( profileCache.get( ATR ) );
+
+    String tap = tap( processor, SimulatedSmartcard.builder().uid( new byte[]
+    {
+      1, 2, 3, 4
+    } ).build() );
+    assertTrue( tap.contains( "Card UID: 01020304" ), tap );
+    assertEquals( UidStrategy.GET_DATA, profileCache.get( ATR ).uidStrategy() );
+  }
+
+  @Test
+  public void unsupportedGetDataIsLearned()
+    throws Exception
+  {
+    CardProfileCache profileCache = new CardProfileCache();
+    TapProcessor processor = processor( profileCache );
+
+    tap( processor, SimulatedSmartcard.builder().uidStatus( 0x6D00 ).build() );
+    assertEquals( UidStrategy.NONE, profileCache.get( ATR ).uidStrategy() );
+
+    String tap = tap( processor, SimulatedSmartcard.builder().build() );
+    assertTrue( tap.contains( "Card UID: <none>" ), tap );
+  }
+
+  @Test
+  public void learnedProtocolIsUsedAfterRestart( @TempDir Path dir )
+    throws Exception
+  {
+    Path file = dir.resolve( "profiles.properties" );
+    // negotiating the protocol takes 1 s
+    SimulatedSmartcard card = SimulatedSmartcard.builder().protocol( "T=0" )
+      .negotiationNanos( TimeUnit.SECONDS.toNanos( 1 ) ).build();
+
+    CardProfileCache profileCache = new CardProfileCache( file );
+    tap( processor( profileCache ), card );
+    // the reader hint is written on shutdown, not per tap
+    assertEquals( CardProfileCache.ANY_PROTOCOL,
+      new CardProfileCache( file ).getProtocolHint( "Reader 0" ) );
+    profileCache.flush();
+
+    CardProfileCache restarted = new CardProfileCache( file );
+    assertEquals( "T=0", restarted.getProtocolHint( "Reader 0" ) );
+    long start = System.nanoTime();
+    String tap = tap( processor( restarted ), card );
+    assertTrue( System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos( 500 ),
+      "protocol negotiated again" );
+    assertTrue( tap.contains( "Card Protocol: T=0" ), tap );
+  }
+
+  @Test
+  public void savedNoUidProfileIsProbedAgain( @TempDir Path dir )
+    throws Exception
+  {
+    Path file = dir.resolve( "profiles.properties" );
+    new CardProfileCache( file ).learn( ATR, "T=1", UidStrategy.NONE, null );
+
+    CardProfileCache profileCache = new CardProfileCache( file );
+    String tap = tap( processor( profileCache ), SimulatedSmartcard.builder()
+      .uid( new byte[]
+      {
+        1, 2, 3, 4
+      } ).build() );
+
+    assertTrue( tap.contains( "Card UID: 01020304" ), tap );
+    assertEquals( UidStrategy.GET_DATA, profileCache.get( ATR ).uidStrategy() );
+  }
+
+  @Test
+  public void failedConnectIsRecordedAsFlightEvent( @TempDir Path dir )
+    throws Exception
+  {
+    Path dump = dir.resolve( "taps.jfr" );
+
+    try( Recording recording = new Recording() )
+    {
+      recording.enable( "l9g.smartcard.Tap" );
+      recording.start();
+      // no card on the reader, connect fails
+      assertThrows( CardException.class,
+        () -> processor( null ).process( terminal, transport ) );
+      recording.stop();
+      recording.dump( dump );
+    }
+
+    List<RecordedEvent> recorded = RecordingFile.readAllEvents( dump );
+    assertEquals( 1, recorded.size() );
+    assertEquals( "Reader 0", recorded.get( 0 ).getString( "reader" ) );
+    assertFalse( recorded.get( 0 ).getBoolean( "success" ) );
+  }
+
+  @Test
+  public void debouncerSuppressesRepeatedSerialsOnly()
+    throws Exception
+  {
+    TapProcessor processor = processor( null, new TapDebouncer(
+      Duration.ofMinutes( 1 ), Duration.ofMinutes( 1 ), 64 ) );
+    SimulatedSmartcard card = SimulatedSmartcard.builder().uid( new byte[]
+    {
+      1, 2, 3, 4
+    } ).build();
+
+    tap( processor, card );
+    reader.insert( card );
+    processor.process( terminal, transport );
+    reader.remove();
+    assertNull( reports.poll(), "repeated tap reported" );
+
+    // cards without a serial must not collapse into one
+    SimulatedSmartcard empty =
+      SimulatedSmartcard.builder().uid( new byte[ 0 ] ).build();
+    tap( processor, empty );
+    tap( processor, empty );
+  }
+
+  private TapProcessor processor( CardProfileCache profileCache )
+  {
+    return processor( profileCache, null );
+  }
+
+  private TapProcessor processor( CardProfileCache profileCache,
+    TapDebouncer debouncer )
+  {
+    return new TapProcessor( identityCache, profileCache, new TapMetrics(),
+      events, debouncer )
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        reports.add( tap );
+      }
+    };
+  }
+
+  /**
+   * Places the card on the reader, processes the tap and takes the card
+   * off again.
+   *
+   * @return the reported tap
+   */
+  private String tap( TapProcessor processor, SimulatedSmartcard card )
+    throws Exception
+  {
+    reader.insert( card );
+    try
+    {
+      processor.process( terminal, transport );
+    }
+    finally
+    {
+      reader.remove();
+    }
+    String tap = reports.poll();
+    assertNotNull( tap, "tap not reported" );
+    return tap;
+  }
+
+  private TapEvent nextEvent()
+    throws InterruptedException
+  {
+    TapEvent event = published.poll( 5, TimeUnit.SECONDS );
+    assertNotNull( event, "no tap event published" );
+    return event;
+  }
+
+  private static final String ATR =
+    UidCodec.toHex( SimulatedSmartcard.ATR_MIFARE_CLASSIC_1K );
+
+  private final SimulatedReaders readers = new SimulatedReaders();
+
+  private final SimulatedDirectoryService directory =
+    new SimulatedDirectoryService( Duration.ZERO );
+
+  private final IdentityCache identityCache = new IdentityCache( directory,
+    1000, Duration.ofHours( 1 ), Duration.ofMinutes( 1 ),
+    Duration.ofMinutes( 45 ) );
+
+  private final TapEventPublisher events =
+    new TapEventPublisher( 1024, OverflowPolicy.BLOCK );
+
+  private final BlockingQueue<TapEvent> published = new LinkedBlockingQueue<>();
+
+  private final BlockingQueue<String> reports = new LinkedBlockingQueue<>();
+
+  private final ApduTransport transport = new ApduTransport();
+
+  private SimulatedCardTerminal reader;
+
+  private CardTerminal terminal;
+
+}
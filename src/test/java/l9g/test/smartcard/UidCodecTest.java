@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class UidCodecTest
+{
+  @Test
+  public void hexRoundTrip()
+  {
+    byte[] uid =
+    {
+      0x04, (byte) 0xA1, (byte) 0xB2, (byte) 0xC3, (byte) 0xD4, (byte) 0xE5,
+      (byte) 0xFF
+    };
+    String hex = UidCodec.toHex( uid );
+    assertEquals( "04A1B2C3D4E5FF", hex );
+
+    byte[] decoded = new byte[ 9 ];
+    assertEquals( 7, UidCodec.decodeHex( "xx" + hex.toLowerCase(), 2,
+      hex.length(), decoded, 1 ) );
+    assertArrayEquals( uid, Arrays.copyOfRange( decoded, 1, 8 ) );
+
+    // out of a response buffer, at an offset
+    assertEquals( "A1B2", UidCodec.encodeHex( ByteBuffer.wrap( uid ), 1, 2,
+      new StringBuilder() ).toString() );
+    char[] chars = new char[ 6 ];
+    assertEquals( 6, UidCodec.encodeHex( uid, 4, 2, chars, 2 ) );
+    assertEquals( "D4E5", new String( chars, 2, 4 ) );
+  }
+
+  @Test
+  public void longConversionsKeepTheByteOrder()
+  {
+    byte[] uid =
+    {
+      (byte) 0xFF, 0x01, 0x02, 0x03, 0x04, (byte) 0x80
+    };
+
+    assertEquals( 0x01020304L, UidCodec.toLongBigEndian( uid, 1, 4 ) );
+    assertEquals( 0x04030201L, UidCodec.toLongLittleEndian( uid, 1, 4 ) );
+    assertEquals( 0x01020304L,
+      UidCodec.toLongBigEndian( ByteBuffer.wrap( uid ), 1, 4 ) );
+    assertEquals( 0x04030201L,
+      UidCodec.toLongLittleEndian( ByteBuffer.wrap( uid ), 1, 4 ) );
+    // no sign extension of bytes >= 0x80
+    assertEquals( 0x0480L, UidCodec.toLongBigEndian( uid, 4, 2 ) );
+    assertEquals( 0xFF01L, UidCodec.toLongBigEndian( uid, 0, 2 ) );
+
+    byte[] eight =
+    {
+      (byte) 0x80, 0, 0, 0, 0, 0, 0, 1
+    };
+    assertEquals( 0x8000000000000001L,
+      UidCodec.toLongBigEndian( eight, 0, 8 ) );
+    assertEquals( 0x0100000000000080L,
+      UidCodec.toLongLittleEndian( eight, 0, 8 ) );
+  }
+
+  @Test
+  public void tripleSizeUidHasNoSerial()
+  {
+    byte[] uid = new byte[ UidCodec.UID_TRIPLE_SIZE ];
+
+    assertFalse( UidCodec.fitsSerial( uid.length ) );
+    assertThrows( ArithmeticException.class,
+      () -> UidCodec.toLongBigEndian( uid, 0, uid.length ) );
+    assertThrows( ArithmeticException.class,
+      () -> UidCodec.toLongLittleEndian( uid, 0, uid.length ) );
+    assertThrows( ArithmeticException.class,
+      () -> UidCodec.toLongLittleEndian( ByteBuffer.wrap( uid ), 0, 9 ) );
+  }
+
+  @Test
+  public void invalidLengthsAreRejected()
+  {
+    assertTrue( UidCodec.isValidUidLength( 4 ) );
+    assertTrue( UidCodec.isValidUidLength( 7 ) );
+    assertTrue( UidCodec.isValidUidLength( 10 ) );
+    assertFalse( UidCodec.isValidUidLength( 0 ) );
+    assertFalse( UidCodec.isValidUidLength( 5 ) );
+    assertFalse( UidCodec.isValidUidLength( 8 ) );
+    assertFalse( UidCodec.fitsSerial( 0 ) );
+    assertTrue( UidCodec.fitsSerial( 8 ) );
+
+    byte[] dst = new byte[ 4 ];
+    assertThrows( IllegalArgumentException.class,
+      () -> UidCodec.decodeHex( "ABC", 0, 3, dst, 0 ) );
+    assertThrows( IllegalArgumentException.class,
+      () -> UidCodec.decodeHex( "0G", 0, 2, dst, 0 ) );
+    assertThrows( IllegalArgumentException.class,
+      () -> UidCodec.decodeHex( "0ä", 0, 2, dst, 0 ) );
+    assertThrows( IndexOutOfBoundsException.class,
+      () -> UidCodec.decodeHex( "0102030405", 0, 10, dst, 0 ) );
+    assertThrows( IndexOutOfBoundsException.class,
+      () -> UidCodec.toLongBigEndian( dst, 2, 4 ) );
+    assertThrows( IndexOutOfBoundsException.class,
+      () -> UidCodec.encodeHex( dst, 0, 4, new char[ 7 ], 0 ) );
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.apdu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Looks up commands in small tables built by {@link ApduIndex#load}.
+ *
+ * @author th
+ */
+public class ApduIndexTest
+{
+  @Test
+  public void everyListedClassKeepsItsOwnRows()
+    throws Exception
+  {
+    // 200 classes, more slots than a byte index holds
+    StringBuilder table = new StringBuilder();
+    for( int cla = 0; cla < 200; cla++ )
+    {
+      table.append( row( String.format( "%02X 10 xx xx", cla ),
+        "CLASS " + cla ) );
+    }
+    ApduIndex index = load( table.toString() );
+
+    for( int cla = 0; cla < 200; cla++ )
+    {
+      ApduDefinition definition = index.lookup( cla, 0x10, 0, 0 );
+      assertNotNull( definition, "CLA " + cla );
+      assertEquals( "CLASS " + cla, definition.getName() );
+    }
+  }
+
+  @Test
+  public void listedClassFallsBackToItsClearedClass()
+    throws Exception
+  {
+    ApduIndex index = load( row( "80 0D xx xx", "VERIFY TRANSPORT CODE" )
+      + row( "84 82 00 00", "EXTERNAL AUTHENTICATE" )
+      + row( "   A4 xx xx", "SELECT" ) );
+
+    assertEquals( "EXTERNAL AUTHENTICATE",
+      index.lookup( 0x84, 0x82, 0x00, 0x00 ).getName() );
+    // only listed for 0x80, secure messaging set in 0x84
+    assertEquals( "VERIFY TRANSPORT CODE",
+      index.lookup( 0x84, 0x0D, 0x12, 0x34 ).getName() );
+    assertEquals( "VERIFY TRANSPORT CODE",
+      index.lookup( 0x8C, 0x0D, 0x12, 0x34 ).getName() );
+    assertEquals( "SELECT", index.lookup( 0x84, 0xA4, 0x04, 0x00 ).getName() );
+    assertNull( index.lookup( 0x80, 0x82, 0x00, 0x00 ) );
+    assertTrue( index.getMaxCandidates() >= 2 );
+  }
+
+  private static String row( String header, String name )
+  {
+    return "| " + header + " | ISO 7816-4 | " + name + " |\n";
+  }
+
+  private static ApduIndex load( String commands )
+    throws IOException
+  {
+    return ApduIndex.load( new BufferedReader( new StringReader( commands ) ),
+      new BufferedReader( new StringReader( "9000;No error\n" ) ) );
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.apdu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author th
+ */
+public class ApduTraceDecoderTest
+{
+  @BeforeEach
+  public void setUp()
+    throws IOException
+  {
+    index = ApduIndex.load( new BufferedReader( new StringReader(
+      row( "00 44 xx xx", "ACTIVATE FILE" )
+      + row( "00 A4 xx xx", "SELECT" )
+      + row( "00 B0 xx xx", "READ BINARY" )
+      + row( "00 D6 xx xx", "UPDATE BINARY" ) ) ),
+      new BufferedReader( new StringReader( "9000;No error\n"
+        + "6A82;File not found\n"
+        + "63Cx;Verification failed\n" ) ) );
+    decoder = new ApduTraceDecoder( index );
+  }
+
+  @Test
+  public void shortApdus()
+  {
+    // case 1
+    assertCommand( "> 00 44 00 00", "ACTIVATE FILE" );
+    // case 2, no blanks
+    assertCommand( ">00B000000A", "READ BINARY" );
+    assertResponse( "< 00 01 02 03 04 05 06 07 08 09 90 00",
+      "No error (READ BINARY)" );
+    // case 3
+    assertCommand( "> 00 A4 04 0C 07 A0 00 00 00 03 10 10", "SELECT" );
+    assertResponse( "< 6A 82", "File not found (SELECT)" );
+    // case 4
+    assertCommand( "> 00 A4 04 00 07 A0000000031010 00", "SELECT" );
+    assertResponse( "<6F10840E315041592E5359532E4444463031A5009000",
+      "No error (SELECT)" );
+  }
+
+  @Test
+  public void extendedApdus()
+  {
+    // case 2E
+    assertCommand( "> 00 B0 00 00 00 01 00", "READ BINARY" );
+    assertResponse( "< " + "AA ".repeat( 256 ) + "90 00",
+      "No error (READ BINARY)" );
+    // case 3E
+    assertCommand( "> 00 D6 00 00 00 01 00 " + "55 ".repeat( 256 ),
+      "UPDATE BINARY" );
+    assertResponse( "< 90 00", "No error (UPDATE BINARY)" );
+    // case 4E, tabs
+    assertCommand( ">\t00\tA4 04 00 00 00 07 A0 00 00 00 03 10 10 00 00",
+      "SELECT" );
+    assertResponse( "< 90\t00", "No error (SELECT)" );
+  }
+
+  @Test
+  public void unknownStatusWordsAndCommands()
+  {
+    assertCommand( "> 00 B0 00 00 10", "READ BINARY" );
+    assertResponse( "< 6F 00", "Unknown status (READ BINARY)" );
+
+    // wildcard status word
+    assertResponse( "< 63 C2", "Verification failed" );
+
+    // unknown command, the next response has no command name
+    StringBuilder out = new StringBuilder();
+    assertNull( decoder.decodeLine( "> 80 CA 9F 7F 00", out ) );
+    assertEquals( "> 80 CA 9F 7F 00", out.toString() );
+    assertResponse( "< 91 AF", "Unknown status" );
+  }
+
+  @Test
+  public void malformedAndOtherLinesPassThrough()
+  {
+    for( String line : new String[]
+    {
+      "", "# comment", "> 00 A4 04", "> 00 G4 04 00", "< 9", "< 90 0G",
+      "00 A4 04 00"
+    } )
+    {
+      StringBuilder out = new StringBuilder();
+      assertNull( decoder.decodeLine( line, out ), line );
+      assertEquals( line, out.toString() );
+    }
+  }
+
+  @Test
+  public void wholeTraceWithLongLines()
+    throws IOException
+  {
+    String data = "55 ".repeat( 300 );
+    String trace = "> 00 D6 00 00 00 01 2C " + data + "\n"
+      + "< 90 00\n"
+      + "\n";
+    StringWriter out = new StringWriter();
+
+    assertEquals( 3, decoder.decode(
+      new BufferedReader( new StringReader( trace ) ), out ) );
+    assertEquals( "> 00 D6 00 00 00 01 2C " + data + "  # "
+      + index.lookup( 0x00, 0xD6, 0x00, 0x00 ) + "\n"
+      + "< 90 00  # No error (UPDATE BINARY)\n"
+      + "\n", out.toString() );
+  }
+
+  private void assertCommand( String line, String name )
+  {
+    StringBuilder out = new StringBuilder();
+    ApduDefinition definition = decoder.decodeLine( line, out );
+    assertEquals( name, definition.getName(), line );
+    assertEquals( line + "  # " + definition, out.toString() );
+  }
+
+  private void assertResponse( String line, String annotation )
+  {
+    StringBuilder out = new StringBuilder();
+    decoder.decodeLine( line, out );
+    assertEquals( line + "  # " + annotation, out.toString() );
+  }
+
+  private static String row( String header, String name )
+  {
+    return "| " + header + " | ISO 7816-4 | " + name + " |\n";
+  }
+
+  private ApduIndex index;
+
+  private ApduTraceDecoder decoder;
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.batch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import l9g.test.smartcard.ApduTransport;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class ApduBatchEngineTest
+{
+  @Test
+  public void extendedLeReadsInOneApdu()
+    throws Exception
+  {
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .memory( MEMORY ).maxResponseLength( MEMORY.length )
+      .extendedLength( true ).build();
+    ApduScript script = ApduScript.builder()
+      .readBinary( "read", 0, MEMORY.length ).build();
+
+    BatchResult result = execute( smartcard, true, script );
+
+    assertTrue( result.success() );
+    assertEquals( 1, result.apdus() );
+    assertEquals( MEMORY.length, result.bytesRead() );
+    assertEquals( 4096, result.chunkSize() );
+    assertArrayEquals( MEMORY, output );
+  }
+
+  @Test
+  public void wrongLengthHalvesTheChunk()
+    throws Exception
+  {
+    // no extended length, at most 200 bytes per response
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .memory( MEMORY ).maxResponseLength( 200 ).build();
+    ApduScript script = ApduScript.builder()
+      .readBinary( "read", 0, MEMORY.length ).build();
+
+    BatchResult result = execute( smartcard, true, script );
+
+    // 2048 (the whole range), 1024, 512 and the short 256 are refused
+    // before 16 reads of 128 bytes
+    assertTrue( result.success() );
+    assertEquals( 128, result.chunkSize() );
+    assertEquals( 4 + 16, result.apdus() );
+    assertEquals( MEMORY.length, result.bytesRead() );
+    assertArrayEquals( MEMORY, output );
+  }
+
+  @Test
+  public void wrongLengthOfTheLastChunkHalvesThatChunk()
+    throws Exception
+  {
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .memory( MEMORY ).maxResponseLength( 100 ).build();
+    // the 160 bytes wanted are less than the 256 byte chunk: the refused
+    // 160, not the chunk, is halved
+    ApduScript script = ApduScript.builder()
+      .readBinary( "read", 0, 160 ).build();
+
+    BatchResult result = execute( smartcard, false, script );
+
+    assertTrue( result.success() );
+    assertEquals( 80, result.chunkSize() );
+    assertEquals( 1 + 2, result.apdus() );
+    assertEquals( 160, result.bytesRead() );
+    assertArrayEquals( Arrays.copyOf( MEMORY, 160 ), output );
+  }
+
+  @Test
+  public void wrongLengthDownToOneByteEndsTheRead()
+    throws Exception
+  {
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .memory( MEMORY ).maxResponseLength( 0 ).build();
+    ApduScript script = ApduScript.builder()
+      .readBinary( "read", 0, 4 ).build();
+
+    BatchResult result = execute( smartcard, false, script );
+
+    // 4, 2, 1
+    assertFalse( result.success() );
+    assertEquals( 0x6700, result.lastSw() );
+    assertEquals( 3, result.apdus() );
+    assertEquals( 0, result.bytesRead() );
+  }
+
+  @Test
+  public void endOfFileEndsTheReadEarly()
+    throws Exception
+  {
+    byte[] memory = Arrays.copyOf( MEMORY, 100 );
+    ApduScript script = ApduScript.builder()
+      .readBinary( "read", 0, 1000 ).build();
+
+    // the data left and 6282
+    BatchResult result = execute( SimulatedSmartcard.builder()
+      .memory( memory ).build(), false, script );
+    assertTrue( result.success() );
+    assertEquals( 0x6282, result.lastSw() );
+    assertEquals( 1, result.apdus() );
+    assertArrayEquals( memory, output );
+
+    // 6Cxx, answered by the transport, then 6B00
+    result = execute( SimulatedSmartcard.builder().memory( memory )
+      .exactLength( true ).build(), false, script );
+    assertTrue( result.success() );
+    assertEquals( 0x6B00, result.lastSw() );
+    assertEquals( 2, result.apdus() );
+    assertEquals( 256, result.chunkSize() );
+    assertArrayEquals( memory, output );
+
+    // offset beyond the end
+    result = execute( SimulatedSmartcard.builder().memory( memory ).build(),
+      false, ApduScript.builder().readBinary( "read", 200, 10 ).build() );
+    assertTrue( result.success() );
+    assertEquals( 0x6B00, result.lastSw() );
+    assertEquals( 0, result.bytesRead() );
+  }
+
+  @Test
+  public void rulesControlTheSteps()
+    throws Exception
+  {
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .memory( MEMORY ).build();
+
+    // GOTO skips a step, STOP ends before the last one
+    BatchResult result = execute( smartcard, false, ApduScript.builder()
+      .command( "select", 0x00, 0xA4, 0x00, 0x0C, new byte[]
+      {
+        0x3F, 0x00
+      }, -1 )
+      .on( 0x9000, ApduStep.Action.GOTO, "read" )
+      .command( "unsupported", 0x00, 0x20, 0x00, 0x00, -1 )
+      .readBinary( "read", 0, 16 )
+      .on( 0x9000, ApduStep.Action.STOP, null )
+      .command( "never", 0x00, 0x20, 0x00, 0x00, -1 )
+      .build() );
+    assertTrue( result.success() );
+    assertEquals( "read", result.lastStep() );
+    assertEquals( 2, result.apdus() );
+    assertArrayEquals( Arrays.copyOf( MEMORY, 16 ), output );
+
+    // without a rule anything but 9000 aborts
+    result = execute( smartcard, false, ApduScript.builder()
+      .command( "unsupported", 0x00, 0x20, 0x00, 0x00, -1 )
+      .command( "never", 0x00, 0xA4, 0x00, 0x0C, -1 )
+      .build() );
+    assertFalse( result.success() );
+    assertEquals( "unsupported", result.lastStep() );
+    assertEquals( 0x6D00, result.lastSw() );
+    assertEquals( 1, result.apdus() );
+
+    // a masked NEXT rule goes on, an ABORT rule ends a 9000 step
+    result = execute( smartcard, false, ApduScript.builder()
+      .command( "unsupported", 0x00, 0x20, 0x00, 0x00, -1 )
+      .on( 0x6D00, 0xff00, ApduStep.Action.NEXT, null )
+      .command( "select", 0x00, 0xA4, 0x00, 0x0C, -1 )
+      .on( 0x9000, ApduStep.Action.ABORT, null )
+      .command( "never", 0x00, 0xA4, 0x00, 0x0C, -1 )
+      .build() );
+    assertFalse( result.success() );
+    assertEquals( "select", result.lastStep() );
+    assertEquals( 0x9000, result.lastSw() );
+    assertEquals( 2, result.apdus() );
+
+    // a GOTO loop is cut off
+    result = execute( smartcard, false, ApduScript.builder()
+      .command( "loop", 0x00, 0xA4, 0x00, 0x0C, -1 )
+      .on( 0x9000, ApduStep.Action.GOTO, "loop" )
+      .build() );
+    assertFalse( result.success() );
+    assertEquals( 1024, result.apdus() );
+  }
+
+  @Test
+  public void commandResponseDataIsCollected()
+    throws Exception
+  {
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder().build();
+
+    BatchResult result = execute( smartcard, false, ApduScript.builder()
+      .command( "uid", 0xFF, 0xCA, 0x00, 0x00, 0 )
+      .command( "select", 0x00, 0xA4, 0x00, 0x0C, -1 )
+      .build() );
+
+    assertTrue( result.success() );
+    assertEquals( 2, result.apdus() );
+    assertArrayEquals( smartcard.getUid(), output );
+
+    // output buffer too small, exclusive access is released anyway
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Reader 0" );
+    reader.insert( SimulatedSmartcard.builder().memory( MEMORY ).build() );
+    Card card = reader.connect( "*" );
+    ApduBatchEngine engine = new ApduBatchEngine( new ApduTransport(),
+      false );
+    assertThrows( IllegalArgumentException.class,
+      () -> engine.execute( card, ApduScript.builder()
+        .readBinary( "read", 0, 16 ).build(), ByteBuffer.allocate( 8 ) ) );
+    card.beginExclusive();
+    card.endExclusive();
+    card.disconnect( true );
+  }
+
+  private BatchResult execute( SimulatedSmartcard smartcard,
+    boolean extendedLength, ApduScript script )
+    throws CardException
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Reader 0" );
+    reader.insert( smartcard );
+    Card card = reader.connect( "*" );
+
+    ApduBatchEngine engine = new ApduBatchEngine(
+      new ApduTransport( 261, 4096 ), extendedLength );
+    ByteBuffer buffer = ByteBuffer.allocate( 8192 );
+    BatchResult result = engine.execute( card, script, buffer );
+    card.disconnect( true );
+
+    buffer.flip();
+    output = new byte[ buffer.remaining() ];
+    buffer.get( output );
+    assertEquals( output.length, result.bytesRead() );
+    return result;
+  }
+
+  private static final byte[] MEMORY = new byte[ 2048 ];
+
+  static
+  {
+    for( int i = 0; i < MEMORY.length; i++ )
+    {
+      MEMORY[ i ] = (byte) ( i * 7 );
+    }
+  }
+
+  private byte[] output;
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import l9g.test.smartcard.UidCodec;
+import l9g.test.smartcard.apdu.ApduIndex;
+import l9g.test.smartcard.apdu.ApduTraceDecoder;
+
+/**
+ * Measures APDU index lookups and decodes a generated trace file.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.ApduTraceBenchmark -Dexec.args=1000000
+ * </pre>
+ *
+ * The optional argument is the number of command/response pairs in the
+ * trace (default 1000000).
+ *
+ * @author th
+ */
+public class ApduTraceBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int exchanges = args.length > 0 ? Integer.parseInt( args[ 0 ] )
+      : 1_000_000;
+
+    long start = System.nanoTime();
+    ApduIndex index = ApduIndex.getDefault();
+    System.out.printf( "index: %d patterns, at most %d compares per lookup,"
+      + " built in %.1f ms%n", index.getCommandCount(),
+      index.getMaxCandidates(), ( System.nanoTime() - start ) / 1e6 );
+
+    byte[][] headers = new byte[ 1024 ][];
+    for( int i = 0; i < headers.length; i++ )
+    {
+      headers[ i ] = randomCommand();
+    }
+    int[] next = new int[ 1 ];
+
+    Bench.run( "ApduIndex.lookup", 10_000_000, () ->
+      Bench.consume( index.lookup( headers[ next[ 0 ]++ & 1023 ], 0 ) ) );
+
+    Bench.run( "ApduIndex.lookupStatus", 10_000_000, () ->
+      Bench.consume( index.lookupStatus( STATUS_WORDS[ next[ 0 ]++
+        % STATUS_WORDS.length ] ) ) );
+
+    String[] lines = new String[ 1024 ];
+    for( int i = 0; i < lines.length; i += 2 )
+    {
+      lines[ i ] = commandLine( headers[ i ] );
+      lines[ i + 1 ] = responseLine();
+    }
+    ApduTraceDecoder decoder = new ApduTraceDecoder( index );
+    StringBuilder out = new StringBuilder( 256 );
+
+    Bench.run( "ApduTraceDecoder.decodeLine", 1_000_000, () ->
+    {
+      out.setLength( 0 );
+      Bench.consume( decoder.decodeLine( lines[ next[ 0 ]++ & 1023 ], out ) );
+    } );
+
+    Bench.allocation( "ApduTraceDecoder.decodeLine", 1_000_000, () ->
+    {
+      out.setLength( 0 );
+      Bench.consume( decoder.decodeLine( lines[ next[ 0 ]++ & 1023 ], out ) );
+    } );
+
+    Path trace = Files.createTempFile( "apdu-trace", ".txt" );
+    Path decoded = Files.createTempFile( "apdu-trace", ".decoded.txt" );
+    trace.toFile().deleteOnExit();
+    decoded.toFile().deleteOnExit();
+
+    try( PrintWriter writer = new PrintWriter(
+      Files.newBufferedWriter( trace, StandardCharsets.UTF_8 ) ) )
+    {
+      for( int i = 0; i < exchanges; i++ )
+      {
+        writer.println( commandLine( randomCommand() ) );
+        writer.println( responseLine() );
+      }
+    }
+
+    System.out.println( "--- trace file, " + 2L * exchanges + " lines, "
+      + Files.size( trace ) / ( 1024 * 1024 ) + " MiB" );
+
+    for( int round = 0; round < 3; round++ )
+    {
+      start = System.nanoTime();
+      long count;
+      try( BufferedReader reader = Files.newBufferedReader( trace,
+        StandardCharsets.UTF_8 );
+        Writer writer = Files.newBufferedWriter( decoded,
+          StandardCharsets.UTF_8 ) )
+      {
+        count = new ApduTraceDecoder( index ).decode( reader, writer );
+      }
+      double seconds = ( System.nanoTime() - start ) / 1e9;
+      System.out.printf( "%-48s %10.0f lines/s %8.1f MiB/s%n",
+        "decode trace file, round " + ( round + 1 ), count / seconds,
+        Files.size( trace ) / seconds / ( 1024 * 1024 ) );
+    }
+
+    try( BufferedReader reader = Files.newBufferedReader( decoded,
+      StandardCharsets.UTF_8 ) )
+    {
+      System.out.println( reader.readLine() );
+      System.out.println( reader.readLine() );
+    }
+  }
+
+  /**
+   * Mostly commands of a contactless tap and a GlobalPlatform session,
+   * one in eight with random header bytes.
+   */
+  private static byte[] randomCommand()
+  {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    byte[] command = new byte[ 4 + random.nextInt( 16 ) ];
+    random.nextBytes( command );
+
+    if( random.nextInt( 8 ) != 0 )
+    {
+      byte[] header = COMMANDS[ random.nextInt( COMMANDS.length ) ];
+      System.arraycopy( header, 0, command, 0, header.length );
+    }
+    return command;
+  }
+
+  private static String commandLine( byte[] command )
+  {
+    StringBuilder line = new StringBuilder( "> " );
+    for( int i = 0; i < command.length; i++ )
+    {
+      UidCodec.encodeHex( command, i, 1, line ).append( ' ' );
+    }
+    line.setLength( line.length() - 1 );
+    return line.toString();
+  }
+
+  private static String responseLine()
+  {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    byte[] data = new byte[ random.nextInt( 32 ) ];
+    random.nextBytes( data );
+    int sw = STATUS_WORDS[ random.nextInt( STATUS_WORDS.length ) ];
+
+    StringBuilder line = new StringBuilder( "< " );
+    UidCodec.encodeHex( data, 0, data.length, line );
+    if( data.length > 0 )
+    {
+      line.append( ' ' );
+    }
+    return UidCodec.encodeHex( new byte[]
+    {
+      (byte) ( sw >>> 8 ), (byte) sw
+    }, 0, 2, line ).toString();
+  }
+
+  private static final byte[][] COMMANDS =
+  {
+    {
+      (byte) 0xFF, (byte) 0xCA, 0x00, 0x00
+    },
+    {
+      0x00, (byte) 0xA4, 0x04, 0x00
+    },
+    {
+      0x00, (byte) 0xB0, 0x00, 0x00
+    },
+    {
+      0x00, (byte) 0xB2, 0x01, 0x0C
+    },
+    {
+      (byte) 0x80, 0x50, 0x00, 0x00
+    },
+    {
+      (byte) 0x84, (byte) 0x82, 0x01, 0x00
+    },
+    {
+      (byte) 0x80, (byte) 0xCA, (byte) 0x9F, 0x7F
+    },
+    {
+      (byte) 0xA0, (byte) 0xC0, 0x00, 0x00
+    },
+    {
+      0x00, 0x20, 0x00, (byte) 0x80
+    },
+    {
+      0x00, (byte) 0xC0, 0x00, 0x00
+    }
+  };
+
+  private static final int[] STATUS_WORDS =
+  {
+    0x9000, 0x9000, 0x9000, 0x9000, 0x6110, 0x6C08, 0x6A82, 0x6982,
+    0x63C2, 0x6D00, 0x6E00, 0x9100
+  };
+
+}
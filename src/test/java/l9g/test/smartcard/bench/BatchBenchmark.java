@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import l9g.test.smartcard.ApduTransport;
+import l9g.test.smartcard.batch.ApduBatchEngine;
+import l9g.test.smartcard.batch.ApduScript;
+import l9g.test.smartcard.batch.BatchResult;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Bytes per second reading an 8 KiB card memory dump: one 16 byte READ
+ * BINARY at a time versus the {@link ApduBatchEngine} with short and
+ * extended length APDUs.
+ *
+ * Simulated timing: 2 ms per APDU plus 25 us per response byte.
+ *
+ * @author th
+ */
+public class BatchBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    Bench.quietLogging();
+
+    byte[] memory = new byte[ MEMORY_SIZE ];
+    ThreadLocalRandom.current().nextBytes( memory );
+
+    ApduScript dump = ApduScript.builder()
+      .command( "select", 0x00, 0xA4, 0x00, 0x0C, new byte[]
+      {
+        0x2F, 0x00
+      }, -1 )
+      .readBinary( "dump", 0, MEMORY_SIZE )
+      .build();
+
+    // ad-hoc code: one CommandAPDU per 16 byte block
+    run( "16 byte READ BINARY per APDU", card( memory, false, 256 ), card ->
+    {
+      CardChannel channel = card.getBasicChannel();
+      int read = 0;
+      for( int offset = 0; offset < MEMORY_SIZE; offset += 16 )
+      {
+        read += channel.transmit( new CommandAPDU( 0x00, 0xB0, offset >>> 8,
+          offset & 0xff, 16 ) ).getNr();
+      }
+      return read;
+    } );
+
+    ApduTransport transport = new ApduTransport( 5 + 255 + 3, 65536 );
+
+    ApduBatchEngine shortEngine = new ApduBatchEngine( transport, false );
+    run( "batch, short APDUs", card( memory, false, 256 ), card ->
+      check( shortEngine.execute( card, dump, OUTPUT.clear() ) ) );
+
+    run( "batch, short APDUs, card max 128", card( memory, false, 128 ),
+      card -> check( shortEngine.execute( card, dump, OUTPUT.clear() ) ) );
+
+    ApduBatchEngine extendedEngine = new ApduBatchEngine( transport, true );
+    run( "batch, extended APDUs", card( memory, true, 65535 ), card ->
+      check( extendedEngine.execute( card, dump, OUTPUT.clear() ) ) );
+
+    run( "batch, extended APDUs, card max 1024", card( memory, true, 1024 ),
+      card -> check( extendedEngine.execute( card, dump, OUTPUT.clear() ) ) );
+
+    run( "batch, extended requested, short card", card( memory, false, 256 ),
+      card -> check( extendedEngine.execute( card, dump, OUTPUT.clear() ) ) );
+  }
+
+  @FunctionalInterface
+  private interface Dump
+  {
+    int read( Card card )
+      throws Exception;
+  }
+
+  private static int check( BatchResult result )
+  {
+    if( !result.success() || result.bytesRead() != MEMORY_SIZE )
+    {
+      throw new IllegalStateException( result.toString() );
+    }
+    return result.bytesRead();
+  }
+
+  private static Card card( byte[] memory, boolean extended, int max )
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Bench Reader" );
+    reader.insert( SimulatedSmartcard.builder()
+      .memory( memory )
+      .extendedLength( extended )
+      .maxResponseLength( max )
+      .apduNanos( TimeUnit.MILLISECONDS.toNanos( 2 ) )
+      .byteNanos( TimeUnit.MICROSECONDS.toNanos( 25 ) )
+      .build() );
+    CardTerminal terminal =
+      readers.createTerminalFactory().terminals().list().get( 0 );
+    return terminal.connect( "*" );
+  }
+
+  private static void run( String name, Card card, Dump dump )
+    throws Exception
+  {
+    dump.read( card );
+
+    long bytes = 0;
+    long start = System.nanoTime();
+    for( int i = 0; i < ROUNDS; i++ )
+    {
+      bytes += dump.read( card );
+    }
+    long elapsed = System.nanoTime() - start;
+
+    System.out.printf( "%-48s %10.1f KiB/s%n", name,
+      bytes * 1e9 / elapsed / 1024 );
+    card.disconnect( true );
+  }
+
+  private static final int MEMORY_SIZE = 8192;
+
+  private static final int ROUNDS = 5;
+
+  private static final ByteBuffer OUTPUT =
+    ByteBuffer.allocateDirect( MEMORY_SIZE );
+
+}
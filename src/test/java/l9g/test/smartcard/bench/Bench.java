@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal micro benchmark harness: fixed warmup and measurement rounds,
+ * average time per operation.
+ *
+ * Results are only comparable between runs on the same machine and JVM.
+ *
+ * @author th
+ */
+public final class Bench
+{
+  @FunctionalInterface
+  public interface Operation
+  {
+    void run()
+      throws Exception;
+  }
+
+  private Bench()
+  {
+  }
+
+  /**
+   * Runs {@code operation} {@code opsPerRound} times per round and prints
+   * the average time per operation of the measurement rounds.
+   *
+   * @return average nanos per operation
+   */
+  public static double run( String name, int opsPerRound, Operation operation )
+    throws Exception
+  {
+    for( int round = 0; round < WARMUP_ROUNDS; round++ )
+    {
+      for( int i = 0; i < opsPerRound; i++ )
+      {
+        operation.run();
+      }
+    }
+
+    long total = 0;
+    for( int round = 0; round < MEASUREMENT_ROUNDS; round++ )
+    {
+      long start = System.nanoTime();
+      for( int i = 0; i < opsPerRound; i++ )
+      {
+        operation.run();
+      }
+      total += System.nanoTime() - start;
+    }
+
+    double nanosPerOp = (double) total / ( (long) MEASUREMENT_ROUNDS * opsPerRound );
+    report( name, nanosPerOp );
+    return nanosPerOp;
+  }
+
+  /**
+   * Runs {@code operation} after a warmup and prints the heap bytes the
+   * current thread allocated per operation.
+   *
+   * @return allocated bytes per operation
+   */
+  public static double allocation( String name, int ops, Operation operation )
+    throws Exception
+  {
+    for( int i = 0; i < ops; i++ )
+    {
+      operation.run();
+    }
+
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long before = threads.getCurrentThreadAllocatedBytes();
+    for( int i = 0; i < ops; i++ )
+    {
+      operation.run();
+    }
+    // the measurement itself allocates nothing
+    double bytesPerOp =
+      (double) ( threads.getCurrentThreadAllocatedBytes() - before ) / ops;
+
+    System.out.printf( "%-48s %14.2f bytes/op%n", name, bytesPerOp );
+    return bytesPerOp;
+  }
+
+  public static void report( String name, double nanosPerOp )
+  {
+    System.out.printf( "%-48s %14.1f ns/op %14.0f ops/s%n",
+      name, nanosPerOp, 1e9 / nanosPerOp );
+  }
+
+  /**
+   * Reduces the application logging to errors, per tap log output
+   * would dominate the measurements.
+   */
+  public static void quietLogging()
+  {
+    ( (Logger) LoggerFactory.getLogger( "l9g" ) ).setLevel( Level.ERROR );
+  }
+
+  /**
+   * Keeps results alive, so the JIT cannot remove the measured code.
+   */
+  public static void consume( long value )
+  {
+    sink += value;
+  }
+
+  public static void consume( Object value )
+  {
+    sink += System.identityHashCode( value );
+  }
+
+  private static final int WARMUP_ROUNDS = 5;
+
+  private static final int MEASUREMENT_ROUNDS = 10;
+
+  private static volatile long sink;
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.util.concurrent.TimeUnit;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.ApduTransport;
+import l9g.test.smartcard.TapProcessor;
+import l9g.test.smartcard.profile.CardProfileCache;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Tap latency with and without the {@link CardProfileCache} for a
+ * contact card without UID: the profile skips the GET DATA round trip.
+ *
+ * Simulated timing: 2 ms connect, 5 ms per APDU. Protocol negotiation is
+ * not charged: the simulator cannot tell what a real reader spends on it,
+ * so the protocol hint is not measured here.
+ *
+ * @author th
+ */
+public class CardProfileBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    Bench.quietLogging();
+
+    SimulatedSmartcard contact = SimulatedSmartcard.builder()
+      .atr( CONTACT_ATR )
+      .uid( new byte[ 0 ] )
+      .protocol( "T=0" )
+      .connectNanos( TimeUnit.MILLISECONDS.toNanos( 2 ) )
+      .apduNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) )
+      .build();
+
+    tap( "contact, no UID", contact );
+  }
+
+  private static void tap( String name, SimulatedSmartcard smartcard )
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Bench Reader" );
+    reader.insert( smartcard );
+    CardTerminal terminal =
+      readers.createTerminalFactory().terminals().list().get( 0 );
+    ApduTransport transport = new ApduTransport();
+
+    double without = Bench.run( "tap " + name + ", no profiles", 20, () ->
+      quiet( null ).process( terminal, transport ) );
+
+    TapProcessor processor = quiet( new CardProfileCache() );
+    double with = Bench.run( "tap " + name + ", profile cache", 20, () ->
+      processor.process( terminal, transport ) );
+
+    System.out.printf( "--- GET DATA skipped, saved per tap: %.2f ms%n",
+      ( without - with ) / 1e6 );
+  }
+
+  private static TapProcessor quiet( CardProfileCache profileCache )
+  {
+    return new TapProcessor( null, profileCache )
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        Bench.consume( tap );
+      }
+    };
+  }
+
+  private static final byte[] CONTACT_ATR =
+  {
+    (byte) 0x3B, (byte) 0x65, (byte) 0x00, (byte) 0x00, (byte) 0x9C,
+    (byte) 0x11, (byte) 0x01, (byte) 0x01, (byte) 0x03
+  };
+
+}
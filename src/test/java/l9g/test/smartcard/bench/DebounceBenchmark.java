@@ -0,0 +1,184 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import l9g.test.smartcard.debounce.TapDebouncer;
+
+/**
+ * Measures {@link TapDebouncer#accept} alone and with many concurrently
+ * tapping reader threads, and checks that readers racing with the same
+ * cards accept every card exactly once.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.DebounceBenchmark -Dexec.args=32
+ * </pre>
+ *
+ * The optional argument is the maximum number of threads (default 32).
+ *
+ * @author th
+ */
+public class DebounceBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int maxThreads = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 32;
+
+    long[] serials = randomSerials( 1 << 20 );
+    int[] next = new int[ 1 ];
+
+    // a new card every 100 µs of simulated time, 10000 taps per second
+    TapDebouncer cold = new TapDebouncer( Duration.ofSeconds( 3 ),
+      Duration.ofSeconds( 1 ), 1 << 14 );
+    long start = System.nanoTime();
+
+    System.out.println( "--- single reader, " + cold.getSlots() + " slots" );
+    Bench.run( "accept, new cards", 1_000_000, () ->
+    {
+      int i = next[ 0 ]++;
+      Bench.consume( cold.accept( 0, serials[ i & 0xfffff ],
+        start + i * 100_000L ) );
+    } );
+    print( cold );
+
+    TapDebouncer hot = new TapDebouncer( Duration.ofSeconds( 3 ),
+      Duration.ofSeconds( 1 ), 4096 );
+
+    Bench.run( "accept, 64 bouncing cards", 1_000_000, () ->
+      Bench.consume( hot.accept( 0, serials[ next[ 0 ]++ & 63 ],
+        System.nanoTime() ) ) );
+
+    Bench.allocation( "accept, 64 bouncing cards", 1_000_000, () ->
+      Bench.consume( hot.accept( 0, serials[ next[ 0 ]++ & 63 ],
+        System.nanoTime() ) ) );
+    print( hot );
+
+    System.out.println( "--- contention, 256 hot cards on every reader" );
+    for( int threads = 1; threads <= maxThreads; threads *= 2 )
+    {
+      contention( threads, serials );
+    }
+
+    System.out.println( "--- racing readers" );
+    for( int threads = 2; threads <= maxThreads; threads *= 2 )
+    {
+      race( threads, serials );
+    }
+  }
+
+  /**
+   * Every thread is a reader tapping the same hot cards for a second.
+   */
+  private static void contention( int threads, long[] serials )
+    throws InterruptedException
+  {
+    TapDebouncer debouncer = new TapDebouncer( Duration.ofMillis( 300 ),
+      Duration.ofMillis( 100 ), 1 << 12 );
+    LongAdder ops = new LongAdder();
+    CountDownLatch done = new CountDownLatch( threads );
+    long end = System.nanoTime() + 1_000_000_000L;
+
+    for( int t = 0; t < threads; t++ )
+    {
+      int reader = t;
+      Thread.ofPlatform().start( () ->
+      {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        long now;
+        while( ( now = System.nanoTime() ) < end )
+        {
+          Bench.consume( debouncer.accept( reader,
+            serials[ random.nextInt( 256 ) ], now ) );
+          count++;
+        }
+        ops.add( count );
+        done.countDown();
+      } );
+    }
+    done.await();
+
+    System.out.printf( "%-48s %10.1f M ops/s, %5.1f %% suppressed%n",
+      threads + " threads", ops.sum() / 1e6,
+      100.0 * debouncer.getSuppressed() / ops.sum() );
+  }
+
+  /**
+   * All threads tap the same 10000 cards at once with a global window
+   * longer than the run, so each card has to be accepted exactly once.
+   */
+  private static void race( int threads, long[] serials )
+    throws InterruptedException
+  {
+    int cards = 10_000;
+    TapDebouncer debouncer = new TapDebouncer( Duration.ofMinutes( 1 ),
+      Duration.ofMinutes( 1 ), 4 * cards );
+    CountDownLatch start = new CountDownLatch( 1 );
+    CountDownLatch done = new CountDownLatch( threads );
+
+    for( int t = 0; t < threads; t++ )
+    {
+      int reader = t;
+      Thread.ofPlatform().start( () ->
+      {
+        try
+        {
+          start.await();
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for( int i = 0; i < cards; i++ )
+        {
+          debouncer.accept( reader, serials[ i ], System.nanoTime() );
+        }
+        done.countDown();
+      } );
+    }
+    start.countDown();
+    done.await();
+
+    System.out.printf( "%-48s %10d accepted, %d suppressed, %d overflows%s%n",
+      threads + " readers x " + cards + " cards", debouncer.getAccepted(),
+      debouncer.getSuppressed(), debouncer.getOverflows(),
+      debouncer.getAccepted() == cards ? "" : "  FAILED" );
+  }
+
+  private static void print( TapDebouncer debouncer )
+  {
+    System.out.printf( "%d accepted, %d suppressed, %d overflows%n",
+      debouncer.getAccepted(), debouncer.getSuppressed(),
+      debouncer.getOverflows() );
+  }
+
+  private static long[] randomSerials( int count )
+  {
+    long[] serials = new long[ count ];
+    for( int i = 0; i < count; i++ )
+    {
+      // 7 byte UIDs
+      serials[ i ] = ThreadLocalRandom.current().nextLong( 1L << 56 );
+    }
+    return serials;
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import l9g.test.smartcard.directory.IdentityCache;
+import l9g.test.smartcard.sim.SimulatedDirectoryService;
+
+/**
+ * Compares identity lookups through the {@link IdentityCache} with lookups
+ * against a simulated directory with 2 ms round trip latency.
+ *
+ * @author th
+ */
+public class IdentityCacheBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    Bench.quietLogging();
+
+    SimulatedDirectoryService directory =
+      new SimulatedDirectoryService( Duration.ofMillis( 2 ) );
+    long[] serials = new long[ ENTRIES ];
+    Path export = Files.createTempFile( "directory-export", ".csv" );
+    export.toFile().deleteOnExit();
+
+    try( PrintWriter writer = new PrintWriter(
+      Files.newBufferedWriter( export, StandardCharsets.UTF_8 ) ) )
+    {
+      for( int i = 0; i < ENTRIES; i++ )
+      {
+        serials[ i ] = ThreadLocalRandom.current().nextLong( 1L << 56 );
+        directory.put( serials[ i ], "user" + i );
+        writer.println( serials[ i ] + ";user" + i );
+      }
+    }
+
+    Bench.run( "directory lookup (2 ms)", 100, () ->
+      Bench.consume( directory.lookup( serials[ ThreadLocalRandom.current()
+        .nextInt( ENTRIES ) ] ) ) );
+
+    try( IdentityCache cache = new IdentityCache( directory, ENTRIES,
+      Duration.ofHours( 1 ), Duration.ofMinutes( 1 ),
+      Duration.ofMinutes( 45 ) ) )
+    {
+      long start = System.nanoTime();
+      cache.preload( export );
+      Bench.report( "preload (per entry)",
+        (double) ( System.nanoTime() - start ) / ENTRIES );
+
+      Bench.run( "cache hit (" + ENTRIES + " entries)", 1_000_000, () ->
+        Bench.consume( cache.lookup( serials[ ThreadLocalRandom.current()
+          .nextInt( ENTRIES ) ] ) ) );
+
+      Bench.run( "cache negative hit", 1_000_000, () ->
+        Bench.consume( cache.lookup( -1L ) ) );
+
+      System.out.println( cache.getStatistics() );
+    }
+
+    try( IdentityCache cache = new IdentityCache( directory, ENTRIES / 10,
+      Duration.ofHours( 1 ), Duration.ofMinutes( 1 ),
+      Duration.ofMinutes( 45 ) ) )
+    {
+      Bench.run( "cache 10% of working set", 1_000, () ->
+        Bench.consume( cache.lookup( serials[ ThreadLocalRandom.current()
+          .nextInt( ENTRIES ) ] ) ) );
+
+      System.out.println( cache.getStatistics() );
+    }
+  }
+
+  private static final int ENTRIES = 10_000;
+
+}
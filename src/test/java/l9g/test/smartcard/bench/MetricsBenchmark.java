@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.ApduTransport;
+import l9g.test.smartcard.TapProcessor;
+import l9g.test.smartcard.metrics.LatencyRecorder;
+import l9g.test.smartcard.metrics.MetricsExporter;
+import l9g.test.smartcard.metrics.TapMetrics;
+import l9g.test.smartcard.metrics.TapStage;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Measures the cost of recording tap stage latencies, alone and with
+ * many concurrently recording reader threads, and checks that recording
+ * does not allocate.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.MetricsBenchmark
+ * </pre>
+ *
+ * @author th
+ */
+public class MetricsBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    Bench.quietLogging();
+
+    LatencyRecorder recorder = new LatencyRecorder();
+    long[] values = new long[ 1024 ];
+    for( int i = 0; i < values.length; i++ )
+    {
+      // 10 us .. 50 ms, the range of real tap stages
+      values[ i ] = ThreadLocalRandom.current().nextLong( 10_000, 50_000_000 );
+    }
+    int[] next = new int[ 1 ];
+
+    System.out.println( "--- recording" );
+    Bench.run( "LatencyRecorder.record", 10_000_000, () ->
+      recorder.record( values[ next[ 0 ]++ & 1023 ] ) );
+
+    TapMetrics metrics = new TapMetrics();
+    Bench.run( "tap (5 stages + reader counter)", 1_000_000, () ->
+    {
+      long value = values[ next[ 0 ]++ & 1023 ];
+      metrics.record( TapStage.DETECT, value );
+      metrics.record( TapStage.CONNECT, value );
+      metrics.record( TapStage.TRANSMIT, value );
+      metrics.record( TapStage.DECODE, value );
+      metrics.record( TapStage.DISCONNECT, value );
+      metrics.reader( "Bench Reader" ).tap();
+    } );
+
+    Bench.allocation( "tap (5 stages + reader counter)", 1_000_000, () ->
+    {
+      long value = values[ next[ 0 ]++ & 1023 ];
+      metrics.record( TapStage.DETECT, value );
+      metrics.record( TapStage.CONNECT, value );
+      metrics.record( TapStage.TRANSMIT, value );
+      metrics.record( TapStage.DECODE, value );
+      metrics.record( TapStage.DISCONNECT, value );
+      metrics.reader( "Bench Reader" ).tap();
+    } );
+
+    Bench.run( "LatencyRecorder.snapshot", 10_000, () ->
+      Bench.consume( recorder.snapshot() ) );
+
+    System.out.println( "--- contention" );
+    for( int threads = 1; threads <= 16; threads *= 2 )
+    {
+      contention( threads );
+    }
+
+    System.out.println( "--- simulated taps" );
+    taps();
+
+    System.exit( 0 );
+  }
+
+  /**
+   * All threads record into the same stage recorder, the worst case of
+   * many readers finishing their taps at the same time.
+   */
+  private static void contention( int threads )
+    throws InterruptedException
+  {
+    int perThread = 2_000_000;
+    LatencyRecorder recorder = new LatencyRecorder();
+    CountDownLatch start = new CountDownLatch( 1 );
+    CountDownLatch done = new CountDownLatch( threads );
+
+    for( int t = 0; t < threads; t++ )
+    {
+      Thread.ofPlatform().start( () ->
+      {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try
+        {
+          start.await();
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for( int i = 0; i < perThread; i++ )
+        {
+          recorder.record( random.nextLong( 10_000, 50_000_000 ) );
+        }
+        done.countDown();
+      } );
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long elapsed = System.nanoTime() - begin;
+
+    System.out.printf( "%-48s %10.1f ns/op per thread, %6.1f M ops/s%n",
+      threads + " threads", (double) elapsed / perThread,
+      threads * perThread * 1000.0 / elapsed );
+  }
+
+  /**
+   * Taps on a simulated reader with realistic card latencies and prints
+   * the recorded stages as the exporter would write them.
+   */
+  private static void taps()
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Bench Reader" );
+    reader.insert( SimulatedSmartcard.builder()
+      .uid( new byte[]
+      {
+        4, 0x12, 0x34, 0x56
+      } )
+      .connectNanos( 2_000_000 ).apduNanos( 1_000_000 ).build() );
+    CardTerminal terminal =
+      readers.createTerminalFactory().terminals().list().get( 0 );
+
+    TapMetrics metrics = new TapMetrics();
+    TapProcessor processor = new TapProcessor( null, null, metrics )
+    {
+      @Override
+      protected void report( CardTerminal terminal, String text )
+      {
+        Bench.consume( text );
+      }
+    };
+    ApduTransport transport = new ApduTransport();
+
+    for( int i = 0; i < 500; i++ )
+    {
+      processor.process( terminal, transport, System.nanoTime() );
+    }
+
+    System.out.println( MetricsExporter.toJson( metrics ) );
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.ReaderManager;
+import l9g.test.smartcard.TapProcessor;
+import l9g.test.smartcard.recovery.RecoverySupervisor;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Injects faults into the simulated PC/SC provider while cards are
+ * tapped on all readers, and measures the time from the end of a fault
+ * to the first tap served again.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.RecoveryBenchmark -Dexec.args=20
+ * </pre>
+ *
+ * The optional argument is the number of rounds per fault (default 20).
+ *
+ * @author th
+ */
+public class RecoveryBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int rounds = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 20;
+    // the errors of injected faults are expected
+    ( (Logger) LoggerFactory.getLogger( "l9g" ) ).setLevel( Level.OFF );
+
+    RecoveryBenchmark supervised = new RecoveryBenchmark( true );
+    supervised.replug( rounds );
+    supervised.restart( rounds );
+    supervised.inject( rounds, "SCARD_E_INVALID_HANDLE" );
+    supervised.inject( rounds, "SCARD_F_COMM_ERROR" );
+    supervised.inject( rounds, "SCARD_E_READER_UNAVAILABLE" );
+    supervised.outage( 3000 );
+    supervised.close();
+
+    System.out.println( "--- without supervisor" );
+    RecoveryBenchmark unsupervised = new RecoveryBenchmark( false );
+    unsupervised.restart( 1 );
+    unsupervised.close();
+
+    System.exit( 0 );
+  }
+
+  private RecoveryBenchmark( boolean supervised )
+    throws InterruptedException
+  {
+    for( int i = 0; i < READERS; i++ )
+    {
+      readers.attach( name( i ) );
+    }
+
+    TapProcessor processor = new TapProcessor()
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        servedAt.set( index( terminal.getName() ), System.nanoTime() );
+      }
+    };
+
+    recovery = supervised ? new RecoverySupervisor(
+      readers::createTerminalFactory, Duration.ofMillis( 50 ),
+      Duration.ofMillis( 500 ) ) : null;
+    manager = supervised
+      ? new ReaderManager( recovery, processor, 1000, 100 )
+      : new ReaderManager( readers.createTerminalFactory().terminals(),
+        processor, 1000, 100 );
+
+    managerThread = Thread.ofPlatform().name( "bench-manager" ).start( () ->
+    {
+      try
+      {
+        manager.run();
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+    } );
+
+    for( int i = 0; i < READERS; i++ )
+    {
+      String name = name( i );
+      tappers.add( Thread.ofPlatform().start( () ->
+      {
+        SimulatedSmartcard card = SimulatedSmartcard.builder()
+          .uid( new byte[]
+          {
+            4, 1, 2, 3, 4, 5, (byte) name.hashCode()
+          } ).build();
+        try
+        {
+          while( tapping.get() )
+          {
+            // a replugged reader is a new terminal
+            SimulatedCardTerminal reader = readers.get( name );
+            if( reader == null || !reader.tap( card, 100 ) )
+            {
+              Thread.sleep( 5 );
+            }
+          }
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } ) );
+    }
+
+    awaitAllServed( System.nanoTime(), 5000 );
+  }
+
+  /**
+   * Unplugs a reader for 50..300 ms.
+   */
+  private void replug( int rounds )
+    throws InterruptedException
+  {
+    long[] latencies = new long[ rounds ];
+
+    for( int r = 0; r < rounds; r++ )
+    {
+      String name = name( r % READERS );
+      readers.detach( name );
+      Thread.sleep( ThreadLocalRandom.current().nextLong( 50, 300 ) );
+      long back = System.nanoTime();
+      readers.attach( name );
+      latencies[ r ] = awaitServed( r % READERS, back, 5000 );
+      awaitAllServed( System.nanoTime(), 5000 );
+    }
+
+    print( "reader replugged, first tap on it", latencies );
+  }
+
+  /**
+   * Stops the PC/SC service for 100..2000 ms.
+   */
+  private void restart( int rounds )
+    throws InterruptedException
+  {
+    long[] first = new long[ rounds ];
+    long[] all = new long[ rounds ];
+
+    for( int r = 0; r < rounds; r++ )
+    {
+      readers.stopService();
+      Thread.sleep( ThreadLocalRandom.current().nextLong( 100, 2000 ) );
+      long back = System.nanoTime();
+      readers.startService();
+      first[ r ] = awaitAnyServed( back, 5000 );
+      all[ r ] = awaitAllServed( back, 5000 );
+    }
+
+    print( "service restarted, first tap", first );
+    print( "service restarted, all readers", all );
+  }
+
+  /**
+   * Fails the next reader list or change wait with {@code code}.
+   */
+  private void inject( int rounds, String code )
+    throws InterruptedException
+  {
+    long[] all = new long[ rounds ];
+
+    for( int r = 0; r < rounds; r++ )
+    {
+      long injected = System.nanoTime();
+      readers.injectFault( code, 1 );
+      all[ r ] = awaitAllServed( injected, 5000 );
+      Thread.sleep( 50 );
+    }
+
+    print( code + ", all readers", all );
+  }
+
+  /**
+   * Counts the attempts to establish a context during a long outage.
+   */
+  private void outage( long millis )
+    throws InterruptedException
+  {
+    long failed = recovery.getFailedAttempts();
+    readers.stopService();
+    Thread.sleep( millis );
+    readers.startService();
+    awaitAllServed( System.nanoTime(), 5000 );
+    System.out.printf( "%-48s %10d attempts in %d ms, %d rebuilds total%n",
+      "service down", recovery.getFailedAttempts() - failed, millis,
+      recovery.getRebuilds() );
+  }
+
+  private void close()
+    throws InterruptedException
+  {
+    tapping.set( false );
+    for( Thread tapper : tappers )
+    {
+      tapper.join();
+    }
+    manager.shutdown();
+    managerThread.join();
+  }
+
+  /**
+   * @return nanos from {@code since} to the first tap on the reader
+   * after it, -1 on timeout
+   */
+  private long awaitServed( int reader, long since, long timeoutMillis )
+    throws InterruptedException
+  {
+    long deadline = since + timeoutMillis * 1_000_000;
+    while( System.nanoTime() < deadline )
+    {
+      long served = servedAt.get( reader );
+      if( served > since )
+      {
+        return served - since;
+      }
+      Thread.sleep( 1 );
+    }
+    return -1;
+  }
+
+  private long awaitAnyServed( long since, long timeoutMillis )
+    throws InterruptedException
+  {
+    long deadline = since + timeoutMillis * 1_000_000;
+    while( System.nanoTime() < deadline )
+    {
+      long first = Long.MAX_VALUE;
+      for( int i = 0; i < READERS; i++ )
+      {
+        if( servedAt.get( i ) > since )
+        {
+          first = Math.min( first, servedAt.get( i ) );
+        }
+      }
+      if( first != Long.MAX_VALUE )
+      {
+        return first - since;
+      }
+      Thread.sleep( 1 );
+    }
+    return -1;
+  }
+
+  private long awaitAllServed( long since, long timeoutMillis )
+    throws InterruptedException
+  {
+    long last = 0;
+    for( int i = 0; i < READERS; i++ )
+    {
+      long latency = awaitServed( i, since, timeoutMillis );
+      if( latency < 0 )
+      {
+        return -1;
+      }
+      last = Math.max( last, latency );
+    }
+    return last;
+  }
+
+  private static void print( String name, long[] latencies )
+  {
+    long failed = Arrays.stream( latencies ).filter( l -> l < 0 ).count();
+    long[] sorted = Arrays.stream( latencies ).filter( l -> l >= 0 )
+      .sorted().toArray();
+
+    if( sorted.length == 0 )
+    {
+      System.out.printf( "%-48s never within 5 s%n", name );
+      return;
+    }
+
+    System.out.printf(
+      "%-48s min %5.0f  p50 %5.0f  max %5.0f ms%s%n", name,
+      sorted[ 0 ] / 1e6, sorted[ sorted.length / 2 ] / 1e6,
+      sorted[ sorted.length - 1 ] / 1e6,
+      failed > 0 ? ", " + failed + " never" : "" );
+  }
+
+  private static String name( int index )
+  {
+    return "Bench Reader " + index;
+  }
+
+  private static int index( String name )
+  {
+    return Integer.parseInt( name.substring( name.lastIndexOf( ' ' ) + 1 ) );
+  }
+
+  private static final int READERS = 4;
+
+  private final SimulatedReaders readers = new SimulatedReaders();
+
+  private final AtomicLongArray servedAt = new AtomicLongArray( READERS );
+
+  private final AtomicBoolean tapping = new AtomicBoolean( true );
+
+  private final List<Thread> tappers = new ArrayList<>();
+
+  private final RecoverySupervisor recovery;
+
+  private final ReaderManager manager;
+
+  private final Thread managerThread;
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import l9g.test.smartcard.ApduTransport;
+import l9g.test.smartcard.L9gTestSmartcard;
+import l9g.test.smartcard.ReaderManager;
+import l9g.test.smartcard.TapProcessor;
+import l9g.test.smartcard.UidCodec;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Benchmarks the stages of a tap and the tap throughput of 1..N readers
+ * against the simulated PC/SC provider.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.TapBenchmark -Dexec.args=8
+ * </pre>
+ *
+ * The optional argument is the maximum number of readers (default 8).
+ *
+ * @author th
+ */
+public class TapBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int maxReaders = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 8;
+    Bench.quietLogging();
+
+    stages();
+
+    for( int readers = 1; readers <= maxReaders; readers *= 2 )
+    {
+      throughput( readers );
+    }
+
+    System.exit( 0 );
+  }
+
+  private static void stages()
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    SimulatedCardTerminal reader = readers.attach( "Bench Reader" );
+    reader.insert( SimulatedSmartcard.builder().uid( UID_7 ).build() );
+    CardTerminal terminal =
+      readers.createTerminalFactory().terminals().list().get( 0 );
+
+    System.out.println( "--- tap stages" );
+
+    Bench.run( "connect + disconnect", 100_000, () ->
+    {
+      Card card = terminal.connect( "*" );
+      card.disconnect( true );
+    } );
+
+    Card card = terminal.connect( "*" );
+    CardChannel channel = card.getBasicChannel();
+    StringBuilder line = new StringBuilder( 64 );
+
+    Bench.run( "transmit GET UID (CommandAPDU)", 100_000, () ->
+      Bench.consume( channel.transmit( new CommandAPDU( GET_UID ) ).getSW() ) );
+
+    ApduTransport transport = new ApduTransport();
+    Bench.run( "transmit GET UID (ApduTransport)", 1_000_000, () ->
+      Bench.consume( transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x00 )
+        .transmit( channel ) ) );
+
+    Bench.allocation( "transmit GET UID (CommandAPDU)", 100_000, () ->
+      Bench.consume( channel.transmit( new CommandAPDU( GET_UID ) ).getSW() ) );
+
+    Bench.allocation( "transmit GET UID (ApduTransport)", 1_000_000, () ->
+      Bench.consume( transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x00 )
+        .transmit( channel ) ) );
+
+    Bench.allocation( "GET UID + hex + serial (ApduTransport)", 1_000_000, () ->
+    {
+      transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x00 ).transmit( channel );
+      line.setLength( 0 );
+      UidCodec.encodeHex( transport.getResponse(), 0,
+        transport.getDataLength(), line );
+      Bench.consume( UidCodec.toLongLittleEndian( transport.getResponse(), 0,
+        transport.getDataLength() ) );
+    } );
+
+    // T=0 style card: every response needs 61xx + GET RESPONSE, and
+    // Le=4 provokes a 6Cxx resend
+    reader.insert( SimulatedSmartcard.builder().uid( UID_7 ).protocol( "T=0" )
+      .chainedResponses( true ).build() );
+    Card t0card = terminal.connect( "*" );
+    CardChannel t0channel = t0card.getBasicChannel();
+
+    Bench.run( "transmit GET UID, 61xx chaining", 1_000_000, () ->
+      Bench.consume( transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x00 )
+        .transmit( t0channel ) ) );
+
+    Bench.allocation( "transmit GET UID, 6Cxx + 61xx chaining", 1_000_000, () ->
+      Bench.consume( transport.prepare( 0xFF, 0xCA, 0x00, 0x00, 0x04 )
+        .transmit( t0channel ) ) );
+    t0card.disconnect( true );
+
+    Bench.run( "bytesToHex (7 byte UID)", 1_000_000, () ->
+      Bench.consume( L9gTestSmartcard.bytesToHex( UID_7 ) ) );
+
+    Bench.run( "bytesToLongLittleEndian (7 byte UID)", 1_000_000, () ->
+      Bench.consume( L9gTestSmartcard.bytesToLongLittleEndian( UID_7 ) ) );
+
+    card.disconnect( true );
+  }
+
+  /**
+   * Taps cards as fast as possible on {@code count} readers for a few
+   * seconds. Every reader has a realistic connect and APDU latency, so
+   * the total should scale with the number of readers.
+   */
+  private static void throughput( int count )
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    List<SimulatedCardTerminal> terminals = new ArrayList<>();
+    for( int i = 0; i < count; i++ )
+    {
+      terminals.add( readers.attach( "Bench Reader " + i ) );
+    }
+
+    LongAdder taps = new LongAdder();
+    TapProcessor processor = new TapProcessor()
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        taps.increment();
+      }
+    };
+
+    ReaderManager manager = new ReaderManager(
+      readers.createTerminalFactory().terminals(), processor, 1000, 100 );
+    Thread managerThread = Thread.ofPlatform().name( "bench-manager" )
+      .start( () ->
+      {
+        try
+        {
+          manager.run();
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } );
+
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .uid( UID_7 )
+      .connectNanos( TimeUnit.MILLISECONDS.toNanos( 2 ) )
+      .negotiationNanos( TimeUnit.MILLISECONDS.toNanos( 3 ) )
+      .apduNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) )
+      .build();
+
+    AtomicBoolean tapping = new AtomicBoolean( true );
+    List<Thread> tappers = new ArrayList<>();
+    for( SimulatedCardTerminal terminal : terminals )
+    {
+      tappers.add( Thread.ofPlatform().start( () ->
+      {
+        try
+        {
+          while( tapping.get() )
+          {
+            terminal.tap( smartcard, 1000 );
+          }
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } ) );
+    }
+
+    Thread.sleep( WARMUP_MILLIS );
+    long before = taps.sum();
+    long start = System.nanoTime();
+    Thread.sleep( MEASUREMENT_MILLIS );
+    long done = taps.sum() - before;
+    long elapsed = System.nanoTime() - start;
+
+    tapping.set( false );
+    for( Thread tapper : tappers )
+    {
+      tapper.join();
+    }
+    manager.shutdown();
+    managerThread.join();
+
+    double perSecond = done * 1e9 / elapsed;
+    System.out.printf( "--- %d reader(s): %8.1f taps/s, %6.1f taps/s per reader%n",
+      count, perSecond, perSecond / count );
+  }
+
+  private static final byte[] GET_UID =
+  {
+    (byte) 0xFF, (byte) 0xCA, (byte) 0x00, (byte) 0x00, (byte) 0x00
+  };
+
+  private static final byte[] UID_7 =
+  {
+    (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C,
+    (byte) 0x91, (byte) 0x3E, (byte) 0x80
+  };
+
+  private static final long WARMUP_MILLIS = 1000;
+
+  private static final long MEASUREMENT_MILLIS = 3000;
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.smartcardio.CardTerminal;
+import l9g.test.smartcard.ReaderManager;
+import l9g.test.smartcard.TapProcessor;
+import l9g.test.smartcard.event.OverflowPolicy;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import l9g.test.smartcard.metrics.TapMetrics;
+import l9g.test.smartcard.sim.SimulatedCardTerminal;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import l9g.test.smartcard.sim.SimulatedSmartcard;
+
+/**
+ * Soak test of the {@link TapEventPublisher}: simulated readers are
+ * tapped as fast as possible with cards without latency, while three
+ * subscribers consume the events
+ *
+ * <ul>
+ * <li>a batching backend taking 2 ms per call,</li>
+ * <li>a slow subscriber taking 1 ms per event, which overflows its
+ * buffer,</li>
+ * <li>an unbounded counting subscriber.</li>
+ * </ul>
+ *
+ * The heap after a full GC is printed every 5 seconds. The bound itself
+ * is asserted by {@code TapEventPublisherTest}.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.TapEventSoakBenchmark -Dexec.args="60 8"
+ * </pre>
+ *
+ * The optional arguments are the duration in seconds (default 60) and
+ * the number of readers (default 8).
+ *
+ * @author th
+ */
+public class TapEventSoakBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int seconds = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 60;
+    int count = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 8;
+    Bench.quietLogging();
+
+    SimulatedReaders readers = new SimulatedReaders();
+    List<SimulatedCardTerminal> terminals = new ArrayList<>();
+    for( int i = 0; i < count; i++ )
+    {
+      terminals.add( readers.attach( "Soak Reader " + i ) );
+    }
+
+    TapEventPublisher publisher = new TapEventPublisher( 1024,
+      OverflowPolicy.DROP_OLDEST );
+    TapProcessor processor = new TapProcessor( null, null, new TapMetrics(),
+      publisher )
+    {
+      @Override
+      protected void report( CardTerminal terminal, String tap )
+      {
+        Bench.consume( tap );
+      }
+    };
+
+    CountDownLatch completed = new CountDownLatch( 3 );
+    LongAdder batches = new LongAdder();
+    LongAdder batched = new LongAdder();
+    LongAdder slow = new LongAdder();
+    LongAdder counted = new LongAdder();
+
+    publisher.subscribeBatched( new Consumer<List<TapEvent>>( 1, completed )
+    {
+      @Override
+      void consume( List<TapEvent> batch )
+        throws InterruptedException
+      {
+        Thread.sleep( 2 );
+        batches.increment();
+        batched.add( batch.size() );
+      }
+    }, 256, Duration.ofMillis( 20 ) );
+
+    publisher.subscribe( new Consumer<TapEvent>( 1, completed )
+    {
+      @Override
+      void consume( TapEvent event )
+        throws InterruptedException
+      {
+        Thread.sleep( 1 );
+        slow.increment();
+      }
+    } );
+
+    publisher.subscribe( new Consumer<TapEvent>( Long.MAX_VALUE, completed )
+    {
+      @Override
+      void consume( TapEvent event )
+      {
+        counted.increment();
+      }
+    } );
+
+    ReaderManager manager = new ReaderManager(
+      readers.createTerminalFactory().terminals(), processor, 1000, 100 );
+    Thread managerThread = Thread.ofPlatform().name( "soak-manager" )
+      .start( () ->
+      {
+        try
+        {
+          manager.run();
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } );
+
+    SimulatedSmartcard smartcard = SimulatedSmartcard.builder()
+      .uid( new byte[]
+      {
+        (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C
+      } )
+      .build();
+
+    AtomicBoolean tapping = new AtomicBoolean( true );
+    List<Thread> tappers = new ArrayList<>();
+    for( SimulatedCardTerminal terminal : terminals )
+    {
+      tappers.add( Thread.ofPlatform().start( () ->
+      {
+        try
+        {
+          while( tapping.get() )
+          {
+            terminal.tap( smartcard, 1000 );
+          }
+        }
+        catch( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+        }
+      } ) );
+    }
+
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long lastSubmitted = 0;
+    System.out.printf( "%8s %10s %12s %12s %10s %12s %10s%n", "seconds",
+      "taps/s", "batched", "slow", "dropped", "counted", "heap KiB" );
+
+    for( int elapsed = 5; elapsed <= seconds; elapsed += 5 )
+    {
+      Thread.sleep( 5000 );
+      System.gc();
+      long submitted = publisher.getSubmitted();
+      System.out.printf( "%8d %10d %12d %12d %10d %12d %10d%n", elapsed,
+        ( submitted - lastSubmitted ) / 5, batched.sum(), slow.sum(),
+        publisher.getDropped(), counted.sum(),
+        memory.getHeapMemoryUsage().getUsed() / 1024 );
+      lastSubmitted = submitted;
+    }
+
+    tapping.set( false );
+    for( Thread tapper : tappers )
+    {
+      tapper.join();
+    }
+    manager.shutdown();
+    managerThread.join();
+
+    publisher.close();
+    completed.await();
+
+    long submitted = publisher.getSubmitted();
+    System.out.printf( "submitted %d, batched %d in %d calls (%.1f per call),"
+      + " slow %d + dropped %d, counted %d%n", submitted, batched.sum(),
+      batches.sum(), (double) batched.sum() / Math.max( 1, batches.sum() ),
+      slow.sum(), publisher.getDropped(), counted.sum() );
+
+    System.exit( submitted == batched.sum() && submitted == counted.sum()
+      && submitted == slow.sum() + publisher.getDropped() ? 0 : 1 );
+  }
+
+  /**
+   * Requests {@code batch} items at a time, counts down on completion.
+   */
+  private abstract static class Consumer<T> implements Flow.Subscriber<T>
+  {
+    Consumer( long batch, CountDownLatch completed )
+    {
+      this.batch = batch;
+      this.completed = completed;
+    }
+
+    abstract void consume( T item )
+      throws InterruptedException;
+
+    @Override
+    public void onSubscribe( Flow.Subscription subscription )
+    {
+      this.subscription = subscription;
+      subscription.request( batch );
+    }
+
+    @Override
+    public void onNext( T item )
+    {
+      try
+      {
+        consume( item );
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      if( batch != Long.MAX_VALUE )
+      {
+        subscription.request( batch );
+      }
+    }
+
+    @Override
+    public void onError( Throwable throwable )
+    {
+      System.out.println( "onError: " + throwable );
+      completed.countDown();
+    }
+
+    @Override
+    public void onComplete()
+    {
+      completed.countDown();
+    }
+
+    private final long batch;
+
+    private final CountDownLatch completed;
+
+    private Flow.Subscription subscription;
+
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import l9g.test.smartcard.event.TapOutcome;
+import l9g.test.smartcard.journal.TapJournal;
+import l9g.test.smartcard.journal.TapJournalReader;
+
+/**
+ * Sustained append throughput of the {@link TapJournal}, replay and
+ * query speed of the {@link TapJournalReader} and recovery from a torn
+ * record.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.TapJournalBenchmark -Dexec.args=10000000
+ * </pre>
+ *
+ * The optional argument is the number of records (default 10000000,
+ * 640 MB in a temporary directory).
+ *
+ * @author th
+ */
+public class TapJournalBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int records = args.length > 0 ? Integer.parseInt( args[ 0 ] )
+      : 10_000_000;
+    Bench.quietLogging();
+
+    Path directory = Files.createTempDirectory( "tap-journal" );
+    String[] readers =
+    {
+      "Reader 0", "Reader 1", "Reader 2", "Reader 3"
+    };
+    byte[] uid =
+    {
+      (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C,
+      (byte) 0x91, (byte) 0x3E, (byte) 0x80
+    };
+
+    try
+    {
+      TapJournal journal = new TapJournal( directory );
+      long[] next = new long[ 1 ];
+
+      Bench.allocation( "TapJournal.append", 100_000, () ->
+        Bench.consume( append( journal, readers, uid, next[ 0 ]++ ) ) );
+
+      long start = System.nanoTime();
+      for( int i = 0; i < records; i++ )
+      {
+        append( journal, readers, uid, next[ 0 ]++ );
+      }
+      long elapsed = System.nanoTime() - start;
+      Bench.report( "TapJournal.append (" + records + " records)",
+        (double) elapsed / records );
+      System.out.printf( "%-48s %10.0f records/s %8.1f MiB/s%n",
+        "sustained append", records * 1e9 / elapsed,
+        records * 64.0 * 1e9 / elapsed / ( 1024 * 1024 ) );
+
+      long last = journal.getLastSequence();
+      start = System.nanoTime();
+      while( journal.getDurableSequence() < last )
+      {
+        Thread.sleep( 1 );
+      }
+      System.out.printf( "%-48s %10.1f ms%n", "group commit caught up after",
+        ( System.nanoTime() - start ) / 1e6 );
+      journal.close();
+
+      TapJournalReader reader = new TapJournalReader( directory );
+      long[] sum = new long[ 1 ];
+
+      for( int round = 0; round < 3; round++ )
+      {
+        start = System.nanoTime();
+        long count = reader.scan( record ->
+        {
+          sum[ 0 ] += record.getSerial();
+          return true;
+        } );
+        report( "replay, round " + ( round + 1 ), count, last, start );
+      }
+
+      start = System.nanoTime();
+      long count = reader.scanSerial( 4711, record -> true );
+      report( "scanSerial (" + count + " matches)", count, last, start );
+
+      long now = System.currentTimeMillis();
+      start = System.nanoTime();
+      count = reader.scanTimeRange( now - 60_000, now, record -> true );
+      report( "scanTimeRange, last minute (" + count + " matches)", count,
+        last, start );
+
+      tearLastRecord( directory );
+      start = System.nanoTime();
+      try( TapJournal recovered = new TapJournal( directory ) )
+      {
+        System.out.printf( "%-48s %10.1f ms, last sequence %d of %d%n",
+          "recovery of a torn record",
+          ( System.nanoTime() - start ) / 1e6, recovered.getLastSequence(),
+          last );
+      }
+      Bench.consume( sum[ 0 ] );
+    }
+    finally
+    {
+      try( Stream<Path> files = Files.walk( directory ) )
+      {
+        for( Path file : files.sorted( Comparator.reverseOrder() ).toList() )
+        {
+          Files.delete( file );
+        }
+      }
+    }
+
+    System.exit( 0 );
+  }
+
+  private static long append( TapJournal journal, String[] readers,
+    byte[] uid, long i )
+  {
+    return journal.append( System.currentTimeMillis(),
+      readers[ (int) ( i & 3 ) ], uid, 0, uid.length, true, i % 10_000,
+      TapOutcome.SUCCESS, 3_000_000 );
+  }
+
+  private static void report( String name, long count, long records,
+    long start )
+  {
+    long elapsed = System.nanoTime() - start;
+    System.out.printf( "%-48s %10.0f records/s %8.1f MiB/s%n", name,
+      records * 1e9 / elapsed,
+      records * 64.0 * 1e9 / elapsed / ( 1024 * 1024 ) );
+    Bench.consume( count );
+  }
+
+  /**
+   * Overwrites the CRC of the last record, as if the process died while
+   * writing it.
+   */
+  private static void tearLastRecord( Path directory )
+    throws Exception
+  {
+    List<Path> segments;
+    try( Stream<Path> files = Files.list( directory ) )
+    {
+      segments = files.sorted().toList();
+    }
+
+    try( FileChannel channel = FileChannel.open(
+      segments.get( segments.size() - 1 ), StandardOpenOption.READ,
+      StandardOpenOption.WRITE ) )
+    {
+      ByteBuffer record = ByteBuffer.allocate( 64 )
+        .order( ByteOrder.LITTLE_ENDIAN );
+      long end = channel.size();
+      // the segment is mapped at full size, find the last record written
+      long offset = end - 64;
+      while( offset >= 0 )
+      {
+        channel.read( record.clear(), offset );
+        if( record.getLong( 0 ) != 0 )
+        {
+          break;
+        }
+        offset -= 64;
+      }
+      channel.write( ByteBuffer.wrap( new byte[]
+      {
+        0, 0, 0, 0
+      } ), offset + 60 );
+    }
+  }
+
+}
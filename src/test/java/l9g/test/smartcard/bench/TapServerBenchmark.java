@@ -0,0 +1,287 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import l9g.test.smartcard.daemon.TapServer;
+import l9g.test.smartcard.event.OverflowPolicy;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapEventPublisher;
+import l9g.test.smartcard.event.TapOutcome;
+import l9g.test.smartcard.metrics.LatencyRecorder;
+import l9g.test.smartcard.metrics.LatencySnapshot;
+
+/**
+ * Load generator for the {@link TapServer}: publishes taps at a fixed
+ * rate to hundreds of subscribed clients, over a Unix domain and a
+ * loopback TCP socket, and measures the latency from the creation of a
+ * tap event until a client has read its line. One more client keeps
+ * sending {@code LAST} queries meanwhile.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=l9g.test.smartcard.bench.TapServerBenchmark -Dexec.args="500 200"
+ * </pre>
+ *
+ * The optional arguments are the maximum number of subscribers (default
+ * 500) and the taps per second (default 200).
+ *
+ * @author th
+ */
+public class TapServerBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    int maxSubscribers = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 500;
+    int rate = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 200;
+    Bench.quietLogging();
+
+    Path socket = Files.createTempDirectory( "tap-server" )
+      .resolve( "tap.sock" );
+
+    for( String spec : List.of( socket.toString(), "0" ) )
+    {
+      System.out.println( "--- " + ( spec.equals( "0" ) ? "loopback TCP"
+        : "Unix domain socket" ) + ", " + rate + " taps/s" );
+      for( int subscribers = 1; subscribers < maxSubscribers;
+        subscribers *= 10 )
+      {
+        run( spec, subscribers, rate );
+      }
+      run( spec, maxSubscribers, rate );
+    }
+
+    Files.deleteIfExists( socket.getParent() );
+  }
+
+  private static void run( String spec, int count, int rate )
+    throws Exception
+  {
+    TapEventPublisher events = new TapEventPublisher(
+      TapEventPublisher.DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST );
+    TapServer server = new TapServer( TapServer.address( spec ) );
+    events.subscribe( server );
+    SocketAddress address = server.getAddress();
+
+    LatencyRecorder taps = new LatencyRecorder();
+    LatencyRecorder queries = new LatencyRecorder();
+    LongAdder received = new LongAdder();
+    AtomicBoolean running = new AtomicBoolean( true );
+    List<SocketChannel> channels = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+
+    Selector selector = Selector.open();
+    for( int i = 0; i < count; i++ )
+    {
+      SocketChannel channel = SocketChannel.open( address );
+      channel.write( ByteBuffer.wrap( "SUBSCRIBE\n".getBytes(
+        StandardCharsets.US_ASCII ) ) );
+      channel.configureBlocking( false );
+      channel.register( selector, SelectionKey.OP_READ,
+        ByteBuffer.allocate( 8192 ) );
+      channels.add( channel );
+    }
+    // one thread for all subscribers, so the clients do not take the
+    // CPU from the server
+    threads.add( Thread.ofPlatform().name( "subscribers" ).start( () ->
+      subscribers( selector, taps, received ) ) );
+
+    while( server.getSubscribers() < count )
+    {
+      Thread.sleep( 10 );
+    }
+
+    SocketChannel queryChannel = SocketChannel.open( address );
+    channels.add( queryChannel );
+    threads.add( Thread.ofPlatform().start( () ->
+      querier( queryChannel, queries, running ) ) );
+
+    long submitted = generate( events, rate, running );
+
+    // let the last taps arrive
+    Thread.sleep( 200 );
+    for( SocketChannel channel : channels )
+    {
+      channel.close();
+    }
+    selector.close();
+    for( Thread thread : threads )
+    {
+      thread.join();
+    }
+    events.close();
+    server.close();
+
+    LatencySnapshot tap = taps.snapshot();
+    LatencySnapshot query = queries.snapshot();
+    System.out.printf( "%4d subscribers: %9d/%9d lines, tap p50 %6.0f  "
+      + "p99 %6.0f  p999 %6.0f  max %6.0f us, LAST p50 %5.0f us, "
+      + "%d dropped, %d evicted%n", count, received.sum(), submitted * count,
+      tap.p50() / 1e3, tap.p99() / 1e3, tap.p999() / 1e3, tap.max() / 1e3,
+      query.p50() / 1e3, events.getDropped(), server.getEvicted() );
+  }
+
+  /**
+   * Publishes taps on 16 readers for {@link #DURATION_MILLIS}.
+   *
+   * @return the number of taps
+   */
+  private static long generate( TapEventPublisher events, int rate,
+    AtomicBoolean running )
+  {
+    byte[] uid =
+    {
+      (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C,
+      (byte) 0x91, (byte) 0x3E, (byte) 0x80
+    };
+    long interval = 1_000_000_000L / rate;
+    long start = System.nanoTime();
+    long end = start + DURATION_MILLIS * 1_000_000;
+    long count = 0;
+
+    for( long next = start; next < end; next += interval )
+    {
+      LockSupport.parkNanos( next - System.nanoTime() );
+      events.submit( new TapEvent( "Load Reader " + ( count % 16 ),
+        "3B8F8001804F0CA000000306030001000000006A", uid, count,
+        "user" + count, TapOutcome.SUCCESS, Instant.now(), 20_000_000 ) );
+      count++;
+    }
+
+    running.set( false );
+    return count;
+  }
+
+  private static void subscribers( Selector selector, LatencyRecorder taps,
+    LongAdder received )
+  {
+    try
+    {
+      while( selector.isOpen() )
+      {
+        selector.select();
+        for( SelectionKey key : selector.selectedKeys() )
+        {
+          ByteBuffer buffer = (ByteBuffer) key.attachment();
+          if( ( (SocketChannel) key.channel() ).read( buffer ) < 0 )
+          {
+            key.cancel();
+            continue;
+          }
+
+          int start = 0;
+          for( int i = 0; i < buffer.position(); i++ )
+          {
+            if( buffer.get( i ) == '\n' )
+            {
+              tapLine( buffer, start, i, taps, received );
+              start = i + 1;
+            }
+          }
+          buffer.limit( buffer.position() ).position( start );
+          buffer.compact();
+        }
+        selector.selectedKeys().clear();
+      }
+    }
+    catch( IOException | ClosedSelectorException e )
+    {
+      // closed at the end of the run
+    }
+  }
+
+  private static void tapLine( ByteBuffer buffer, int start, int end,
+    LatencyRecorder taps, LongAdder received )
+  {
+    String line = new String( buffer.array(), start, end - start,
+      StandardCharsets.UTF_8 );
+    if( line.startsWith( "TAP\t" ) )
+    {
+      Instant time = Instant.parse( line.substring( 4,
+        line.indexOf( '\t', 4 ) ) );
+      taps.record( epochNanos( Instant.now() ) - epochNanos( time ) );
+      received.increment();
+    }
+  }
+
+  private static void querier( SocketChannel channel,
+    LatencyRecorder queries, AtomicBoolean running )
+  {
+    try
+    {
+      BufferedReader in = reader( channel );
+      ByteBuffer last = ByteBuffer.wrap( "LAST\n".getBytes(
+        StandardCharsets.US_ASCII ) );
+
+      while( running.get() )
+      {
+        long start = System.nanoTime();
+        channel.write( last.rewind() );
+        String line;
+        while( ( line = in.readLine() ) != null && !line.equals( "END" ) )
+        {
+          // the last tap of every reader
+        }
+        queries.record( System.nanoTime() - start );
+        Thread.sleep( 1 );
+      }
+    }
+    catch( IOException e )
+    {
+      // closed at the end of the run
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Not {@code Channels.newReader}, which blocks until its buffer is
+   * full.
+   */
+  private static BufferedReader reader( SocketChannel channel )
+  {
+    return new BufferedReader( new InputStreamReader(
+      Channels.newInputStream( channel ), StandardCharsets.UTF_8 ) );
+  }
+
+  private static long epochNanos( Instant instant )
+  {
+    return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+  }
+
+  private static final long DURATION_MILLIS = 5000;
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.bench;
+
+import l9g.test.smartcard.UidCodec;
+
+/**
+ * Compares the former {@code String.format} based hex encoding with the
+ * table driven {@link UidCodec} and checks that the codec does not
+ * allocate.
+ *
+ * @author th
+ */
+public class UidCodecBenchmark
+{
+  public static void main( String[] args )
+    throws Exception
+  {
+    // a GET UID response: 7 byte UID followed by SW 9000
+    byte[] response =
+    {
+      (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C,
+      (byte) 0x91, (byte) 0x3E, (byte) 0x80, (byte) 0x90, (byte) 0x00
+    };
+    int uidLength = response.length - 2;
+    char[] hex = new char[ 2 * UidCodec.UID_TRIPLE_SIZE ];
+    byte[] decoded = new byte[ UidCodec.UID_TRIPLE_SIZE ];
+    StringBuilder line = new StringBuilder( 64 );
+    String hexUid = "048A2B6C913E80";
+
+    Bench.run( "String.format hex (former bytesToHex)", 100_000, () ->
+    {
+      StringBuilder sb = new StringBuilder();
+      for( int i = 0; i < uidLength; i++ )
+      {
+        sb.append( String.format( "%02X", response[ i ] ) );
+      }
+      Bench.consume( sb );
+    } );
+
+    Bench.run( "UidCodec.encodeHex into char[]", 10_000_000, () ->
+      Bench.consume( UidCodec.encodeHex( response, 0, uidLength, hex, 0 ) ) );
+
+    Bench.run( "UidCodec.encodeHex into StringBuilder", 10_000_000, () ->
+    {
+      line.setLength( 0 );
+      Bench.consume( UidCodec.encodeHex( response, 0, uidLength, line )
+        .length() );
+    } );
+
+    Bench.run( "UidCodec.decodeHex", 10_000_000, () ->
+      Bench.consume( UidCodec.decodeHex( hexUid, 0, hexUid.length(),
+        decoded, 0 ) ) );
+
+    Bench.run( "UidCodec.toLongLittleEndian", 10_000_000, () ->
+      Bench.consume( UidCodec.toLongLittleEndian( response, 0, uidLength ) ) );
+
+    Bench.run( "UidCodec.toLongBigEndian", 10_000_000, () ->
+      Bench.consume( UidCodec.toLongBigEndian( response, 0, uidLength ) ) );
+
+    System.out.println( "--- allocation per tap (encode, decode, serial)" );
+    Bench.allocation( "String.format hex", 100_000, () ->
+    {
+      StringBuilder sb = new StringBuilder();
+      for( int i = 0; i < uidLength; i++ )
+      {
+        sb.append( String.format( "%02X", response[ i ] ) );
+      }
+      Bench.consume( sb );
+    } );
+
+    Bench.allocation( "UidCodec", 1_000_000, () ->
+    {
+      line.setLength( 0 );
+      UidCodec.encodeHex( response, 0, uidLength, line );
+      UidCodec.encodeHex( response, 0, uidLength, hex, 0 );
+      UidCodec.decodeHex( hexUid, 0, hexUid.length(), decoded, 0 );
+      Bench.consume( UidCodec.toLongLittleEndian( response, 0, uidLength )
+        + UidCodec.toLongBigEndian( response, 0, uidLength ) );
+    } );
+  }
+
+}
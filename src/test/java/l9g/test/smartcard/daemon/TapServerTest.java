@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.daemon;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class TapServerTest
+{
+  @Test
+  public void controlCharactersCanNotBreakTheLine()
+  {
+    String line = TapServer.format( new TapEvent( "Reader\t0\\", null,
+      new byte[]
+      {
+        1, 2
+      }, 513L, "bob\nTAP\u0007", TapOutcome.SUCCESS,
+      Instant.parse( "2026-10-16T09:12:03Z" ), 812_000 ) );
+
+    assertEquals( "TAP\t2026-10-16T09:12:03Z\tReader\\t0\\\\\t0102\t513"
+      + "\tbob\\nTAP\\x07\tSUCCESS\t812", line );
+  }
+
+  @Test
+  public void subscriberReceivesTaps( @TempDir Path dir )
+    throws Exception
+  {
+    Path socket = dir.resolve( "tap.sock" );
+
+    try( TapServer server =
+      new TapServer( UnixDomainSocketAddress.of( socket ) );
+      Connection client = new Connection( socket ) )
+    {
+      assertEquals( "OK", client.command( "SUBSCRIBE" ) );
+      server.onNext( event( "Reader 0" ) );
+      assertTrue( client.in.readLine().startsWith( "TAP\t" ) );
+      assertEquals( "PONG", client.command( "PING" ) );
+    }
+    assertFalse( Files.exists( socket ) );
+  }
+
+  @Test
+  public void runningServerKeepsItsSocket( @TempDir Path dir )
+    throws Exception
+  {
+    UnixDomainSocketAddress address =
+      UnixDomainSocketAddress.of( dir.resolve( "tap.sock" ) );
+
+    TapServer server = new TapServer( address );
+    try
+    {
+      assertThrows( BindException.class, () -> new TapServer( address ) );
+      try( Connection client = new Connection( address.getPath() ) )
+      {
+        assertEquals( "PONG", client.command( "PING" ) );
+      }
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  @Test
+  public void staleSocketIsReplaced( @TempDir Path dir )
+    throws Exception
+  {
+    Path socket = dir.resolve( "tap.sock" );
+    // left over by a killed daemon, nobody listens
+    Files.createFile( socket );
+
+    TapServer server = new TapServer( UnixDomainSocketAddress.of( socket ) );
+    try( Connection client = new Connection( socket ) )
+    {
+      assertEquals( "PONG", client.command( "PING" ) );
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  @Test
+  public void lastIsAskedWithTheEscapedReaderName( @TempDir Path dir )
+    throws Exception
+  {
+    Path socket = dir.resolve( "tap.sock" );
+
+    try( TapServer server =
+      new TapServer( UnixDomainSocketAddress.of( socket ) );
+      Connection client = new Connection( socket ) )
+    {
+      server.onNext( event( "Reader 0" ) );
+      server.onNext( event( "Reader\t1" ) );
+
+      assertTrue( client.command( "LAST Reader 0" )
+        .contains( "\tReader 0\t" ) );
+      assertEquals( "END", client.in.readLine() );
+      assertTrue( client.command( "LAST Reader\\t1" )
+        .contains( "\tReader\\t1\t" ) );
+      assertEquals( "END", client.in.readLine() );
+      // the raw name is not in any tap line
+      assertEquals( "END", client.command( "LAST Reader\t1" ) );
+
+      assertTrue( client.command( "LAST" ).contains( "\tReader 0\t" ) );
+      assertTrue( client.in.readLine().contains( "\tReader\\t1\t" ) );
+      assertEquals( "END", client.in.readLine() );
+    }
+  }
+
+  @Test
+  public void interruptedCloseKeepsTheInterrupt( @TempDir Path dir )
+    throws Exception
+  {
+    Path socket = dir.resolve( "tap.sock" );
+    TapServer server = new TapServer( UnixDomainSocketAddress.of( socket ) );
+
+    Thread.currentThread().interrupt();
+    try
+    {
+      server.close();
+      assertTrue( Thread.currentThread().isInterrupted() );
+    }
+    finally
+    {
+      Thread.interrupted();
+    }
+    assertFalse( Files.exists( socket ) );
+  }
+
+  private static TapEvent event( String reader )
+  {
+    return new TapEvent( reader, null, new byte[]
+    {
+      4, 3, 2, 1
+    }, 0x01020304L, "alice", TapOutcome.SUCCESS, Instant.now(), 0 );
+  }
+
+  /**
+   * A blocking client of the line protocol.
+   */
+  private static final class Connection implements AutoCloseable
+  {
+    Connection( Path socket )
+      throws Exception
+    {
+      channel = SocketChannel.open( UnixDomainSocketAddress.of( socket ) );
+      in = new BufferedReader( new InputStreamReader(
+        Channels.newInputStream( channel ), StandardCharsets.UTF_8 ) );
+      out = Channels.newOutputStream( channel );
+    }
+
+    String command( String command )
+      throws Exception
+    {
+      out.write( ( command + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+      out.flush();
+      return in.readLine();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      channel.close();
+    }
+
+    private final SocketChannel channel;
+
+    private final BufferedReader in;
+
+    private final OutputStream out;
+
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.debounce;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@link TapDebouncer#accept(int, long, long)} with explicit tap
+ * times from racing reader threads.
+ *
+ * @author th
+ */
+public class TapDebouncerTest
+{
+  @Test
+  public void serialZeroHasItsOwnKey()
+  {
+    TapDebouncer debouncer = debouncer( 1000, 1000 );
+    long t = System.nanoTime();
+
+    assertTrue( debouncer.accept( 0, 0L, t ) );
+    assertTrue( debouncer.accept( 0, Long.MIN_VALUE, t ) );
+    assertTrue( debouncer.accept( 0, 1L, t ) );
+    assertFalse( debouncer.accept( 0, 0L, t + MS ) );
+    assertFalse( debouncer.accept( 1, 0L, t + MS ) );
+    assertFalse( debouncer.accept( 0, Long.MIN_VALUE, t + MS ) );
+    assertFalse( debouncer.accept( 0, 1L, t + MS ) );
+
+    DebounceTable table = new DebounceTable( 16 );
+    assertTrue( table.record( 0L, 3, 100 ) );
+    assertTrue( table.seen( 0L, 3, 150, 100, 0 ) );
+    assertFalse( table.seen( Long.MIN_VALUE, 3, 150, 100, 0 ) );
+    assertFalse( table.seen( 1L, 3, 150, 100, 0 ) );
+    assertEquals( DebounceTable.CLAIMED, table.claim( 0L, 100, 100 ) );
+    assertEquals( DebounceTable.CLAIMED, table.claim( 1L, 100, 100 ) );
+    assertEquals( DebounceTable.DUPLICATE, table.claim( 0L, 150, 100 ) );
+  }
+
+  @Test
+  public void racingReadersAcceptASerialOncePerWindow()
+    throws Exception
+  {
+    int readers = 8;
+    int serials = 2000;
+    TapDebouncer debouncer = debouncer( 1000, 1000 );
+    long t = System.nanoTime();
+    AtomicIntegerArray accepted = new AtomicIntegerArray( 2 * serials );
+
+    race( readers, ( reader, barrier ) ->
+    {
+      for( int i = 0; i < serials; i++ )
+      {
+        barrier.await( 10, TimeUnit.SECONDS );
+        // within the window on every reader
+        if( debouncer.accept( reader, 1000 + i, t + reader * MS ) )
+        {
+          accepted.incrementAndGet( i );
+        }
+        // a window after the latest of those, all readers at once
+        if( debouncer.accept( reader, 1000 + i,
+          t + ( 1000 + readers ) * MS ) )
+        {
+          accepted.incrementAndGet( serials + i );
+        }
+      }
+    } );
+
+    for( int i = 0; i < 2 * serials; i++ )
+    {
+      assertEquals( 1, accepted.get( i ), "serial " + ( 1000 + i % serials ) );
+    }
+    assertEquals( 2 * serials, debouncer.getAccepted() );
+    assertEquals( 2 * serials * ( readers - 1 ), debouncer.getSuppressed() );
+    assertEquals( 0, debouncer.getOverflows() );
+  }
+
+  @Test
+  public void differentSerialsDoNotInterfere()
+    throws Exception
+  {
+    int readers = 8;
+    int serials = 1000;
+    TapDebouncer debouncer = debouncer( 1000, 1000 );
+    long t = System.nanoTime();
+    AtomicIntegerArray failures = new AtomicIntegerArray( readers );
+
+    race( readers, ( reader, barrier ) ->
+    {
+      barrier.await( 10, TimeUnit.SECONDS );
+      // serial 0 belongs to reader 0
+      for( long serial = reader; serial < readers * serials;
+        serial += readers )
+      {
+        if( !debouncer.accept( reader, serial, t )
+          || debouncer.accept( reader, serial, t + MS ) )
+        {
+          failures.incrementAndGet( reader );
+        }
+      }
+    } );
+
+    for( int reader = 0; reader < readers; reader++ )
+    {
+      assertEquals( 0, failures.get( reader ), "reader " + reader );
+    }
+    assertEquals( readers * serials, debouncer.getAccepted() );
+    assertEquals( 0, debouncer.getOverflows() );
+  }
+
+  @Test
+  public void readerWindowOutlastsTheGlobalWindow()
+  {
+    TapDebouncer debouncer = debouncer( 3000, 1000 );
+    long t = System.nanoTime();
+
+    assertTrue( debouncer.accept( 0, 42, t ) );
+    assertFalse( debouncer.accept( 1, 42, t + 999 * MS ) );
+    // another reader after the global window
+    assertTrue( debouncer.accept( 1, 42, t + 1000 * MS ) );
+    // the first reader within its own window
+    assertFalse( debouncer.accept( 0, 42, t + 2999 * MS ) );
+    // suppressed taps do not extend the window
+    assertTrue( debouncer.accept( 0, 42, t + 3000 * MS ) );
+  }
+
+  private static TapDebouncer debouncer( long readerMillis,
+    long globalMillis )
+  {
+    return new TapDebouncer( Duration.ofMillis( readerMillis ),
+      Duration.ofMillis( globalMillis ), 8192 );
+  }
+
+  /**
+   * Runs {@code body} on one thread per reader and rethrows the first
+   * failure.
+   */
+  private static void race( int readers, ReaderBody body )
+    throws Exception
+  {
+    CyclicBarrier barrier = new CyclicBarrier( readers );
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+
+    for( int i = 0; i < readers; i++ )
+    {
+      int reader = i;
+      threads.add( Thread.ofPlatform().start( () ->
+      {
+        try
+        {
+          body.run( reader, barrier );
+        }
+        catch( Throwable e )
+        {
+          synchronized( failures )
+          {
+            failures.add( e );
+          }
+          barrier.reset();
+        }
+      } ) );
+    }
+
+    for( Thread thread : threads )
+    {
+      thread.join();
+    }
+    if( !failures.isEmpty() )
+    {
+      throw new AssertionError( failures.get( 0 ) );
+    }
+  }
+
+  @FunctionalInterface
+  private interface ReaderBody
+  {
+    void run( int reader, CyclicBarrier barrier )
+      throws Exception;
+  }
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+}
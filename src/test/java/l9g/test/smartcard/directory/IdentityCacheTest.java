@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.directory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import l9g.test.smartcard.sim.SimulatedDirectoryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the {@link IdentityCache} against the simulated directory.
+ *
+ * @author th
+ */
+public class IdentityCacheTest
+{
+  @Test
+  public void hitsDoNotAskTheDirectory()
+    throws Exception
+  {
+    directory.put( 1, "alice" );
+
+    try( IdentityCache cache = newCache( Duration.ofHours( 1 ),
+      Duration.ofMinutes( 45 ) ) )
+    {
+      for( int i = 0; i < 100; i++ )
+      {
+        assertEquals( "alice", cache.lookup( 1 ) );
+        assertNull( cache.lookup( 2 ) );
+      }
+
+      assertEquals( 2, directory.getLookups() );
+      IdentityCacheStatistics statistics = cache.getStatistics();
+      assertEquals( 99, statistics.hits() );
+      assertEquals( 99, statistics.negativeHits() );
+      assertEquals( 2, statistics.misses() );
+    }
+  }
+
+  @Test
+  public void staleEntriesAreRefreshedInTheBackground()
+    throws Exception
+  {
+    directory.put( 1, "alice" );
+
+    try( IdentityCache cache = newCache( Duration.ofHours( 1 ),
+      Duration.ofMillis( 50 ) ) )
+    {
+      assertEquals( "alice", cache.lookup( 1 ) );
+      directory.put( 1, "bob" );
+      Thread.sleep( 100 );
+
+      // served from the cache while the refresh runs
+      assertEquals( "alice", cache.lookup( 1 ) );
+      awaitRefreshes( cache, 1 );
+      assertEquals( "bob", cache.lookup( 1 ) );
+    }
+  }
+
+  @Test
+  public void failedLookupsAreNotCached()
+    throws Exception
+  {
+    directory.put( 1, "alice" );
+    directory.setAvailable( false );
+
+    try( IdentityCache cache = newCache( Duration.ofHours( 1 ),
+      Duration.ofMinutes( 45 ) ) )
+    {
+      assertThrows( IOException.class, () -> cache.lookup( 1 ) );
+      directory.setAvailable( true );
+      assertEquals( "alice", cache.lookup( 1 ) );
+      assertEquals( 1, cache.getStatistics().loadFailures() );
+    }
+  }
+
+  @Test
+  public void preloadedEntriesAreServedWithoutDirectory( @TempDir Path dir )
+    throws Exception
+  {
+    Path export = dir.resolve( "export.csv" );
+    Files.writeString( export, """
+      # serial;identity
+      1;alice
+      2,bob
+      invalid;carol
+      """ );
+
+    try( IdentityCache cache = newCache( Duration.ofHours( 1 ),
+      Duration.ofMinutes( 45 ) ) )
+    {
+      assertEquals( 2, cache.preload( export ) );
+      assertEquals( "alice", cache.lookup( 1 ) );
+      assertEquals( "bob", cache.lookup( 2 ) );
+      assertEquals( 0, directory.getLookups() );
+    }
+  }
+
+  @Test
+  public void preloadOnlyCacheNeverExpiresNorForgets( @TempDir Path dir )
+    throws Exception
+  {
+    Path export = dir.resolve( "export.csv" );
+    Files.writeString( export, "1;alice\n2;bob\n" );
+
+    try( IdentityCache cache = new IdentityCache( 2 ) )
+    {
+      cache.preload( export );
+
+      // unknown cards must not evict the export
+      for( long serial = 100; serial < 200; serial++ )
+      {
+        assertNull( cache.lookup( serial ) );
+      }
+      assertEquals( "alice", cache.lookup( 1 ) );
+      assertEquals( "bob", cache.lookup( 2 ) );
+
+      IdentityCacheStatistics statistics = cache.getStatistics();
+      assertEquals( 0, statistics.refreshes() );
+      assertEquals( 0, statistics.expirations() );
+      assertEquals( 0, statistics.evictions() );
+    }
+  }
+
+  private IdentityCache newCache( Duration ttl, Duration refreshAfter )
+  {
+    return new IdentityCache( directory, 1000, ttl, Duration.ofMinutes( 1 ),
+      refreshAfter );
+  }
+
+  private static void awaitRefreshes( IdentityCache cache, long refreshes )
+    throws InterruptedException
+  {
+    for( int i = 0; i < 500
+      && cache.getStatistics().refreshes() < refreshes; i++ )
+    {
+      Thread.sleep( 10 );
+    }
+    assertEquals( refreshes, cache.getStatistics().refreshes() );
+  }
+
+  private final SimulatedDirectoryService directory =
+    new SimulatedDirectoryService( Duration.ZERO );
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.event;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the {@link TapEventPublisher} with subscribers that request
+ * on demand.
+ *
+ * @author th
+ */
+public class TapEventPublisherTest
+{
+  @Test
+  public void dropOldestKeepsTheLatestEvents()
+    throws Exception
+  {
+    try( TapEventPublisher publisher =
+      new TapEventPublisher( 2, OverflowPolicy.DROP_OLDEST ) )
+    {
+      assertFalse( publisher.hasSubscribers() );
+      Recorder<TapEvent> recorder = new Recorder<>();
+      publisher.subscribe( recorder );
+      assertTrue( publisher.hasSubscribers() );
+
+      for( int i = 0; i < 5; i++ )
+      {
+        publisher.submit( event( i ) );
+      }
+      recorder.subscription().request( Long.MAX_VALUE );
+
+      assertEquals( "Reader 3", recorder.next().reader() );
+      assertEquals( "Reader 4", recorder.next().reader() );
+      assertEquals( 5, publisher.getSubmitted() );
+      assertEquals( 3, publisher.getDropped() );
+    }
+  }
+
+  @Test
+  public void blockWaitsForTheSubscriber()
+    throws Exception
+  {
+    try( TapEventPublisher publisher =
+      new TapEventPublisher( 1, OverflowPolicy.BLOCK ) )
+    {
+      Recorder<TapEvent> recorder = new Recorder<>();
+      publisher.subscribe( recorder );
+      publisher.submit( event( 0 ) );
+
+      CountDownLatch submitted = new CountDownLatch( 1 );
+      Thread.ofVirtual().start( () ->
+      {
+        publisher.submit( event( 1 ) );
+        submitted.countDown();
+      } );
+      assertFalse( submitted.await( 200, TimeUnit.MILLISECONDS ),
+        "submit did not block on a full buffer" );
+
+      recorder.subscription().request( Long.MAX_VALUE );
+      assertTrue( submitted.await( 5, TimeUnit.SECONDS ) );
+      assertEquals( "Reader 0", recorder.next().reader() );
+      assertEquals( "Reader 1", recorder.next().reader() );
+      assertEquals( 0, publisher.getDropped() );
+    }
+  }
+
+  @Test
+  public void burstIsDeliveredAsOneBatch()
+    throws Exception
+  {
+    try( TapEventPublisher publisher = new TapEventPublisher() )
+    {
+      Recorder<List<TapEvent>> recorder = new Recorder<>();
+      publisher.subscribeBatched( recorder, 10, Duration.ofSeconds( 1 ) );
+      recorder.subscription().request( Long.MAX_VALUE );
+
+      long start = System.nanoTime();
+      for( int i = 0; i < 10; i++ )
+      {
+        publisher.submit( event( i ) );
+      }
+
+      // a full batch does not wait for the delay
+      assertEquals( 10, recorder.next().size() );
+      assertTrue( System.nanoTime() - start
+        < TimeUnit.MILLISECONDS.toNanos( 500 ) );
+
+      publisher.submit( event( 10 ) );
+      assertEquals( List.of( "Reader 10" ), recorder.next().stream()
+        .map( TapEvent::reader ).toList() );
+    }
+  }
+
+  @Test
+  public void closeCompletesAfterTheBufferedEvents()
+    throws Exception
+  {
+    TapEventPublisher publisher = new TapEventPublisher();
+    Recorder<TapEvent> recorder = new Recorder<>();
+    publisher.subscribe( recorder );
+    publisher.submit( event( 0 ) );
+    publisher.close();
+
+    recorder.subscription().request( 1 );
+    assertEquals( "Reader 0", recorder.next().reader() );
+    recorder.subscription().request( 1 );
+    assertNull( recorder.terminated.get( 5, TimeUnit.SECONDS ) );
+    assertFalse( publisher.hasSubscribers() );
+  }
+
+  @Test
+  public void failSignalsTheOverflow()
+    throws Exception
+  {
+    try( TapEventPublisher publisher =
+      new TapEventPublisher( 1, OverflowPolicy.FAIL ) )
+    {
+      Recorder<TapEvent> recorder = new Recorder<>();
+      publisher.subscribe( recorder );
+      publisher.submit( event( 0 ) );
+      publisher.submit( event( 1 ) );
+
+      assertInstanceOf( IllegalStateException.class,
+        recorder.terminated.get( 5, TimeUnit.SECONDS ) );
+      assertEquals( 1, publisher.getDropped() );
+      assertFalse( publisher.hasSubscribers() );
+    }
+  }
+
+  @Test
+  public void slowSubscribersKeepAtMostTheirBuffers()
+    throws Exception
+  {
+    Slow<TapEvent> slow = new Slow<>();
+    Slow<List<TapEvent>> slowBatches = new Slow<>();
+    List<WeakReference<TapEvent>> submitted = new ArrayList<>();
+    TapEventPublisher publisher =
+      new TapEventPublisher( 64, OverflowPolicy.DROP_OLDEST );
+    publisher.subscribe( slow );
+    publisher.subscribeBatched( slowBatches, 16, Duration.ofMillis( 5 ) );
+
+    for( int i = 0; i < 20_000; i++ )
+    {
+      TapEvent event = event( i );
+      submitted.add( new WeakReference<>( event ) );
+      publisher.submit( event );
+    }
+
+    // both subscribers are far behind: two buffers, one batch and one
+    // event in delivery may still be reachable
+    int bound = 2 * 64 + 16 + 1;
+    int reachable = Integer.MAX_VALUE;
+    for( int i = 0; i < 10 && reachable > bound; i++ )
+    {
+      System.gc();
+      reachable = (int) submitted.stream()
+        .filter( r -> r.get() != null ).count();
+    }
+    assertTrue( reachable <= bound, reachable + " events reachable" );
+    assertTrue( publisher.getDropped() > 0 );
+
+    publisher.close();
+    assertTrue( slow.completed.await( 10, TimeUnit.SECONDS ) );
+    assertTrue( slowBatches.completed.await( 10, TimeUnit.SECONDS ) );
+    assertEquals( 20_000, publisher.getSubmitted() );
+    assertEquals( 2 * 20_000, slow.items + slowBatches.items
+      + publisher.getDropped() );
+  }
+
+  private static TapEvent event( int i )
+  {
+    return new TapEvent( "Reader " + i, null, new byte[ 0 ], null, null,
+      TapOutcome.NO_UID, Instant.now(), 0 );
+  }
+
+  /**
+   * Takes 1 ms per item, requests one at a time.
+   */
+  private static final class Slow<T> implements Flow.Subscriber<T>
+  {
+    @Override
+    public void onSubscribe( Flow.Subscription subscription )
+    {
+      this.subscription = subscription;
+      subscription.request( 1 );
+    }
+
+    @Override
+    public void onNext( T item )
+    {
+      try
+      {
+        Thread.sleep( 1 );
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+      items += item instanceof List<?> batch ? batch.size() : 1;
+      subscription.request( 1 );
+    }
+
+    @Override
+    public void onError( Throwable throwable )
+    {
+      completed.countDown();
+    }
+
+    @Override
+    public void onComplete()
+    {
+      completed.countDown();
+    }
+
+    private final CountDownLatch completed = new CountDownLatch( 1 );
+
+    private Flow.Subscription subscription;
+
+    private volatile long items;
+
+  }
+
+  /**
+   * Keeps the subscription and every signal, requests nothing by itself.
+   */
+  private static final class Recorder<T> implements Flow.Subscriber<T>
+  {
+    @Override
+    public void onSubscribe( Flow.Subscription subscription )
+    {
+      this.subscription.complete( subscription );
+    }
+
+    @Override
+    public void onNext( T item )
+    {
+      items.add( item );
+    }
+
+    @Override
+    public void onError( Throwable throwable )
+    {
+      terminated.complete( throwable );
+    }
+
+    @Override
+    public void onComplete()
+    {
+      terminated.complete( null );
+    }
+
+    Flow.Subscription subscription()
+      throws Exception
+    {
+      return subscription.get( 5, TimeUnit.SECONDS );
+    }
+
+    T next()
+      throws InterruptedException
+    {
+      T item = items.poll( 5, TimeUnit.SECONDS );
+      assertNotNull( item, "nothing delivered" );
+      return item;
+    }
+
+    private final CompletableFuture<Flow.Subscription> subscription =
+      new CompletableFuture<>();
+
+    private final BlockingQueue<T> items = new LinkedBlockingQueue<>();
+
+    private final CompletableFuture<Throwable> terminated =
+      new CompletableFuture<>();
+
+  }
+
+}
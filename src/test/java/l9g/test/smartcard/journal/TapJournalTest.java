@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import l9g.test.smartcard.event.TapEvent;
+import l9g.test.smartcard.event.TapOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class TapJournalTest
+{
+  @Test
+  public void eventsAreJournaledAcrossSegments( @TempDir Path dir )
+    throws Exception
+  {
+    try( TapJournal journal =
+      new TapJournal( dir, 2, Duration.ofMillis( 10 ) ) )
+    {
+      journal.append( new TapEvent( "Reader 0", null, new byte[]
+      {
+        1, 2, 3, 4
+      }, 0x04030201L, "alice", TapOutcome.SUCCESS, Instant.now(), 5000 ) );
+      // truncated to 10 bytes
+      journal.append( new TapEvent( "Reader 1", null, new byte[]
+      {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12
+      }, null, null, TapOutcome.SUCCESS, Instant.now(), 0 ) );
+      journal.append( new TapEvent( "Reader 2", null, new byte[ 0 ], null,
+        null, TapOutcome.NO_UID, Instant.now(), 0 ) );
+      assertEquals( 3, journal.getLastSequence() );
+    }
+
+    List<String> records = new ArrayList<>();
+    List<byte[]> uids = new ArrayList<>();
+    assertEquals( 3, new TapJournalReader( dir ).scan( record ->
+    {
+      records.add( record.getReader() + " " + record.hasSerial() + " "
+        + record.getSerial() + " " + record.getOutcome() );
+      uids.add( record.getUid() );
+      return true;
+    } ) );
+
+    assertEquals( List.of( "Reader 0 true " + 0x04030201L + " SUCCESS",
+      "Reader 1 false 0 SUCCESS", "Reader 2 false 0 NO_UID" ), records );
+    assertArrayEquals( new byte[]
+    {
+      1, 2, 3, 4
+    }, uids.get( 0 ) );
+    assertArrayEquals( new byte[]
+    {
+      1, 2, 3, 4, 5, 6, 7, 8, 9, 10
+    }, uids.get( 1 ) );
+    assertEquals( 0, uids.get( 2 ).length );
+  }
+
+  @Test
+  public void interruptedCloseStillSyncs( @TempDir Path dir )
+    throws Exception
+  {
+    TapJournal journal = new TapJournal( dir, 16, Duration.ofHours( 1 ) );
+    // subscribed, but the publisher never completes
+    journal.onSubscribe( new Flow.Subscription()
+    {
+      @Override
+      public void request( long n )
+      {
+      }
+
+      @Override
+      public void cancel()
+      {
+      }
+    } );
+    journal.append( System.currentTimeMillis(), "Reader 0", new byte[ 0 ], 0,
+      0, false, 0, TapOutcome.NO_UID, 0 );
+
+    Thread.currentThread().interrupt();
+    long start = System.nanoTime();
+    try
+    {
+      journal.close();
+      assertTrue( Thread.currentThread().isInterrupted() );
+    }
+    finally
+    {
+      Thread.interrupted();
+    }
+
+    assertTrue( System.nanoTime() - start < Duration.ofSeconds( 1 ).toNanos(),
+      "close waited for the publisher" );
+    assertEquals( 1, journal.getDurableSequence() );
+    assertThrows( IllegalStateException.class, () -> journal.append(
+      System.currentTimeMillis(), "Reader 0", new byte[ 0 ], 0, 0, false, 0,
+      TapOutcome.NO_UID, 0 ) );
+    assertFalse( Thread.currentThread().isInterrupted() );
+  }
+
+  @Test
+  public void nextSegmentIsPreparedAhead( @TempDir Path dir )
+    throws Exception
+  {
+    Path second = dir.resolve( "tap-0000000000000005.journal" );
+
+    try( TapJournal journal = new TapJournal( dir, 4, Duration.ofMillis( 1 ) ) )
+    {
+      append( journal, 2 );
+      awaitFile( second );
+    }
+
+    // the prepared segment was never written: dropped on open, the first
+    // segment goes on
+    try( TapJournal journal = new TapJournal( dir, 4, Duration.ofMillis( 1 ) ) )
+    {
+      assertEquals( 2, journal.getLastSequence() );
+      append( journal, 2 );
+      // the segment is full, the prepared one is used after the restart
+      awaitFile( second );
+    }
+
+    try( TapJournal journal = new TapJournal( dir, 4, Duration.ofMillis( 1 ) ) )
+    {
+      assertEquals( 4, journal.getLastSequence() );
+      append( journal, 2 );
+      assertEquals( 6, journal.getLastSequence() );
+    }
+
+    assertEquals( 6, new TapJournalReader( dir ).scan( record -> true ) );
+  }
+
+  @Test
+  public void sealedSegmentWithLostRecordsEndsTheJournal( @TempDir Path dir )
+    throws Exception
+  {
+    try( TapJournal journal = new TapJournal( dir, 2, Duration.ofHours( 1 ) ) )
+    {
+      append( journal, 6 );
+    }
+
+    // a crash lost the second record of the sealed middle segment
+    Path middle = dir.resolve( "tap-0000000000000003.journal" );
+    try( FileChannel channel = FileChannel.open( middle,
+      StandardOpenOption.WRITE ) )
+    {
+      channel.write( ByteBuffer.allocate( TapRecord.SIZE ), TapRecord.SIZE );
+    }
+
+    try( TapJournal journal = new TapJournal( dir, 2, Duration.ofHours( 1 ) ) )
+    {
+      assertEquals( 3, journal.getLastSequence() );
+      assertTrue( Files.exists( dir.resolve(
+        "tap-0000000000000005.journal.damaged" ) ) );
+      // the journal goes on right after the last record read
+      append( journal, 1 );
+    }
+
+    List<Long> sequences = new ArrayList<>();
+    new TapJournalReader( dir ).scan( record ->
+    {
+      sequences.add( record.getSequence() );
+      return true;
+    } );
+    assertEquals( List.of( 1L, 2L, 3L, 4L ), sequences );
+  }
+
+  @Test
+  public void segmentsAreLimitedToWhatOneMappingHolds( @TempDir Path dir )
+  {
+    assertThrows( IllegalArgumentException.class, () -> new TapJournal( dir,
+      TapJournal.MAX_SEGMENT_RECORDS + 1, Duration.ofMillis( 10 ) ) );
+  }
+
+  private static void append( TapJournal journal, int count )
+  {
+    for( int i = 0; i < count; i++ )
+    {
+      journal.append( System.currentTimeMillis(), "Reader 0", new byte[ 0 ],
+        0, 0, false, 0, TapOutcome.NO_UID, 0 );
+    }
+  }
+
+  private static void awaitFile( Path file )
+    throws InterruptedException
+  {
+    long deadline = System.nanoTime() + Duration.ofSeconds( 5 ).toNanos();
+    while( !Files.exists( file ) )
+    {
+      assertTrue( System.nanoTime() < deadline, file + " not prepared" );
+      Thread.sleep( 1 );
+    }
+  }
+
+}
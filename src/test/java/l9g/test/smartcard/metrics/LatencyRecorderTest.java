@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class LatencyRecorderTest
+{
+  @Test
+  public void smallValuesAreExact()
+  {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for( long i = 1; i <= 100; i++ )
+    {
+      recorder.record( i );
+    }
+
+    // exact below 64, buckets of 2 from 64 to 127
+    assertEquals( new LatencySnapshot( 100, 50, 50, 91, 99, 100, 100 ),
+      recorder.snapshot() );
+  }
+
+  @Test
+  public void percentilesOfABimodalDistribution()
+  {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for( int i = 0; i < 990; i++ )
+    {
+      recorder.record( 1_000 );
+    }
+    for( int i = 0; i < 10; i++ )
+    {
+      recorder.record( 1_000_000 );
+    }
+
+    LatencySnapshot snapshot = recorder.snapshot();
+    assertEquals( 1000, snapshot.count() );
+    assertEquals( 10_990, snapshot.mean() );
+    // upper bound of the bucket 992..1007
+    assertEquals( 1_007, snapshot.p50() );
+    assertEquals( 1_007, snapshot.p90() );
+    assertEquals( 1_007, snapshot.p99() );
+    // the bucket reaches up to 1015807, capped at the largest value
+    assertEquals( 1_000_000, snapshot.p999() );
+    assertEquals( 1_000_000, snapshot.max() );
+  }
+
+  @Test
+  public void topBucketCoversLongMaxValue()
+  {
+    int top = LatencyRecorder.indexOf( Long.MAX_VALUE );
+    long topLow = 63L << 57;
+
+    assertEquals( top, LatencyRecorder.indexOf( topLow ) );
+    assertEquals( top - 1, LatencyRecorder.indexOf( topLow - 1 ) );
+    assertEquals( Long.MAX_VALUE, LatencyRecorder.highestValueOf( top ) );
+    assertEquals( topLow - 1, LatencyRecorder.highestValueOf( top - 1 ) );
+
+    LatencyRecorder recorder = new LatencyRecorder();
+    for( int i = 0; i < 9; i++ )
+    {
+      recorder.record( 10 );
+    }
+    recorder.record( topLow + 5 );
+
+    LatencySnapshot snapshot = recorder.snapshot();
+    assertEquals( 10, snapshot.p90() );
+    // top bucket, capped at the largest value instead of Long.MAX_VALUE
+    assertEquals( topLow + 5, snapshot.p99() );
+    assertEquals( topLow + 5, snapshot.p999() );
+    assertEquals( topLow + 5, snapshot.max() );
+
+    recorder.reset();
+    recorder.record( Long.MAX_VALUE );
+    assertEquals( Long.MAX_VALUE, recorder.snapshot().p50() );
+  }
+
+  @Test
+  public void relativeErrorStaysBelowOneBucket()
+  {
+    SplittableRandom random = new SplittableRandom( 42 );
+    for( int i = 0; i < 100_000; i++ )
+    {
+      long value = random.nextLong( Long.MAX_VALUE ) >>> random.nextInt( 63 );
+      long high = LatencyRecorder.highestValueOf(
+        LatencyRecorder.indexOf( value ) );
+      assertTrue( high >= value && high - value <= value / 32,
+        () -> value + " reported as " + high );
+    }
+  }
+
+  @Test
+  public void negativeValuesCountAsZeroAndResetClears()
+  {
+    LatencyRecorder recorder = new LatencyRecorder();
+    assertEquals( new LatencySnapshot( 0, 0, 0, 0, 0, 0, 0 ),
+      recorder.snapshot() );
+
+    recorder.record( -5 );
+    assertEquals( new LatencySnapshot( 1, 0, 0, 0, 0, 0, 0 ),
+      recorder.snapshot() );
+
+    recorder.reset();
+    recorder.record( 7 );
+    assertEquals( new LatencySnapshot( 1, 7, 7, 7, 7, 7, 7 ),
+      recorder.snapshot() );
+  }
+
+}
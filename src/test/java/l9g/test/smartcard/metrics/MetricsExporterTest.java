@@ -0,0 +1,53 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.metrics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class MetricsExporterTest
+{
+  @Test
+  public void closeWritesTheLastSnapshot( @TempDir Path dir )
+    throws Exception
+  {
+    Path file = dir.resolve( "metrics.json" );
+    TapMetrics metrics = new TapMetrics();
+
+    for( int i = 0; i < 50; i++ )
+    {
+      // closed while periodic exports are running
+      MetricsExporter exporter =
+        new MetricsExporter( metrics, file, Duration.ofMillis( 1 ) );
+      Thread.sleep( 2 );
+      metrics.reader( "Reader 0" ).tap();
+      exporter.close();
+
+      assertTrue( Files.readString( file ).contains( "\"taps\": " + ( i + 1 ) ) );
+      assertFalse( Files.exists( dir.resolve( "metrics.json.tmp" ) ) );
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.profile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import l9g.test.smartcard.profile.AnswerToReset.InterfaceByte;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Real ATRs of a T=0 contact card, a T=1 Java Card and contactless cards
+ * presented by a PC/SC reader.
+ *
+ * @author th
+ */
+public class AnswerToResetTest
+{
+  @Test
+  public void contactCardWithImplicitT0()
+  {
+    AnswerToReset atr = parse( "3B6500009C11010103" );
+
+    assertTrue( atr.isValid() );
+    assertEquals( 0x3B, atr.getTs() );
+    assertEquals( List.of( new InterfaceByte( 'B', 1, 0x00 ),
+      new InterfaceByte( 'C', 1, 0x00 ) ), atr.getInterfaceBytes() );
+    assertEquals( Set.of( 0 ), atr.getProtocols() );
+    assertArrayEquals( hex( "9C11010103" ), atr.getHistoricalBytes() );
+    // no TCK if only T=0 is indicated
+    assertEquals( -1, atr.getTck() );
+    assertFalse( atr.isPcscStorageCard() );
+    assertNull( atr.getCardName() );
+  }
+
+  @Test
+  public void javaCardWithT1()
+  {
+    AnswerToReset atr = parse( "3BF81300008131FE454A434F5076323431B7" );
+
+    assertTrue( atr.isValid() );
+    assertEquals( 0x13, atr.getInterfaceByte( 'A', 1 ) );
+    assertEquals( 0x81, atr.getInterfaceByte( 'D', 1 ) );
+    assertEquals( 0x31, atr.getInterfaceByte( 'D', 2 ) );
+    // IFSC 254, BWI 4 / CWI 5
+    assertEquals( 0xFE, atr.getInterfaceByte( 'A', 3 ) );
+    assertEquals( 0x45, atr.getInterfaceByte( 'B', 3 ) );
+    assertEquals( -1, atr.getInterfaceByte( 'C', 3 ) );
+    assertEquals( Set.of( 1 ), atr.getProtocols() );
+    assertEquals( "JCOPv241", new String( atr.getHistoricalBytes(),
+      StandardCharsets.US_ASCII ) );
+    assertEquals( 0xB7, atr.getTck() );
+  }
+
+  @Test
+  public void contactlessStorageCard()
+  {
+    AnswerToReset atr = parse( "3B8F8001804F0CA000000306030001000000006A" );
+
+    assertTrue( atr.isValid() );
+    assertEquals( Set.of( 0, 1 ), atr.getProtocols() );
+    assertEquals( 15, atr.getHistoricalBytes().length );
+    assertEquals( 0x6A, atr.getTck() );
+    assertTrue( atr.isPcscStorageCard() );
+    assertEquals( 0x03, atr.getPcscStandard() );
+    assertEquals( 0x0001, atr.getPcscCardName() );
+    assertEquals( "MIFARE Classic 1K", atr.getCardName() );
+  }
+
+  @Test
+  public void contactlessProcessorCard()
+  {
+    // MIFARE DESFire, ISO 14443-4: one historical byte, no storage card
+    AnswerToReset atr = parse( "3B8180018080" );
+
+    assertTrue( atr.isValid() );
+    assertEquals( Set.of( 0, 1 ), atr.getProtocols() );
+    assertArrayEquals( hex( "80" ), atr.getHistoricalBytes() );
+    assertEquals( 0x80, atr.getTck() );
+    assertFalse( atr.isPcscStorageCard() );
+    assertEquals( -1, atr.getPcscCardName() );
+  }
+
+  @Test
+  public void wrongCheckByteOrTruncatedAtrIsInvalid()
+  {
+    AnswerToReset wrongTck = parse( "3BF81300008131FE454A434F5076323431B6" );
+    assertFalse( wrongTck.isValid() );
+    assertEquals( 0xB6, wrongTck.getTck() );
+    assertEquals( Set.of( 1 ), wrongTck.getProtocols() );
+
+    // TCK missing
+    assertFalse( parse( "3BF81300008131FE454A434F5076323431" ).isValid() );
+    // historical bytes cut short
+    AnswerToReset truncated = parse( "3B6500009C11" );
+    assertFalse( truncated.isValid() );
+    assertArrayEquals( hex( "9C11" ), truncated.getHistoricalBytes() );
+    // interface bytes cut short
+    assertFalse( parse( "3BF813" ).isValid() );
+    assertFalse( parse( "3B" ).isValid() );
+  }
+
+  private static AnswerToReset parse( String atr )
+  {
+    return AnswerToReset.parse( hex( atr ) );
+  }
+
+  private static byte[] hex( String hex )
+  {
+    return HexFormat.of().parseHex( hex );
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.recovery;
+
+import java.time.Duration;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminals;
+import l9g.test.smartcard.sim.SimulatedException;
+import l9g.test.smartcard.sim.SimulatedReaders;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author th
+ */
+public class RecoverySupervisorTest
+{
+  @Test
+  public void readerFaultKeepsTheContext()
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    readers.attach( "Reader 0" );
+    RecoverySupervisor recovery = new RecoverySupervisor(
+      readers::createTerminalFactory, Duration.ofMillis( 10 ),
+      Duration.ofMillis( 50 ) );
+    CardTerminals terminals = recovery.connect();
+
+    assertSame( terminals, recovery.recover( terminals,
+      new CardException( "list() failed",
+        new SimulatedException( "SCARD_E_READER_UNAVAILABLE" ) ) ) );
+    assertEquals( 0, recovery.getRebuilds() );
+  }
+
+  @Test
+  public void lostContextIsReplacedOnceTheServiceIsBack()
+    throws Exception
+  {
+    SimulatedReaders readers = new SimulatedReaders();
+    readers.attach( "Reader 0" );
+    RecoverySupervisor recovery = new RecoverySupervisor(
+      readers::createTerminalFactory, Duration.ofMillis( 10 ),
+      Duration.ofMillis( 50 ) );
+    CardTerminals terminals = recovery.connect();
+
+    readers.stopService();
+    Thread.ofVirtual().start( () ->
+    {
+      try
+      {
+        Thread.sleep( 200 );
+        readers.startService();
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+    } );
+
+    CardTerminals recovered = recovery.recover( terminals,
+      new CardException( "list() failed",
+        new SimulatedException( "SCARD_E_NO_SERVICE" ) ) );
+    assertNotNull( recovered );
+    assertNotSame( terminals, recovered );
+    assertEquals( 1, recovered.list().size() );
+    assertEquals( 1, recovery.getRebuilds() );
+    assertTrue( recovery.getFailedAttempts() > 0 );
+  }
+
+}
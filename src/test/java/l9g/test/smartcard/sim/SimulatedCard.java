@@ -0,0 +1,283 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.nio.ByteBuffer;
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+/**
+ * A connection to a {@link SimulatedSmartcard} on a simulated reader.
+ *
+ * @author th
+ */
+public class SimulatedCard extends Card
+{
+  SimulatedCard( SimulatedCardTerminal terminal, SimulatedSmartcard smartcard,
+    String protocol )
+  {
+    this.terminal = terminal;
+    this.smartcard = smartcard;
+    this.protocol = protocol;
+    this.atr = new ATR( smartcard.getAtr() );
+    this.basicChannel = new SimulatedCardChannel( this );
+    this.pending = ByteBuffer.allocate( maxResponseApduLength() );
+    this.pending.limit( 0 );
+  }
+
+  @Override
+  public ATR getATR()
+  {
+    return atr;
+  }
+
+  @Override
+  public String getProtocol()
+  {
+    return protocol;
+  }
+
+  @Override
+  public CardChannel getBasicChannel()
+  {
+    checkConnected();
+    return basicChannel;
+  }
+
+  @Override
+  public CardChannel openLogicalChannel()
+    throws CardException
+  {
+    throw new CardException( "logical channels are not simulated" );
+  }
+
+  @Override
+  public void beginExclusive()
+    throws CardException
+  {
+    checkConnected();
+    synchronized( this )
+    {
+      if( exclusiveOwner != null )
+      {
+        throw new CardException( "beginExclusive() failed",
+          new SimulatedException( "SCARD_E_SHARING_VIOLATION" ) );
+      }
+      exclusiveOwner = Thread.currentThread();
+    }
+  }
+
+  @Override
+  public void endExclusive()
+    throws CardException
+  {
+    checkConnected();
+    synchronized( this )
+    {
+      if( exclusiveOwner != Thread.currentThread() )
+      {
+        throw new IllegalStateException(
+          "Exclusive access not assigned to current Thread" );
+      }
+      exclusiveOwner = null;
+    }
+  }
+
+  @Override
+  public byte[] transmitControlCommand( int controlCode, byte[] command )
+    throws CardException
+  {
+    throw new CardException( "control commands are not simulated" );
+  }
+
+  @Override
+  public void disconnect( boolean reset )
+    throws CardException
+  {
+    terminal.readers.lock.lock();
+    try
+    {
+      if( state == State.CONNECTED )
+      {
+        state = State.DISCONNECTED;
+        terminal.disconnected( this );
+      }
+    }
+    finally
+    {
+      terminal.readers.lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Simulated card in " + terminal.getName() + ", protocol "
+      + protocol + ", state " + state;
+  }
+
+  int transmit( ByteBuffer command, ByteBuffer response )
+    throws CardException
+  {
+    checkConnected();
+    if( state == State.REMOVED )
+    {
+      throw new CardException( "transmit() failed",
+        new SimulatedException( "SCARD_W_REMOVED_CARD" ) );
+    }
+    if( !smartcard.isChainedResponses() )
+    {
+      return smartcard.process( command, response );
+    }
+    return transmitChained( command, response );
+  }
+
+  int maxResponseApduLength()
+  {
+    return Math.max( smartcard.getMaxResponseLength(),
+      smartcard.getUid().length ) + 2;
+  }
+
+  /**
+   * Called by the terminal with the lock held.
+   */
+  void removed()
+  {
+    if( state == State.CONNECTED )
+    {
+      state = State.REMOVED;
+    }
+  }
+
+  /**
+   * T=0 style transmission: response data is announced with {@code 61xx}
+   * and fetched with GET RESPONSE ({@code 00 C0 00 00 Le}).
+   */
+  private int transmitChained( ByteBuffer command, ByteBuffer response )
+  {
+    int start = command.position();
+
+    if( command.remaining() >= 4 && command.get( start + 1 ) == (byte) 0xC0 )
+    {
+      int le = command.remaining() >= 5
+        ? command.get( start + 4 ) & 0xff : 0;
+      le = le == 0 ? 256 : le;
+      int cla = command.get( start ) & 0xff;
+      command.position( command.limit() );
+
+      int available = pending.remaining();
+      if( available == 0 )
+      {
+        return SimulatedSmartcard.status( response, 0x6985 );
+      }
+      if( cla != getResponseClass( pendingClass ) )
+      {
+        // wrong channel or secure messaging, the data stays pending
+        return SimulatedSmartcard.status( response, 0x6881 );
+      }
+      if( le > available )
+      {
+        return SimulatedSmartcard.status( response, 0x6C00 | available );
+      }
+
+      int limit = pending.limit();
+      pending.limit( pending.position() + le );
+      response.put( pending );
+      pending.limit( limit );
+
+      int left = pending.remaining();
+      return le + SimulatedSmartcard.status( response,
+        left == 0 ? 0x9000 : 0x6100 | Math.min( left, 256 ) & 0xff );
+    }
+
+    pending.clear();
+    pendingClass = command.get( start ) & 0xff;
+    int n = smartcard.process( command, pending );
+    pending.flip();
+    int sw = ( ( pending.get( n - 2 ) & 0xff ) << 8 )
+      | ( pending.get( n - 1 ) & 0xff );
+
+    if( n == 2 || sw != 0x9000 )
+    {
+      response.put( pending );
+      pending.limit( 0 );
+      return n;
+    }
+
+    pending.limit( n - 2 );
+    return SimulatedSmartcard.status( response,
+      0x6100 | Math.min( n - 2, 256 ) & 0xff );
+  }
+
+  /**
+   * Decoded independently of the transport: logical channel and secure
+   * messaging bits of an interindustry class byte (ISO 7816-4 §5.4.1),
+   * chaining bit cleared.
+   */
+  private static int getResponseClass( int cla )
+  {
+    if( cla == 0xFF )
+    {
+      return 0x00;
+    }
+    boolean further = ( cla & 0x40 ) != 0;
+    int channel = further ? 4 + ( cla & 0x0F ) : cla & 0x03;
+    int sm = further ? ( cla >> 5 ) & 0x01 : ( cla >> 2 ) & 0x03;
+    return channel < 4
+      ? sm << 2 | channel
+      : 0x40 | sm << 5 | channel - 4;
+  }
+
+  private void checkConnected()
+  {
+    if( state == State.DISCONNECTED )
+    {
+      throw new IllegalStateException( "Card has been disconnected" );
+    }
+  }
+
+  private enum State
+  {
+    CONNECTED, REMOVED, DISCONNECTED
+  }
+
+  private final SimulatedCardTerminal terminal;
+
+  private final SimulatedSmartcard smartcard;
+
+  private final String protocol;
+
+  private final ATR atr;
+
+  private final SimulatedCardChannel basicChannel;
+
+  /**
+   * Response data waiting for GET RESPONSE.
+   */
+  private final ByteBuffer pending;
+
+  /**
+   * Class byte of the command the pending data belongs to.
+   */
+  private int pendingClass;
+
+  private volatile State state = State.CONNECTED;
+
+  private Thread exclusiveOwner;
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * The basic channel of a {@link SimulatedCard}.
+ *
+ * The {@link ByteBuffer} variant of {@code transmit} works directly on
+ * the buffers of the caller and does not allocate.
+ *
+ * @author th
+ */
+public class SimulatedCardChannel extends CardChannel
+{
+  SimulatedCardChannel( SimulatedCard card )
+  {
+    this.card = card;
+  }
+
+  @Override
+  public Card getCard()
+  {
+    return card;
+  }
+
+  @Override
+  public int getChannelNumber()
+  {
+    return 0;
+  }
+
+  @Override
+  public ResponseAPDU transmit( CommandAPDU command )
+    throws CardException
+  {
+    ByteBuffer response = ByteBuffer.allocate( card.maxResponseApduLength() );
+    int length = card.transmit( ByteBuffer.wrap( command.getBytes() ),
+      response );
+    return new ResponseAPDU( Arrays.copyOf( response.array(), length ) );
+  }
+
+  @Override
+  public int transmit( ByteBuffer command, ByteBuffer response )
+    throws CardException
+  {
+    if( command == response )
+    {
+      throw new IllegalArgumentException(
+        "command and response must not be the same object" );
+    }
+    if( response.isReadOnly() )
+    {
+      throw new java.nio.ReadOnlyBufferException();
+    }
+    return card.transmit( command, response );
+  }
+
+  @Override
+  public void close()
+    throws CardException
+  {
+    throw new IllegalStateException( "Cannot close basic logical channel" );
+  }
+
+  private final SimulatedCard card;
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+
+/**
+ * A simulated card reader. Cards are placed on and taken off the reader
+ * with {@link #insert(SimulatedSmartcard)} and {@link #remove()}.
+ *
+ * @author th
+ */
+public class SimulatedCardTerminal extends CardTerminal
+{
+  SimulatedCardTerminal( SimulatedReaders readers, String name )
+  {
+    this.readers = readers;
+    this.name = name;
+  }
+
+  /**
+   * Places a card on the reader, replacing a card already present.
+   */
+  public void insert( SimulatedSmartcard smartcard )
+  {
+    readers.lock.lock();
+    try
+    {
+      if( connected != null )
+      {
+        connected.removed();
+        connected = null;
+      }
+      this.smartcard = smartcard;
+      generation++;
+      readers.signalChange();
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the card off the reader.
+   */
+  public void remove()
+  {
+    readers.lock.lock();
+    try
+    {
+      if( smartcard != null )
+      {
+        smartcard = null;
+        if( connected != null )
+        {
+          connected.removed();
+          connected = null;
+        }
+        readers.signalChange();
+      }
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  /**
+   * Places a card on the reader, waits until the card has been
+   * disconnected by the application and takes it off again.
+   *
+   * @return {@code false} if the card has not been connected and
+   * disconnected within the timeout
+   */
+  public boolean tap( SimulatedSmartcard smartcard, long timeout )
+    throws InterruptedException
+  {
+    readers.lock.lock();
+    try
+    {
+      insert( smartcard );
+      long taps = disconnects;
+      long nanos = SimulatedReaders.timeoutNanos( timeout );
+      while( disconnects == taps && attached && this.smartcard == smartcard )
+      {
+        if( ( nanos = readers.awaitChange( nanos ) ) <= 0 )
+        {
+          break;
+        }
+      }
+      remove();
+      return disconnects != taps;
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  @Override
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public Card connect( String protocol )
+    throws CardException
+  {
+    SimulatedSmartcard current;
+    long cardGeneration;
+
+    readers.lock.lock();
+    try
+    {
+      checkAttached();
+      readers.checkConnect( "connect()" );
+      current = smartcard;
+      cardGeneration = generation;
+      if( current == null )
+      {
+        throw new CardException( "connect() failed",
+          new SimulatedException( "SCARD_W_REMOVED_CARD" ) );
+      }
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+
+    // negotiation happens outside of the lock, like a real reader that
+    // does not block the other readers
+    String negotiated = current.negotiate( protocol );
+
+    readers.lock.lock();
+    try
+    {
+      checkAttached();
+      if( smartcard != current || generation != cardGeneration )
+      {
+        throw new CardException( "connect() failed",
+          new SimulatedException( "SCARD_W_REMOVED_CARD" ) );
+      }
+      connected = new SimulatedCard( this, current, negotiated );
+      return connected;
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isCardPresent()
+    throws CardException
+  {
+    readers.lock.lock();
+    try
+    {
+      checkAttached();
+      return smartcard != null;
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean waitForCardPresent( long timeout )
+    throws CardException
+  {
+    return waitFor( true, timeout );
+  }
+
+  @Override
+  public boolean waitForCardAbsent( long timeout )
+    throws CardException
+  {
+    return waitFor( false, timeout );
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SimulatedCardTerminal: " + name;
+  }
+
+  boolean isAttached()
+  {
+    return attached;
+  }
+
+  boolean hasCard()
+  {
+    return smartcard != null;
+  }
+
+  long getGeneration()
+  {
+    return generation;
+  }
+
+  /**
+   * Called by the reader set with the lock held.
+   */
+  void detached()
+  {
+    attached = false;
+    if( connected != null )
+    {
+      connected.removed();
+      connected = null;
+    }
+  }
+
+  /**
+   * Called by the reader set with the lock held.
+   */
+  void serviceStopped()
+  {
+    if( connected != null )
+    {
+      connected.removed();
+      connected = null;
+    }
+  }
+
+  /**
+   * Called by a card on disconnect, with the lock held.
+   */
+  void disconnected( SimulatedCard card )
+  {
+    if( connected == card )
+    {
+      connected = null;
+    }
+    disconnects++;
+    readers.signalChange();
+  }
+
+  void checkAttached()
+    throws CardException
+  {
+    readers.checkRunning( name );
+    if( !attached )
+    {
+      throw new CardException( "reader unavailable: " + name,
+        new SimulatedException( "SCARD_E_READER_UNAVAILABLE" ) );
+    }
+  }
+
+  private boolean waitFor( boolean present, long timeout )
+    throws CardException
+  {
+    readers.lock.lock();
+    try
+    {
+      long nanos = SimulatedReaders.timeoutNanos( timeout );
+      while( true )
+      {
+        checkAttached();
+        if( ( smartcard != null ) == present )
+        {
+          return true;
+        }
+        if( ( nanos = readers.awaitChange( nanos ) ) <= 0 )
+        {
+          return ( smartcard != null ) == present;
+        }
+      }
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new CardException( "wait interrupted", e );
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  final SimulatedReaders readers;
+
+  private final String name;
+
+  private SimulatedSmartcard smartcard;
+
+  private SimulatedCard connected;
+
+  private long generation;
+
+  private long disconnects;
+
+  private boolean attached = true;
+
+}
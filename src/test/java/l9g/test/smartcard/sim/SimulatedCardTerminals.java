@@ -0,0 +1,207 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * The readers of a {@link SimulatedReaders} set, as seen by one
+ * {@code TerminalFactory.terminals()} call.
+ *
+ * Like the PC/SC implementation, every instance keeps its own state for
+ * {@link #waitForChange(long)}; the first call takes the current state as
+ * baseline and waits for a change of it, so cards already present are no
+ * insertions. A reader attached later starts as "no card present". Card
+ * insertions are tracked by a per reader counter, so a card taken off and
+ * put back between two calls still counts as an insertion.
+ *
+ * Every instance belongs to the service context of its factory, after a
+ * service restart it only fails.
+ *
+ * @author th
+ */
+public class SimulatedCardTerminals extends CardTerminals
+{
+  SimulatedCardTerminals( SimulatedReaders readers, long epoch )
+  {
+    this.readers = readers;
+    this.epoch = epoch;
+  }
+
+  @Override
+  public List<CardTerminal> list( State state )
+    throws CardException
+  {
+    readers.lock.lock();
+    try
+    {
+      readers.checkContext( "list()", epoch );
+      List<CardTerminal> result = new ArrayList<>();
+
+      switch( state )
+      {
+        case ALL ->
+          result.addAll( readers.list() );
+
+        case CARD_PRESENT ->
+          readers.list().stream()
+            .filter( SimulatedCardTerminal::hasCard ).forEach( result::add );
+
+        case CARD_ABSENT ->
+          readers.list().stream()
+            .filter( t -> !t.hasCard() ).forEach( result::add );
+
+        case CARD_INSERTION ->
+        {
+          if( known == null )
+          {
+            return list( State.CARD_PRESENT );
+          }
+          result.addAll( insertions );
+        }
+
+        case CARD_REMOVAL ->
+        {
+          if( known == null )
+          {
+            return list( State.CARD_ABSENT );
+          }
+          result.addAll( removals );
+        }
+      }
+
+      return Collections.unmodifiableList( result );
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean waitForChange( long timeout )
+    throws CardException
+  {
+    readers.lock.lock();
+    try
+    {
+      long nanos = SimulatedReaders.timeoutNanos( timeout );
+      if( known == null )
+      {
+        known = new HashMap<>();
+        for( SimulatedCardTerminal terminal : readers.list() )
+        {
+          known.put( terminal,
+            new Seen( terminal.getGeneration(), terminal.hasCard() ) );
+        }
+      }
+      Map<SimulatedCardTerminal, Seen> previous = known;
+
+      while( true )
+      {
+        readers.checkContext( "waitForChange()", epoch );
+        List<SimulatedCardTerminal> current = readers.list();
+
+        if( current.isEmpty() )
+        {
+          throw new IllegalStateException( "No terminals available" );
+        }
+
+        List<SimulatedCardTerminal> inserted = new ArrayList<>();
+        List<SimulatedCardTerminal> removed = new ArrayList<>();
+        Map<SimulatedCardTerminal, Seen> snapshot = new HashMap<>();
+        boolean changed = false;
+
+        for( SimulatedCardTerminal terminal : current )
+        {
+          Seen now = new Seen( terminal.getGeneration(), terminal.hasCard() );
+          Seen before = previous.get( terminal );
+          snapshot.put( terminal, now );
+
+          if( before == null )
+          {
+            // a hot-plugged reader is a change
+            changed = true;
+            before = new Seen( -1, false );
+          }
+
+          if( now.present
+            && ( !before.present || before.generation != now.generation ) )
+          {
+            inserted.add( terminal );
+          }
+
+          if( before.present
+            && ( !now.present || before.generation != now.generation ) )
+          {
+            removed.add( terminal );
+          }
+        }
+
+        changed |= !snapshot.keySet().containsAll( previous.keySet() );
+
+        if( changed || !inserted.isEmpty() || !removed.isEmpty() )
+        {
+          known = snapshot;
+          insertions = inserted;
+          removals = removed;
+          return true;
+        }
+
+        if( nanos <= 0 )
+        {
+          known = snapshot;
+          insertions = List.of();
+          removals = List.of();
+          return false;
+        }
+
+        nanos = readers.awaitChange( nanos );
+      }
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new CardException( "wait interrupted", e );
+    }
+    finally
+    {
+      readers.lock.unlock();
+    }
+  }
+
+  private record Seen( long generation, boolean present )
+  {
+  }
+
+  private final SimulatedReaders readers;
+
+  private final long epoch;
+
+  private Map<SimulatedCardTerminal, Seen> known;
+
+  private List<SimulatedCardTerminal> insertions = List.of();
+
+  private List<SimulatedCardTerminal> removals = List.of();
+
+}
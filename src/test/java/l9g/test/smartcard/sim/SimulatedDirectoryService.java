@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import l9g.test.smartcard.directory.DirectoryService;
+
+/**
+ * Local stand-in for the directory service with a configurable round
+ * trip latency.
+ *
+ * @author th
+ */
+public class SimulatedDirectoryService implements DirectoryService
+{
+  public SimulatedDirectoryService( Duration latency )
+  {
+    this.latency = latency.toNanos();
+  }
+
+  public void put( long serial, String identity )
+  {
+    identities.put( serial, identity );
+  }
+
+  /**
+   * An unavailable directory fails every lookup, like a directory server
+   * that is down.
+   */
+  public void setAvailable( boolean available )
+  {
+    this.available = available;
+  }
+
+  public long getLookups()
+  {
+    return lookups.sum();
+  }
+
+  @Override
+  public String lookup( long serial )
+    throws IOException
+  {
+    lookups.increment();
+    SimulatedSmartcard.pause( latency );
+    if( !available )
+    {
+      throw new IOException( "directory service unavailable" );
+    }
+    return identities.get( serial );
+  }
+
+  private final Map<Long, String> identities = new ConcurrentHashMap<>();
+
+  private final LongAdder lookups = new LongAdder();
+
+  private final long latency;
+
+  private volatile boolean available = true;
+
+}
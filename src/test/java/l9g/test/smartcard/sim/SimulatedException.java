@@ -0,0 +1,34 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+/**
+ * Cause of the {@link javax.smartcardio.CardException}s thrown by the
+ * simulation. Like the PC/SC provider's exception, the message is the
+ * name of the PC/SC error code, e.g. {@code SCARD_E_READER_UNAVAILABLE}.
+ *
+ * @author th
+ */
+public class SimulatedException extends Exception
+{
+  public SimulatedException( String code )
+  {
+    super( code );
+  }
+
+  private static final long serialVersionUID = 1L;
+
+}
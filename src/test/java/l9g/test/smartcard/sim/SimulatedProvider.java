@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.security.Provider;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * Security provider for the pure Java {@code javax.smartcardio}
+ * simulation, registering the terminal factory type {@value #TYPE}.
+ *
+ * The provider does not need to be installed, use
+ * {@link SimulatedReaders#createTerminalFactory()} or
+ * {@code TerminalFactory.getInstance( "Simulated", readers, PROVIDER )}.
+ *
+ * @author th
+ */
+public final class SimulatedProvider extends Provider
+{
+  public static final String TYPE = "Simulated";
+
+  public static final SimulatedProvider PROVIDER = new SimulatedProvider();
+
+  private SimulatedProvider()
+  {
+    super( "L9gSimulated", "1.0",
+      "Simulated PC/SC card readers for tests and benchmarks" );
+    put( "TerminalFactory." + TYPE,
+      SimulatedTerminalFactorySpi.class.getName() );
+  }
+
+  static TerminalFactory newTerminalFactory( SimulatedReaders readers )
+  {
+    try
+    {
+      return TerminalFactory.getInstance( TYPE, readers, PROVIDER );
+    }
+    catch( java.security.NoSuchAlgorithmException e )
+    {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static final long serialVersionUID = 1L;
+
+}
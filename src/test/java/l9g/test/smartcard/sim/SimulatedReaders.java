@@ -0,0 +1,343 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.smartcardio.CardException;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * The scriptable environment behind a simulated terminal factory: the
+ * set of attached readers and the cards placed on them.
+ *
+ * <pre>
+ * SimulatedReaders readers = new SimulatedReaders();
+ * SimulatedCardTerminal reader = readers.attach( "Reader 0" );
+ * TerminalFactory factory = readers.createTerminalFactory();
+ * ...
+ * reader.insert( SimulatedSmartcard.builder().uid( uid ).build() );
+ * </pre>
+ *
+ * The PC/SC service itself can be stopped and restarted and faults can
+ * be injected, to test the recovery of an application.
+ *
+ * All state changes signal waiters in
+ * {@link javax.smartcardio.CardTerminals#waitForChange(long)} and in the
+ * terminal wait methods.
+ *
+ * @author th
+ */
+public class SimulatedReaders
+{
+  public TerminalFactory createTerminalFactory()
+  {
+    return SimulatedProvider.newTerminalFactory( this );
+  }
+
+  /**
+   * Attaches (hot-plugs) a new reader.
+   */
+  public SimulatedCardTerminal attach( String name )
+  {
+    lock.lock();
+    try
+    {
+      if( terminals.containsKey( name ) )
+      {
+        throw new IllegalArgumentException( "reader already attached: " + name );
+      }
+      SimulatedCardTerminal terminal = new SimulatedCardTerminal( this, name );
+      terminals.put( name, terminal );
+      changed.signalAll();
+      return terminal;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Detaches (unplugs) a reader. Every later operation on the reader
+   * fails with {@code SCARD_E_READER_UNAVAILABLE}.
+   */
+  public void detach( String name )
+  {
+    lock.lock();
+    try
+    {
+      SimulatedCardTerminal terminal = terminals.remove( name );
+      if( terminal != null )
+      {
+        terminal.detached();
+        changed.signalAll();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops the simulated PC/SC service, like a pcscd shutdown: every
+   * operation on the readers fails with {@code SCARD_E_NO_SERVICE},
+   * connected cards are lost and no terminal factory can be created
+   * until {@link #startService()}.
+   */
+  public void stopService()
+  {
+    lock.lock();
+    try
+    {
+      if( serviceRunning )
+      {
+        serviceRunning = false;
+        terminals.values().forEach( SimulatedCardTerminal::serviceStopped );
+        changed.signalAll();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts the simulated PC/SC service again. The {@code CardTerminals}
+   * of factories created before stay stale and fail with
+   * {@code SCARD_E_INVALID_HANDLE}, like the contexts of a previous
+   * pcscd.
+   */
+  public void startService()
+  {
+    lock.lock();
+    try
+    {
+      if( !serviceRunning )
+      {
+        serviceRunning = true;
+        serviceEpoch++;
+        changed.signalAll();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fails the next {@code count} reader list and change wait calls of
+   * any {@code CardTerminals} with the given PC/SC error code, e.g.
+   * {@code SCARD_F_COMM_ERROR}.
+   */
+  public void injectFault( String code, int count )
+  {
+    lock.lock();
+    try
+    {
+      faultCode = code;
+      faultCount = count;
+      changed.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fails the next {@code count} card connects on any reader with the
+   * given PC/SC error code, e.g. {@code SCARD_E_INVALID_HANDLE} of a
+   * terminal still bound to a lost context.
+   */
+  public void injectConnectFault( String code, int count )
+  {
+    lock.lock();
+    try
+    {
+      connectFaultCode = code;
+      connectFaultCount = count;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  public SimulatedCardTerminal get( String name )
+  {
+    lock.lock();
+    try
+    {
+      return terminals.get( name );
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  List<SimulatedCardTerminal> list()
+  {
+    lock.lock();
+    try
+    {
+      return new ArrayList<>( terminals.values() );
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Establishes a context with the service, like
+   * {@code SCardEstablishContext}.
+   *
+   * @return the service epoch the context belongs to
+   */
+  long establishContext()
+    throws SimulatedException
+  {
+    lock.lock();
+    try
+    {
+      if( !serviceRunning )
+      {
+        throw new SimulatedException( "SCARD_E_NO_SERVICE" );
+      }
+      return serviceEpoch;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fails if the service is stopped, caller must hold the lock.
+   */
+  void checkRunning( String operation )
+    throws CardException
+  {
+    if( !serviceRunning )
+    {
+      throw new CardException( operation + " failed",
+        new SimulatedException( "SCARD_E_NO_SERVICE" ) );
+    }
+  }
+
+  /**
+   * Fails if the service is stopped, the context of {@code epoch} is
+   * stale or a fault is injected, caller must hold the lock.
+   */
+  void checkContext( String operation, long epoch )
+    throws CardException
+  {
+    checkRunning( operation );
+    if( epoch != serviceEpoch )
+    {
+      throw new CardException( operation + " failed",
+        new SimulatedException( "SCARD_E_INVALID_HANDLE" ) );
+    }
+    if( faultCount > 0 )
+    {
+      faultCount--;
+      throw new CardException( operation + " failed",
+        new SimulatedException( faultCode ) );
+    }
+  }
+
+  /**
+   * Fails if a connect fault is injected, caller must hold the lock.
+   */
+  void checkConnect( String operation )
+    throws CardException
+  {
+    if( connectFaultCount > 0 )
+    {
+      connectFaultCount--;
+      throw new CardException( operation + " failed",
+        new SimulatedException( connectFaultCode ) );
+    }
+  }
+
+  /**
+   * Signals a state change, caller must hold the lock.
+   */
+  void signalChange()
+  {
+    changed.signalAll();
+  }
+
+  /**
+   * Waits for the next state change, caller must hold the lock.
+   *
+   * @return the remaining nanos, {@code <= 0} if the timeout elapsed
+   */
+  long awaitChange( long nanos )
+    throws InterruptedException
+  {
+    if( nanos == Long.MAX_VALUE )
+    {
+      changed.await();
+      return nanos;
+    }
+    return changed.awaitNanos( nanos );
+  }
+
+  /**
+   * Converts a {@code javax.smartcardio} timeout (0 means forever) into
+   * nanos for {@link #awaitChange(long)}.
+   */
+  static long timeoutNanos( long timeout )
+  {
+    if( timeout < 0 )
+    {
+      throw new IllegalArgumentException( "timeout must not be negative" );
+    }
+    return timeout == 0
+      ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos( timeout );
+  }
+
+  final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition changed = lock.newCondition();
+
+  private final Map<String, SimulatedCardTerminal> terminals =
+    new LinkedHashMap<>();
+
+  private boolean serviceRunning = true;
+
+  private long serviceEpoch;
+
+  private String faultCode;
+
+  private int faultCount;
+
+  private String connectFaultCode;
+
+  private int connectFaultCount;
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import javax.smartcardio.CardException;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A scripted card for the simulated readers.
+ *
+ * The card answers the PC/SC pseudo APDU GET DATA ({@code FF CA 00 00})
+ * with its UID (or {@code 6A81} for an empty UID), READ BINARY ({@code B0}) from its memory and SELECT
+ * ({@code A4}) with {@code 9000}, everything else with {@code 6D00}.
+ * Connect, protocol negotiation, every APDU and every response byte can
+ * be slowed down to model real reader and card timing.
+ *
+ * Instances are immutable and may be placed on several readers at once.
+ *
+ * @author th
+ */
+@Getter
+@Builder
+public class SimulatedSmartcard
+{
+  /**
+   * PC/SC part 3 ATR of a contactless MIFARE Classic 1K card.
+   */
+  public static final byte[] ATR_MIFARE_CLASSIC_1K =
+  {
+    (byte) 0x3B, (byte) 0x8F, (byte) 0x80, (byte) 0x01, (byte) 0x80,
+    (byte) 0x4F, (byte) 0x0C, (byte) 0xA0, (byte) 0x00, (byte) 0x00,
+    (byte) 0x03, (byte) 0x06, (byte) 0x03, (byte) 0x00, (byte) 0x01,
+    (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A
+  };
+
+  @Builder.Default
+  private final byte[] atr = ATR_MIFARE_CLASSIC_1K;
+
+  @Builder.Default
+  private final byte[] uid =
+  {
+    (byte) 0x04, (byte) 0x8A, (byte) 0x2B, (byte) 0x6C
+  };
+
+  @Builder.Default
+  private final byte[] memory = new byte[ 0 ];
+
+  /**
+   * The only protocol the card speaks: {@code T=0} or {@code T=1}.
+   */
+  @Builder.Default
+  private final String protocol = "T=1";
+
+  /**
+   * Largest response data length per APDU, longer requests are answered
+   * with {@code 6700}.
+   */
+  @Builder.Default
+  private final int maxResponseLength = 256;
+
+  /**
+   * Whether extended length APDUs are accepted.
+   */
+  private final boolean extendedLength;
+
+  /**
+   * Whether READ BINARY beyond the end of the memory is answered with
+   * {@code 6Cxx} (the bytes left) or {@code 6B00} (none left) instead of
+   * the data left and {@code 6282}.
+   */
+  private final boolean exactLength;
+
+  /**
+   * Whether response data is only handed out through GET RESPONSE after
+   * a {@code 61xx} status word, like T=0 cards do.
+   */
+  private final boolean chainedResponses;
+
+  /**
+   * Status word GET DATA is answered with instead of the UID, e.g.
+   * {@code 6300} for a card pulled during the read, 0 for none.
+   */
+  private final int uidStatus;
+
+  private final long connectNanos;
+
+  /**
+   * Additional connect time if the protocol has to be negotiated
+   * ({@code connect( "*" )}). An assumed cost, not a measured one: a
+   * benchmark charging it only shows what it put in.
+   */
+  private final long negotiationNanos;
+
+  private final long apduNanos;
+
+  /**
+   * Transfer time per response byte, on top of {@code apduNanos}.
+   */
+  private final long byteNanos;
+
+  String negotiate( String requested )
+    throws CardException
+  {
+    if( "*".equals( requested ) )
+    {
+      pause( connectNanos + negotiationNanos );
+      return protocol;
+    }
+
+    if( protocol.equals( requested ) || "DIRECT".equals( requested ) )
+    {
+      pause( connectNanos );
+      return requested;
+    }
+
+    throw new CardException( "connect() failed",
+      new SimulatedException( "SCARD_E_PROTO_MISMATCH" ) );
+  }
+
+  /**
+   * Processes the command APDU between position and limit of
+   * {@code command} and writes the response APDU at the position of
+   * {@code response}. Both positions are advanced.
+   *
+   * @return the length of the response APDU
+   */
+  int process( ByteBuffer command, ByteBuffer response )
+  {
+    int length = processCommand( command, response );
+    pause( apduNanos + length * byteNanos );
+    return length;
+  }
+
+  private int processCommand( ByteBuffer command, ByteBuffer response )
+  {
+    int start = command.position();
+    int length = command.remaining();
+
+    if( length < 4 )
+    {
+      throw new IllegalArgumentException( "APDU must be at least 4 bytes" );
+    }
+
+    int cla = command.get( start ) & 0xff;
+    int ins = command.get( start + 1 ) & 0xff;
+    int p1 = command.get( start + 2 ) & 0xff;
+    int p2 = command.get( start + 3 ) & 0xff;
+    int le = -1;
+    boolean extended = false;
+
+    if( length == 5 )
+    {
+      le = command.get( start + 4 ) & 0xff;
+      le = le == 0 ? 256 : le;
+    }
+    else if( length > 5 )
+    {
+      int b4 = command.get( start + 4 ) & 0xff;
+      if( b4 != 0 )
+      {
+        if( length == 6 + b4 )
+        {
+          le = command.get( start + 5 + b4 ) & 0xff;
+          le = le == 0 ? 256 : le;
+        }
+      }
+      else if( length == 7 )
+      {
+        extended = true;
+        le = ( ( command.get( start + 5 ) & 0xff ) << 8 )
+          | ( command.get( start + 6 ) & 0xff );
+        le = le == 0 ? 65536 : le;
+      }
+      else
+      {
+        extended = true;
+        int lc = ( ( command.get( start + 5 ) & 0xff ) << 8 )
+          | ( command.get( start + 6 ) & 0xff );
+        if( length == 9 + lc )
+        {
+          le = ( ( command.get( start + 7 + lc ) & 0xff ) << 8 )
+            | ( command.get( start + 8 + lc ) & 0xff );
+          le = le == 0 ? 65536 : le;
+        }
+      }
+    }
+
+    command.position( command.limit() );
+
+    if( extended && !extendedLength )
+    {
+      return status( response, 0x6700 );
+    }
+
+    if( cla == 0xFF && ins == 0xCA )
+    {
+      if( uidStatus != 0 )
+      {
+        return status( response, uidStatus );
+      }
+      if( p1 != 0 || p2 != 0 || uid.length == 0 )
+      {
+        // no UID, e.g. a contact card
+        return status( response, 0x6A81 );
+      }
+      if( le >= 0 && le < uid.length )
+      {
+        return status( response, 0x6C00 | uid.length );
+      }
+      response.put( uid );
+      return uid.length + status( response, 0x9000 );
+    }
+
+    if( ins == 0xB0 )
+    {
+      int offset = ( ( p1 & 0x7f ) << 8 ) | p2;
+      if( le < 0 || le > maxResponseLength )
+      {
+        return status( response, 0x6700 );
+      }
+      if( offset > memory.length )
+      {
+        return status( response, 0x6B00 );
+      }
+      int n = Math.min( le, memory.length - offset );
+      if( exactLength && n < le )
+      {
+        return status( response, n == 0 ? 0x6B00 : 0x6C00 | n & 0xff );
+      }
+      response.put( memory, offset, n );
+      return n + status( response, n < le ? 0x6282 : 0x9000 );
+    }
+
+    if( ins == 0xA4 )
+    {
+      return status( response, 0x9000 );
+    }
+
+    return status( response, 0x6D00 );
+  }
+
+  static void pause( long nanos )
+  {
+    if( nanos > 0 )
+    {
+      LockSupport.parkNanos( nanos );
+    }
+  }
+
+  static int status( ByteBuffer response, int sw )
+  {
+    response.put( (byte) ( sw >> 8 ) );
+    response.put( (byte) sw );
+    return 2;
+  }
+
+}
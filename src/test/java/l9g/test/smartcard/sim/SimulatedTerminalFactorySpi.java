@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.test.smartcard.sim;
+
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactorySpi;
+
+/**
+ * Factory SPI for {@link SimulatedProvider}. The factory parameter must be
+ * the {@link SimulatedReaders} instance to expose.
+ *
+ * @author th
+ */
+public class SimulatedTerminalFactorySpi extends TerminalFactorySpi
+{
+  /**
+   * @throws SimulatedException {@code SCARD_E_NO_SERVICE} if the
+   * service is stopped
+   */
+  public SimulatedTerminalFactorySpi( Object params )
+    throws SimulatedException
+  {
+    if( !( params instanceof SimulatedReaders ) )
+    {
+      throw new IllegalArgumentException(
+        "SimulatedReaders parameter required" );
+    }
+    this.readers = (SimulatedReaders) params;
+    this.epoch = readers.establishContext();
+  }
+
+  @Override
+  protected CardTerminals engineTerminals()
+  {
+    return new SimulatedCardTerminals( readers, epoch );
+  }
+
+  private final SimulatedReaders readers;
+
+  private final long epoch;
+
+}